@@ -1,10 +1,13 @@
 package ed.inf.adbs.minibase;
 
 import ed.inf.adbs.minibase.base.*;
+import ed.inf.adbs.minibase.base.operator.ColumnarFile;
 import ed.inf.adbs.minibase.base.operator.SelectStatement;
 import ed.inf.adbs.minibase.parser.QueryParser;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.file.Paths;
 import java.util.List;
 
@@ -17,20 +20,90 @@ public class Minibase {
     /**
      * Main function for Minibase, reads in arguments, parses query, initialises DatabaseCatalogue, then calls
      * evaluateCQ
-     * @param args database directory, input file and output file
+     * @param args options, database directory, input file and output file
      */
     public static void main(String[] args) {
 
+        // Read the options given before the positional arguments
+        int optionCount = 0;
+        boolean analyze = false;
+        boolean convert = false;
+        boolean server = false;
+        boolean batch = false;
+        // port of a server reading its queries from a socket, -1 if it reads them from the standard input
+        int port = -1;
+        while (optionCount < args.length && args[optionCount].startsWith("--")) {
+            if (args[optionCount].equals("--analyze")) {
+                analyze = true;
+            } else if (args[optionCount].equals("--convert")) {
+                convert = true;
+            } else if (args[optionCount].equals("--batch")) {
+                batch = true;
+            } else if (args[optionCount].equals("--server")) {
+                server = true;
+            } else if (args[optionCount].startsWith("--server=")) {
+                server = true;
+                try {
+                    port = Integer.parseInt(args[optionCount].substring("--server=".length()));
+                } catch (NumberFormatException e) {
+                    printUsage();
+                    return;
+                }
+            } else if (!setOption(args[optionCount])) {
+                printUsage();
+                return;
+            }
+            optionCount++;
+        }
+
+        // Compute the statistics of the database or convert its relations instead of evaluating a query
+        if (analyze || convert) {
+            if (args.length - optionCount != 1) {
+                printUsage();
+                return;
+            }
+            DatabaseCatalogue catalogue = DatabaseCatalogue.getInstance();
+            catalogue.loadDatabase(args[optionCount]);
+            if (convert)
+                convertToColumnar();
+            if (analyze)
+                catalogue.analyze();
+            return;
+        }
+
+        // Evaluate the queries sent to a server until its input ends
+        if (server) {
+            if (args.length - optionCount != 1 || (port >= 0 && !ExecutionSettings.getOutputFormat().equals("csv"))) {
+                printUsage();
+                return;
+            }
+            serve(args[optionCount], port);
+            return;
+        }
+
+        // Evaluate every query of the input files and directories, writing the outputs to the last directory
+        if (batch) {
+            if (args.length - optionCount < 3) {
+                printUsage();
+                return;
+            }
+            QueryBatch queries = new QueryBatch(args[optionCount]);
+            for (int i = optionCount + 1; i < args.length - 1; i++)
+                queries.add(args[i], args[args.length - 1]);
+            queries.run(ExecutionSettings.getQueryThreads(), System.out);
+            return;
+        }
+
         // Check correct number of arguments
-        if (args.length != 3) {
-            System.err.println("Usage: Minibase database_dir input_file output_file");
+        if (args.length - optionCount != 3) {
+            printUsage();
             return;
         }
 
         // Store arguments locally
-        String dbDir = args[0];
-        String inFile = args[1];
-        String outFile = args[2];
+        String dbDir = args[optionCount];
+        String inFile = args[optionCount + 1];
+        String outFile = args[optionCount + 2];
         Query query;
         try {
             query = QueryParser.parse(Paths.get(inFile));
@@ -43,6 +116,181 @@ public class Minibase {
         evaluateCQ(query);
     }
 
+    /**
+     * Prints the command line usage
+     */
+    private static void printUsage() {
+        System.err.println("Usage: Minibase [options] database_dir input_file output_file");
+        System.err.println("       Minibase [--analyze] [--convert] database_dir");
+        System.err.println("       Minibase --server[=PORT] [options] database_dir");
+        System.err.println("       Minibase --batch [options] database_dir input_file_or_dir... output_dir");
+        System.err.println("Options:");
+        System.err.println("  --join-memory=SIZE  memory budget for hash join build sides (e.g. 64m), partitions");
+        System.err.println("                      are spilled to disk when it is exceeded");
+        System.err.println("  --sort-memory=SIZE  memory budget for each sorted run of a sort-merge join (default 64m)");
+        System.err.println("  --distinct-memory=SIZE  memory budget for the tuples seen by duplicate elimination");
+        System.err.println("                      (default 64m), the rest of the input is partitioned to disk");
+        System.err.println("  --aggregate-memory=SIZE  memory budget for the groups of a SUM query (default 64m),");
+        System.err.println("                      the rows of the other groups are partitioned to disk");
+        System.err.println("  --aggregate-threads=N  threads aggregating a SUM query (default 1), 0 for one per");
+        System.err.println("                      processor, a parallel aggregation over the memory budget goes on");
+        System.err.println("                      serially and partitions the rows of the other groups to disk");
+        System.err.println("  --join-threads=N    threads building and probing each in-memory hash join (default 1),");
+        System.err.println("                      0 for one per processor, rows are then returned in any order");
+        System.err.println("  --exchange-threads=N  run the scans and joins as N instances each reading a partition");
+        System.err.println("                      of the first table's memory mapped file (default 1), 0 for one");
+        System.err.println("                      per processor, rows are then returned in any order");
+        System.err.println("  --eager-aggregation=on|off  pre-aggregate the join inputs of a SUM query when it");
+        System.err.println("                      shrinks them (default on)");
+        System.err.println("  --block-size=N      outer tuples per block of a nested loop join (default 1024)");
+        System.err.println("  --batch-size=N      rows per batch passed between operators (default 1024)");
+        System.err.println("  --mmap-threshold=SIZE  CSV files of at least SIZE bytes are scanned by memory mapping");
+        System.err.println("                      them (default 1m), off to always read them line by line");
+        System.err.println("  --scan-threads=N    threads parsing chunks of a memory mapped CSV file (default 1),");
+        System.err.println("                      0 for one per processor, rows are then returned in any order");
+        System.err.println("  --shared-scans=on|off  read CSV files through a scan shared by the queries of a server");
+        System.err.println("                      or a batch reading the same relation, each line being parsed once");
+        System.err.println("                      for the queries moving together (default off)");
+        System.err.println("  --compile=on|off    compile queries without aggregation whose joins are in-memory hash");
+        System.err.println("                      joins into generated Java code (default off)");
+        System.err.println("  --output-format=csv|binary  format of output_file (default csv), binary writes a");
+        System.err.println("                      typed header then integers, long sums and length prefixed UTF-8");
+        System.err.println("                      strings");
+        System.err.println("  --verbose=on|off    report on the standard error how many partitions the spilling hash");
+        System.err.println("                      joins wrote and how many bytes (default off)");
+        System.err.println("  --server            load the database once and read queries from the standard input,");
+        System.err.println("                      one \"input_file output_file\" pair per line, a status line is");
+        System.err.println("                      printed as each query finishes");
+        System.err.println("  --server=PORT       load the database once and answer the queries sent on a local");
+        System.err.println("                      socket, one query per line, with its CSV rows and an empty line");
+        System.err.println("  --batch             evaluate the given query files and the .txt files of the given");
+        System.err.println("                      directories, each output being written to output_dir under the");
+        System.err.println("                      name of its query file, then report the latency of each query");
+        System.err.println("  --query-threads=N   queries a server or a batch evaluates at the same time (default");
+        System.err.println("                      one per processor)");
+        System.err.println("  --analyze           compute the statistics of every relation and store them in");
+        System.err.println("                      database_dir/stats.txt for the query planner");
+        System.err.println("  --convert           write a binary columnar copy of every relation next to its CSV");
+        System.err.println("                      file, queries scan it instead of parsing the CSV file");
+    }
+
+    /**
+     * Runs a query server on a database until its input ends
+     * @param dbDir database directory
+     * @param port port of the socket the queries are read from, -1 to read them from the standard input
+     */
+    private static void serve(String dbDir, int port) {
+        QueryServer server = new QueryServer(dbDir, ExecutionSettings.getQueryThreads());
+        try {
+            if (port >= 0)
+                server.listen(port);
+            else
+                server.serve(new BufferedReader(new InputStreamReader(System.in)), System.out);
+        } catch (IOException e) {
+            System.out.println("Error when running the server");
+            e.printStackTrace();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Converts every relation of the loaded database to a binary columnar file
+     */
+    private static void convertToColumnar() {
+        for (String relation : DatabaseCatalogue.getRelations()) {
+            try {
+                ColumnarFile.convert(DatabaseCatalogue.getCsvPath(relation), DatabaseCatalogue.getInitialTypes(relation),
+                        DatabaseCatalogue.getColumnarPath(relation));
+            } catch (IOException e) {
+                System.out.println("Error when converting " + relation);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Sets the execution setting for a command line option of the form --name=value
+     * @param option command line option
+     * @return true if the option is valid
+     */
+    private static boolean setOption(String option) {
+        int eq = option.indexOf('=');
+        if (eq < 0)
+            return false;
+        String name = option.substring(2, eq);
+        String value = option.substring(eq + 1);
+        try {
+            switch (name) {
+                case "join-memory":
+                    ExecutionSettings.setJoinMemoryBudget(ExecutionSettings.parseSize(value));
+                    return true;
+                case "sort-memory":
+                    ExecutionSettings.setSortMemoryBudget(ExecutionSettings.parseSize(value));
+                    return true;
+                case "distinct-memory":
+                    ExecutionSettings.setDistinctMemoryBudget(ExecutionSettings.parseSize(value));
+                    return true;
+                case "aggregate-memory":
+                    ExecutionSettings.setAggregateMemoryBudget(ExecutionSettings.parseSize(value));
+                    return true;
+                case "aggregate-threads":
+                    ExecutionSettings.setAggregateThreads(Integer.parseInt(value));
+                    return true;
+                case "scan-threads":
+                    ExecutionSettings.setScanThreads(Integer.parseInt(value));
+                    return true;
+                case "join-threads":
+                    ExecutionSettings.setJoinThreads(Integer.parseInt(value));
+                    return true;
+                case "query-threads":
+                    ExecutionSettings.setQueryThreads(Integer.parseInt(value));
+                    return true;
+                case "exchange-threads":
+                    ExecutionSettings.setExchangeThreads(Integer.parseInt(value));
+                    return true;
+                case "eager-aggregation":
+                    if (!value.equals("on") && !value.equals("off"))
+                        return false;
+                    ExecutionSettings.setEagerAggregation(value.equals("on"));
+                    return true;
+                case "block-size":
+                    ExecutionSettings.setBlockSize(Integer.parseInt(value));
+                    return true;
+                case "batch-size":
+                    ExecutionSettings.setBatchSize(Integer.parseInt(value));
+                    return true;
+                case "shared-scans":
+                    if (!value.equals("on") && !value.equals("off"))
+                        return false;
+                    ExecutionSettings.setSharedScans(value.equals("on"));
+                    return true;
+                case "compile":
+                    if (!value.equals("on") && !value.equals("off"))
+                        return false;
+                    ExecutionSettings.setCompiledExecution(value.equals("on"));
+                    return true;
+                case "output-format":
+                    if (!value.equals("csv") && !value.equals("binary"))
+                        return false;
+                    ExecutionSettings.setOutputFormat(value);
+                    return true;
+                case "verbose":
+                    if (!value.equals("on") && !value.equals("off"))
+                        return false;
+                    ExecutionSettings.setVerbose(value.equals("on"));
+                    return true;
+                case "mmap-threshold":
+                    ExecutionSettings.setMmapThreshold(value.equals("off") ? -1 : ExecutionSettings.parseSize(value));
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     /**
      * Given a query creates a SelectStatement instance then calls generateAndExecuteQueryPlan function
      * @param query query parsed from input file
@@ -0,0 +1,181 @@
+package ed.inf.adbs.minibase;
+
+import ed.inf.adbs.minibase.base.DatabaseCatalogue;
+import ed.inf.adbs.minibase.base.QueryContext;
+import ed.inf.adbs.minibase.base.operator.SelectStatement;
+import ed.inf.adbs.minibase.parser.QueryParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates a batch of query files in one JVM. The database is loaded once, every query is parsed and its statement
+ * built up front, each in a QueryContext of its own, then the queries are evaluated by a bounded pool of threads. The
+ * latency of each query and the throughput of the batch are reported once every query is done
+ */
+public class QueryBatch {
+
+    /**
+     * A query of the batch with its files, its statement and how long it took
+     */
+    private static class BatchQuery {
+        final String inputFile;
+        final String outputFile;
+        final QueryContext context;
+        SelectStatement statement;
+        // time spent parsing and building the statement, then evaluating it, in nanoseconds
+        long planTime;
+        long runTime;
+        // first error of the query, null if it succeeded
+        String error;
+
+        BatchQuery(String input, String output) {
+            inputFile = input;
+            outputFile = output;
+            context = new QueryContext(output, null);
+        }
+    }
+
+    private final List<BatchQuery> queries = new ArrayList<>();
+    // queries of the batch by the absolute path of their output file
+    private final Map<String, BatchQuery> outputs = new HashMap<>();
+
+    /**
+     * QueryBatch constructor, loads the database
+     * @param databaseDir database directory
+     */
+    public QueryBatch(String databaseDir) {
+        DatabaseCatalogue.getInstance().loadDatabase(databaseDir);
+    }
+
+    /**
+     * Adds the query files of a directory, in name order, or a single query file to the batch
+     * @param input query file or directory of query files ending in .txt
+     * @param outputDir directory of the output files, each named after its query file with the .csv extension.
+     *                  A query whose output file is already written by another query of the batch is not evaluated
+     */
+    public void add(String input, String outputDir) {
+        File file = new File(input);
+        File[] files = file.isDirectory() ? file.listFiles((dir, name) -> name.endsWith(".txt")) : new File[]{file};
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        for (File queryFile : files) {
+            String name = queryFile.getName();
+            if (name.endsWith(".txt"))
+                name = name.substring(0, name.length() - ".txt".length());
+            BatchQuery query = new BatchQuery(queryFile.getPath(), new File(outputDir, name + ".csv").getPath());
+            BatchQuery previous = outputs.putIfAbsent(new File(query.outputFile).getAbsolutePath(), query);
+            if (previous != null)
+                query.error = "output file " + query.outputFile + " is already written by " + previous.inputFile;
+            queries.add(query);
+        }
+    }
+
+    /**
+     * Parses every query and builds its statement, then evaluates the queries with a pool of threads and prints the
+     * latency of each one followed by the totals of the batch
+     * @param threads number of queries evaluated at the same time
+     * @param out destination of the report
+     */
+    public void run(int threads, PrintStream out) {
+        for (BatchQuery query : queries) {
+            if (query.error == null)
+                QueryContext.run(query.context, () -> plan(query));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            Map<BatchQuery, Future<?>> running = new LinkedHashMap<>();
+            for (BatchQuery query : queries) {
+                if (query.statement != null)
+                    running.put(query, pool.submit(() -> QueryContext.run(query.context, () -> evaluate(query))));
+            }
+            // every query is waited for, a query ended by an error is reported like the others that failed
+            for (Map.Entry<BatchQuery, Future<?>> query : running.entrySet()) {
+                try {
+                    query.getValue().get();
+                } catch (ExecutionException e) {
+                    query.getKey().error = e.getCause().toString();
+                    query.getKey().statement = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            pool.shutdown();
+        }
+        report(System.nanoTime() - start, out);
+    }
+
+    /**
+     * Parses a query and builds its statement, in the context of the query
+     * @param query query of the batch
+     */
+    private static void plan(BatchQuery query) {
+        long start = System.nanoTime();
+        try {
+            query.statement = new SelectStatement(QueryParser.parse(Paths.get(query.inputFile)));
+            DatabaseCatalogue.createOutputFile(query.outputFile);
+        } catch (IOException | RuntimeException e) {
+            query.error = e.toString();
+        }
+        query.planTime = System.nanoTime() - start;
+    }
+
+    /**
+     * Evaluates a planned query, in the context of the query
+     * @param query query of the batch
+     */
+    private static void evaluate(BatchQuery query) {
+        long start = System.nanoTime();
+        try {
+            query.statement.generateAndExecuteQueryPlan();
+        } catch (RuntimeException e) {
+            query.error = e.toString();
+        }
+        query.runTime = System.nanoTime() - start;
+        // the statement and its tables are no longer needed
+        query.statement = null;
+    }
+
+    /**
+     * Prints the plan and run times of each query, then the number of queries, the time taken to evaluate them all,
+     * the throughput and the mean and maximum run times
+     * @param elapsed time taken to evaluate the queries in nanoseconds
+     * @param out destination of the report
+     */
+    private void report(long elapsed, PrintStream out) {
+        long total = 0;
+        long max = 0;
+        int failed = 0;
+        for (BatchQuery query : queries) {
+            if (query.error != null) {
+                failed++;
+                out.printf("%s error %s%n", query.inputFile, query.error);
+                continue;
+            }
+            out.printf("%s plan %.1f ms run %.1f ms%n", query.inputFile, query.planTime / 1e6, query.runTime / 1e6);
+            total += query.runTime;
+            max = Math.max(max, query.runTime);
+        }
+        int done = queries.size() - failed;
+        out.printf("%d queries (%d failed) in %.1f ms, %.1f queries/s, mean run %.1f ms, max run %.1f ms%n",
+                queries.size(), failed, elapsed / 1e6, elapsed == 0 ? 0 : done * 1e9 / elapsed,
+                done == 0 ? 0 : total / 1e6 / done, max / 1e6);
+        out.flush();
+    }
+}
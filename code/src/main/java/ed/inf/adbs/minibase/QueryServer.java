@@ -0,0 +1,169 @@
+package ed.inf.adbs.minibase;
+
+import ed.inf.adbs.minibase.base.DatabaseCatalogue;
+import ed.inf.adbs.minibase.base.Query;
+import ed.inf.adbs.minibase.base.QueryContext;
+import ed.inf.adbs.minibase.parser.QueryParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Long running Minibase that loads the database once and evaluates queries until its input ends, so that queries do
+ * not pay for starting a JVM and compiling the code again. Each query is evaluated by a pooled thread in a QueryContext
+ * of its own, several queries can run at the same time. Queries are read either from a reader, one input file and
+ * output file pair per line, or from the connections of a local socket, one query per line whose rows are streamed
+ * back as CSV lines followed by an empty line
+ */
+public class QueryServer {
+
+    // runs the queries
+    private final ExecutorService pool;
+    // serves the connections of a socket, their queries are run by the pool so idle clients hold no query thread
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+
+    /**
+     * QueryServer constructor, loads the database
+     * @param databaseDir database directory
+     * @param threads number of queries run at the same time
+     */
+    public QueryServer(String databaseDir, int threads) {
+        DatabaseCatalogue.getInstance().loadDatabase(databaseDir);
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Evaluates the queries of the lines of a reader, each line giving the input file and the output file of a query
+     * separated by whitespace. A status line is printed once a query is done, in the order the queries finish, then
+     * waits for every query before returning
+     * @param in lines of the queries
+     * @param out status lines
+     * @throws IOException if the input cannot be read
+     */
+    public void serve(BufferedReader in, PrintStream out) throws IOException {
+        List<Future<?>> running = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] files = line.trim().split("\\s+");
+            if (files.length != 2) {
+                if (!line.trim().isEmpty())
+                    out.println("error expected input_file output_file: " + line);
+                continue;
+            }
+            running.add(pool.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    Query query = QueryParser.parse(Paths.get(files[0]));
+                    DatabaseCatalogue.createOutputFile(files[1]);
+                    evaluate(query, new QueryContext(files[1], null));
+                    printStatus(out, "done " + files[1] + " " + (System.nanoTime() - start) / 1000000 + " ms");
+                } catch (IOException | RuntimeException e) {
+                    printStatus(out, "error " + files[1] + " " + e);
+                }
+            }));
+        }
+        for (Future<?> query : running) {
+            try {
+                query.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Accepts connections on a port of the loopback address until the process is stopped. Each line sent by a client is
+     * a query, answered by its rows and an empty line, or by a line starting with "error" and an empty line. Each
+     * connection is served by a thread of its own and its queries are evaluated by the pool one after the other
+     * @param port port number, 0 for any free port
+     * @throws IOException if the socket cannot be opened
+     */
+    public void listen(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("Minibase listening on port " + server.getLocalPort());
+            while (true) {
+                Socket client = server.accept();
+                connections.execute(() -> answer(client));
+            }
+        }
+    }
+
+    /**
+     * Evaluates the queries sent on a connection until the client closes it
+     * @param client connection of the client
+     */
+    private void answer(Socket client) {
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream out = socket.getOutputStream();
+            WritableByteChannel channel = Channels.newChannel(out);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                String error = null;
+                try {
+                    Query query = QueryParser.parse(line);
+                    pool.submit(() -> evaluate(query, new QueryContext(null, channel))).get();
+                } catch (IllegalArgumentException e) {
+                    error = "could not parse query: " + e.getMessage();
+                } catch (RuntimeException e) {
+                    error = e.toString();
+                } catch (ExecutionException e) {
+                    error = e.getCause().toString();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (error != null)
+                    out.write(("error " + error + "\n").getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("Error when answering a client");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Evaluates a query with the current thread
+     * @param query query to evaluate
+     * @param context context of the query
+     */
+    private static void evaluate(Query query, QueryContext context) {
+        QueryContext.run(context, () -> Minibase.evaluateCQ(query));
+    }
+
+    private static synchronized void printStatus(PrintStream out, String status) {
+        out.println(status);
+        out.flush();
+    }
+
+    /**
+     * Stops the threads once the queries submitted so far are done
+     */
+    public void shutdown() {
+        pool.shutdown();
+        connections.shutdown();
+    }
+}
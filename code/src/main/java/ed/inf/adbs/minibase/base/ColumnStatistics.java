@@ -0,0 +1,150 @@
+package ed.inf.adbs.minibase.base;
+
+/**
+ * Statistics of one column of a relation: the number of distinct values, the smallest and largest values, an
+ * equi-depth histogram, i.e. bucket bounds chosen so that every bucket holds about the same number of rows, and
+ * whether the rows of the relation file are in ascending order of the column
+ */
+public class ColumnStatistics {
+    private final long distinctValues;
+    // smallest and largest values, null if the relation is empty
+    private final Term min;
+    private final Term max;
+    // bucket bounds of the histogram, bucket i holds the values between bounds[i] and bounds[i + 1]
+    private final Term[] bounds;
+    // true if no row of the file has a smaller value than the row before it
+    private final boolean sorted;
+
+    /**
+     * ColumnStatistics constructor
+     * @param distinct number of distinct values
+     * @param minValue smallest value, null if the relation is empty
+     * @param maxValue largest value, null if the relation is empty
+     * @param histogramBounds bucket bounds of the equi-depth histogram, the first is minValue and the last maxValue
+     * @param ascending true if the rows of the relation file are in ascending order of the column
+     */
+    public ColumnStatistics(long distinct, Term minValue, Term maxValue, Term[] histogramBounds, boolean ascending) {
+        distinctValues = distinct;
+        min = minValue;
+        max = maxValue;
+        bounds = histogramBounds;
+        sorted = ascending;
+    }
+
+    public long getDistinctValues() {
+        return distinctValues;
+    }
+
+    public Term getMin() {
+        return min;
+    }
+
+    public Term getMax() {
+        return max;
+    }
+
+    public Term[] getBounds() {
+        return bounds;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Estimates the fraction of the rows whose value in this column satisfies (column op value)
+     * @param op comparison operator
+     * @param value constant compared with
+     * @return estimated selectivity between 0 and 1
+     */
+    public double estimateSelectivity(ComparisonOperator op, Constant value) {
+        // comparisons between an int and a string are always false
+        if (min == null || min.getClass() != value.getClass())
+            return 0;
+        double equal = equalFraction(value);
+        double less = lessFraction(value);
+        double selectivity;
+        switch (op) {
+            case EQ: selectivity = equal; break;
+            case NEQ: selectivity = 1 - equal; break;
+            case LT: selectivity = less; break;
+            case LEQ: selectivity = less + equal; break;
+            case GT: selectivity = 1 - less - equal; break;
+            default: selectivity = 1 - less; break;
+        }
+        return Math.max(0, Math.min(1, selectivity));
+    }
+
+    /**
+     * Estimates the fraction of the rows equal to a value, 1/ndv if the value is in range, more if the value fills
+     * whole buckets of the histogram
+     * @param value value
+     * @return estimated fraction
+     */
+    private double equalFraction(Term value) {
+        if (compare(value, min) < 0 || compare(value, max) > 0)
+            return 0;
+        int buckets = bounds.length - 1;
+        int full = 0;
+        for (int i = 0; i < buckets; i++) {
+            if (compare(bounds[i], value) == 0 && compare(bounds[i + 1], value) == 0)
+                full++;
+        }
+        return Math.max(1.0 / Math.max(1, distinctValues), (double) full / Math.max(1, buckets));
+    }
+
+    /**
+     * Estimates the fraction of the rows less than a value from the histogram, interpolating inside the bucket that
+     * contains the value
+     * @param value value
+     * @return estimated fraction
+     */
+    private double lessFraction(Term value) {
+        int buckets = bounds.length - 1;
+        if (buckets < 1)
+            return compare(min, value) < 0 ? 1 : 0;
+        double less = 0;
+        for (int i = 0; i < buckets; i++) {
+            Term low = bounds[i];
+            Term high = bounds[i + 1];
+            if (compare(high, value) < 0) {
+                less += 1;
+            } else {
+                if (compare(low, value) < 0)
+                    less += interpolate(low, high, value);
+                break;
+            }
+        }
+        return less / buckets;
+    }
+
+    /**
+     * Returns the fraction of a bucket below a value, assuming integers are spread evenly and taking half of the
+     * bucket for strings
+     * @param low lower bound of the bucket
+     * @param high upper bound of the bucket
+     * @param value value inside the bucket
+     * @return fraction of the bucket below the value
+     */
+    private static double interpolate(Term low, Term high, Term value) {
+        if (value instanceof IntegerConstant) {
+            double l = ((IntegerConstant) low).getValue();
+            double h = ((IntegerConstant) high).getValue();
+            double v = ((IntegerConstant) value).getValue();
+            return (v - l) / (h - l + 1);
+        }
+        return 0.5;
+    }
+
+    /**
+     * Compares two values of the same column, integers by value and strings lexicographically
+     * @param first first value
+     * @param second second value
+     * @return negative, zero or positive if first is less than, equal to or greater than second
+     */
+    static int compare(Term first, Term second) {
+        if (first instanceof IntegerConstant)
+            return Integer.compare(((IntegerConstant) first).getValue(), ((IntegerConstant) second).getValue());
+        return ((StringConstant) first).getValue().compareTo(((StringConstant) second).getValue());
+    }
+}
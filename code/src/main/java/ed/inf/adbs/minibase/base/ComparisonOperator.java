@@ -25,6 +25,36 @@ public enum ComparisonOperator {
         return text;
     }
 
+    /**
+     * Returns the operator with its sides swapped, so that (a op b) is the same condition as (b op.reverse() a)
+     * @return reversed operator
+     */
+    public ComparisonOperator reverse() {
+        switch (this) {
+            case GT: return LT;
+            case GEQ: return LEQ;
+            case LT: return GT;
+            case LEQ: return GEQ;
+            default: return this;
+        }
+    }
+
+    /**
+     * Checks the operator against the result of comparing its two sides
+     * @param comparison negative, zero or positive as the first side is less than, equal to or greater than the second
+     * @return true if (first op second) holds
+     */
+    public boolean holds(int comparison) {
+        switch (this) {
+            case EQ: return comparison == 0;
+            case NEQ: return comparison != 0;
+            case GT: return comparison > 0;
+            case GEQ: return comparison >= 0;
+            case LT: return comparison < 0;
+            default: return comparison <= 0;
+        }
+    }
+
     /**
      *
      * @param s string operator
@@ -2,20 +2,25 @@ package ed.inf.adbs.minibase.base;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * The DatabaseCatalogue keeps track of file locations and schemas for different relations, as well as attribute positions
- * aliases etc
+ * aliases etc. The database is shared by every query, the aliases, schemas and attribute positions of the tables of a
+ * query are kept in the QueryContext of the thread evaluating it
  */
 public class DatabaseCatalogue {
     private static String schemaPath ="";
+    private static String statisticsPath = "";
     private static String csvFilesPath = "";
-    private static String outputPath = "";
-    private static Map<String, Integer> attributePosition;
-    private static Map<String, List<String>> schemaList;
-    private static Map<String, String> aliases;
     private static final Map<String, List<String>> types = new HashMap<>();
+    // number of lines read from a relation file to estimate its row count and distinct values
+    private static final int SAMPLE_LINES = 1000;
+    // estimated row count and distinct values per column of each relation, computed on first use
+    private static final Map<String, long[]> estimates = new ConcurrentHashMap<>();
+    // statistics of the analyzed relations, loaded from the statistics file
+    private static Map<String, TableStatistics> statistics = new HashMap<>();
     private static DatabaseCatalogue instance = null;
     private DatabaseCatalogue(){}
 
@@ -34,12 +39,40 @@ public class DatabaseCatalogue {
      * @param outputFilePath output file oath
      */
     public void setValues(String databasePath, String outputFilePath){
+        loadDatabase(databasePath);
+        QueryContext.current().reset(outputFilePath);
+        createOutputFile(outputFilePath);
+    }
+
+    /**
+     * Creates an empty output file and its parent directories, or empties it if it exists
+     * @param outputFilePath output file path
+     */
+    public static void createOutputFile(String outputFilePath){
+        try {
+            File outputFile = new File(outputFilePath);
+            outputFile.getAbsoluteFile().getParentFile().mkdirs();
+            BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(outputFilePath));
+            bufferedWriter.write("");
+            bufferedWriter.close();
+        } catch (IOException e) {
+            System.out.println("Error when instantiating DBCatalogue");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the schema of the database and the statistics of the relations that have been analyzed. Statistics of a
+     * relation whose file changed after the analysis are ignored
+     * @param databasePath database file path
+     */
+    public void loadDatabase(String databasePath){
         csvFilesPath = databasePath + "/files";
         schemaPath = databasePath + "/schema.txt";
-        outputPath = outputFilePath;
-        aliases = new HashMap<>();
-        attributePosition = new HashMap<>();
-        schemaList = new HashMap<>();
+        statisticsPath = databasePath + "/stats.txt";
+        estimates.clear();
+        statistics = new HashMap<>();
+        types.clear();
         String buffer;
         try {
             BufferedReader bufferedReader = new BufferedReader(new FileReader(schemaPath));
@@ -48,23 +81,68 @@ public class DatabaseCatalogue {
                 List<String> entriesTrimmed = entries.stream().filter(Objects::nonNull).map(String::trim).collect(Collectors.toList());
                 types.put(entriesTrimmed.get(0), entriesTrimmed.subList(1, entriesTrimmed.size()));
             }
-            File outputFile = new File(outputPath);
-            outputFile.getParentFile().mkdirs();
-            BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(outputPath));
-            bufferedWriter.write("");
-            bufferedWriter.close();
             bufferedReader.close();
+            File statisticsFile = new File(statisticsPath);
+            if (statisticsFile.exists()) {
+                for (Map.Entry<String, TableStatistics> e : TableStatistics.read(statisticsPath).entrySet()) {
+                    if (new File(getCsvPath(e.getKey())).lastModified() <= statisticsFile.lastModified())
+                        statistics.put(e.getKey(), e.getValue());
+                }
+            }
         } catch (IOException e) {
             System.out.println("Error when instantiating DBCatalogue");
             e.printStackTrace();
         }
     }
 
+    /**
+     * Scans every relation of the database, computes its statistics and writes them to the statistics file next to
+     * the schema
+     */
+    public void analyze(){
+        Map<String, TableStatistics> analyzed = new TreeMap<>();
+        try {
+            for (String relation : types.keySet())
+                analyzed.put(relation, TableStatistics.analyze(getCsvPath(relation), types.get(relation)));
+            BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(statisticsPath));
+            for (Map.Entry<String, TableStatistics> e : analyzed.entrySet())
+                e.getValue().write(e.getKey(), bufferedWriter);
+            bufferedWriter.close();
+        } catch (IOException e) {
+            System.out.println("Error when analyzing the database");
+            e.printStackTrace();
+            return;
+        }
+        statistics = analyzed;
+        estimates.clear();
+    }
+
+    /**
+     * Returns the statistics of a relation
+     * @param relation relation name
+     * @return statistics or null if the relation has not been analyzed
+     */
+    public static TableStatistics getStatistics(String relation) {
+        return statistics.get(relation);
+    }
+
     public static String getCsvPath(String name) {
         return (csvFilesPath + "/"  + name + ".csv");
     }
+
+    public static String getColumnarPath(String name) {
+        return (csvFilesPath + "/"  + name + ".col");
+    }
+
+    /**
+     * Returns the names of the relations in the schema
+     * @return relation names
+     */
+    public static Set<String> getRelations() {
+        return types.keySet();
+    }
     public static void setAlias(String aliasTable, String origTable){
-        aliases.put(aliasTable, origTable);
+        QueryContext.current().getAliases().put(aliasTable, origTable);
     }
 
     public static List<String> getInitialTypes(String t){
@@ -72,6 +150,7 @@ public class DatabaseCatalogue {
     }
 
     public static String getAlias(String table){
+        Map<String, String> aliases = QueryContext.current().getAliases();
         if(!aliases.containsKey(table)) {
             return null;
         }
@@ -79,23 +158,103 @@ public class DatabaseCatalogue {
     }
 
     public static String getOutputPath() {
-        return outputPath;
+        return QueryContext.current().getOutputPath();
     }
 
     public static int getAttrPos(String attr){
-        return attributePosition.get(attr);
+        return QueryContext.current().getAttributePosition().get(attr);
     }
 
     public static void setAttributePosition(Map<String, Integer> attributePosition){
-        DatabaseCatalogue.attributePosition = attributePosition;
+        QueryContext.current().setAttributePosition(attributePosition);
     }
 
     public static void setSchemaList(String name, List<String> types){
-        schemaList.put(name,types);
+        QueryContext.current().getSchemaList().put(name,types);
     }
 
     public static List<String> getSchemaList(String t){
-        return schemaList.get(t);
+        return QueryContext.current().getSchemaList().get(t);
+    }
+
+    /**
+     * Returns the number of rows of a relation, from its statistics or estimated from a sample if it has not been
+     * analyzed
+     * @param relation relation name
+     * @return row count
+     */
+    public static long getRowCount(String relation) {
+        TableStatistics s = statistics.get(relation);
+        if (s != null)
+            return s.getRowCount();
+        return getEstimates(relation)[0];
+    }
+
+    /**
+     * Returns the estimated number of distinct values in a column of a relation, from its statistics or from a sample
+     * if it has not been analyzed
+     * @param relation relation name
+     * @param column column index
+     * @return estimated number of distinct values, at least 1
+     */
+    public static long getDistinctValues(String relation, int column) {
+        TableStatistics s = statistics.get(relation);
+        if (s != null && s.getColumn(column) != null)
+            return Math.max(1, s.getColumn(column).getDistinctValues());
+        long[] e = getEstimates(relation);
+        if (column + 1 >= e.length)
+            return 1;
+        return e[column + 1];
+    }
+
+    /**
+     * Estimates the row count and the distinct values of each column of a relation from the first lines of its file.
+     * The row count is the file size divided by the average sampled line length. A column whose sampled values repeat
+     * a lot is assumed to have no more distinct values than the sample, otherwise its distinct values are scaled up
+     * with the row count
+     * @param relation relation name
+     * @return array of the row count followed by the distinct values of each column
+     */
+    private static long[] getEstimates(String relation) {
+        long[] cached = estimates.get(relation);
+        if (cached != null)
+            return cached;
+        List<String> columnTypes = types.getOrDefault(relation, new ArrayList<>());
+        long[] e = new long[columnTypes.size() + 1];
+        File file = new File(getCsvPath(relation));
+        List<Set<String>> distinct = new ArrayList<>();
+        for (int i = 0; i < columnTypes.size(); i++)
+            distinct.add(new HashSet<>());
+        long sampled = 0;
+        long sampledBytes = 0;
+        boolean wholeFile = true;
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                if (sampled == SAMPLE_LINES) {
+                    wholeFile = false;
+                    break;
+                }
+                if (line.trim().isEmpty())
+                    continue;
+                String[] elements = line.trim().split(",\\s*");
+                for (int i = 0; i < elements.length && i < distinct.size(); i++)
+                    distinct.get(i).add(elements[i]);
+                sampled++;
+                sampledBytes += line.length() + 1;
+            }
+        } catch (IOException e1) {
+            System.out.println("Error when estimating the size of " + relation);
+        }
+        e[0] = wholeFile || sampledBytes == 0 ? sampled : Math.max(sampled, file.length() * sampled / sampledBytes);
+        for (int i = 0; i < distinct.size(); i++) {
+            long d = distinct.get(i).size();
+            if (!wholeFile && d * 2 > sampled)
+                d = d * e[0] / Math.max(1, sampled);
+            e[i + 1] = Math.max(1, d);
+        }
+        estimates.put(relation, e);
+        return e;
     }
 
 
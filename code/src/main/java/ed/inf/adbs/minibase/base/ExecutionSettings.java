@@ -0,0 +1,248 @@
+package ed.inf.adbs.minibase.base;
+
+/**
+ * ExecutionSettings keeps track of the options that control how queries are executed, such as memory budgets, set
+ * from the Minibase command line. They are set before any query runs and shared by the queries of a server
+ */
+public class ExecutionSettings {
+    // memory budget in bytes for the build side of a hash join, 0 means the join is always done in memory
+    private static long joinMemoryBudget;
+    // memory budget in bytes for each sorted run of an external sort
+    private static long sortMemoryBudget;
+    // memory budget in bytes for the tuples a distinct operator has seen, 0 means they are always kept in memory
+    private static long distinctMemoryBudget;
+    // memory budget in bytes for the groups of a hash aggregation, 0 means they are always kept in memory
+    private static long aggregateMemoryBudget;
+    // number of threads aggregating the rows of a SUM query, 1 for a serial aggregation
+    private static int aggregateThreads;
+    // number of threads parsing the chunks of a memory mapped relation file, 1 for a serial scan
+    private static int scanThreads;
+    // number of threads building and probing an in-memory hash join, 1 for a serial join
+    private static int joinThreads;
+    // number of instances of the scans and joins run in parallel by an exchange, 1 for no exchange
+    private static int exchangeThreads;
+    // number of queries a server or a batch evaluates at the same time
+    private static int queryThreads;
+    // true if the inputs of the joins of a SUM query may be pre-aggregated
+    private static boolean eagerAggregation;
+    // number of outer tuples read per block by nested loop joins, 1 means a tuple nested loop join
+    private static int blockSize;
+    // relation files of at least this many bytes are scanned by memory mapping them, -1 disables memory mapping
+    private static long mmapThreshold;
+    // number of rows in the batches passed between operators
+    private static int batchSize;
+    // true if the CSV files are read through scans shared by the queries running at the same time
+    private static boolean sharedScans;
+    // true if queries are compiled into generated code when their plan allows it
+    private static boolean compiledExecution;
+    // format of the output file, "csv" or "binary"
+    private static String outputFormat;
+    // true if the operators report on the standard error how much they spilled to disk
+    private static boolean verbose;
+
+    private ExecutionSettings(){}
+
+    static {
+        reset();
+    }
+
+    /**
+     * Restores the default value of every setting
+     */
+    public static void reset() {
+        joinMemoryBudget = 0;
+        sortMemoryBudget = 64 * 1024 * 1024;
+        distinctMemoryBudget = 64 * 1024 * 1024;
+        aggregateMemoryBudget = 64 * 1024 * 1024;
+        aggregateThreads = 1;
+        scanThreads = 1;
+        joinThreads = 1;
+        exchangeThreads = 1;
+        queryThreads = Runtime.getRuntime().availableProcessors();
+        eagerAggregation = true;
+        blockSize = 1024;
+        mmapThreshold = 1024 * 1024;
+        batchSize = 1024;
+        sharedScans = false;
+        compiledExecution = false;
+        outputFormat = "csv";
+        verbose = false;
+    }
+
+    public static long getJoinMemoryBudget() {
+        return joinMemoryBudget;
+    }
+
+    public static void setJoinMemoryBudget(long bytes) {
+        joinMemoryBudget = bytes;
+    }
+
+    public static long getSortMemoryBudget() {
+        return sortMemoryBudget;
+    }
+
+    public static void setSortMemoryBudget(long bytes) {
+        sortMemoryBudget = bytes;
+    }
+
+    public static long getDistinctMemoryBudget() {
+        return distinctMemoryBudget;
+    }
+
+    public static void setDistinctMemoryBudget(long bytes) {
+        distinctMemoryBudget = bytes;
+    }
+
+    public static long getAggregateMemoryBudget() {
+        return aggregateMemoryBudget;
+    }
+
+    public static void setAggregateMemoryBudget(long bytes) {
+        aggregateMemoryBudget = bytes;
+    }
+
+    public static int getAggregateThreads() {
+        return aggregateThreads;
+    }
+
+    /**
+     * Sets the number of aggregation threads
+     * @param threads number of threads, 0 for one per available processor
+     */
+    public static void setAggregateThreads(int threads) {
+        aggregateThreads = threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    public static int getScanThreads() {
+        return scanThreads;
+    }
+
+    /**
+     * Sets the number of threads of the scans of memory mapped files
+     * @param threads number of threads, 0 for one per available processor
+     */
+    public static void setScanThreads(int threads) {
+        scanThreads = threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    public static int getJoinThreads() {
+        return joinThreads;
+    }
+
+    /**
+     * Sets the number of threads of the in-memory hash joins
+     * @param threads number of threads, 0 for one per available processor
+     */
+    public static void setJoinThreads(int threads) {
+        joinThreads = threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    public static int getExchangeThreads() {
+        return exchangeThreads;
+    }
+
+    /**
+     * Sets the number of threads of the exchange above the joins
+     * @param threads number of threads, 0 for one per available processor
+     */
+    public static void setExchangeThreads(int threads) {
+        exchangeThreads = threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    public static int getQueryThreads() {
+        return queryThreads;
+    }
+
+    /**
+     * Sets the number of queries a server or a batch evaluates at the same time
+     * @param threads number of threads, 0 for one per available processor
+     */
+    public static void setQueryThreads(int threads) {
+        queryThreads = threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    public static boolean isEagerAggregation() {
+        return eagerAggregation;
+    }
+
+    public static void setEagerAggregation(boolean eager) {
+        eagerAggregation = eager;
+    }
+
+    public static boolean isSharedScans() {
+        return sharedScans;
+    }
+
+    public static void setSharedScans(boolean shared) {
+        sharedScans = shared;
+    }
+
+    public static boolean isCompiledExecution() {
+        return compiledExecution;
+    }
+
+    public static void setCompiledExecution(boolean compiled) {
+        compiledExecution = compiled;
+    }
+
+    public static String getOutputFormat() {
+        return outputFormat;
+    }
+
+    public static void setOutputFormat(String format) {
+        outputFormat = format;
+    }
+
+    public static boolean isVerbose() {
+        return verbose;
+    }
+
+    public static void setVerbose(boolean report) {
+        verbose = report;
+    }
+
+    public static int getBlockSize() {
+        return blockSize;
+    }
+
+    public static void setBlockSize(int tuples) {
+        blockSize = tuples;
+    }
+
+    public static int getBatchSize() {
+        return batchSize;
+    }
+
+    public static void setBatchSize(int rows) {
+        batchSize = Math.max(1, rows);
+    }
+
+    public static long getMmapThreshold() {
+        return mmapThreshold;
+    }
+
+    public static void setMmapThreshold(long bytes) {
+        mmapThreshold = bytes;
+    }
+
+    /**
+     * Parses a size such as 4096, 64k, 16m or 1g into a number of bytes
+     * @param size size string
+     * @return number of bytes
+     * @throws NumberFormatException if the size is not a valid number
+     */
+    public static long parseSize(String size) throws NumberFormatException {
+        String s = size.trim().toLowerCase();
+        long multiplier = 1;
+        if (s.endsWith("k")) {
+            multiplier = 1024;
+        } else if (s.endsWith("m")) {
+            multiplier = 1024 * 1024;
+        } else if (s.endsWith("g")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        if (multiplier != 1)
+            s = s.substring(0, s.length() - 1);
+        return Long.parseLong(s) * multiplier;
+    }
+}
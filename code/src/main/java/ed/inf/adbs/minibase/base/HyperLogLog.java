@@ -0,0 +1,65 @@
+package ed.inf.adbs.minibase.base;
+
+/**
+ * HyperLogLog sketch, estimates the number of distinct values of a stream in constant memory. Each value is hashed,
+ * the first bits of the hash select a register and the register keeps the longest run of leading zeros seen in the
+ * remaining bits
+ */
+public class HyperLogLog {
+    // number of index bits, 2^12 registers give a standard error of about 1.6%
+    private static final int INDEX_BITS = 12;
+    private static final int REGISTER_COUNT = 1 << INDEX_BITS;
+    private final byte[] registers = new byte[REGISTER_COUNT];
+
+    /**
+     * Adds a value to the sketch
+     * @param value value as it appears in the relation file
+     */
+    public void add(String value) {
+        long hash = hash(value);
+        int index = (int) (hash >>> (64 - INDEX_BITS));
+        // the low bit guarantees a one so the rank is bounded when the remaining bits are all zero
+        long rest = (hash << INDEX_BITS) | (1L << (INDEX_BITS - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index])
+            registers[index] = rank;
+    }
+
+    /**
+     * Returns the estimated number of distinct values added, using linear counting while many registers are empty
+     * @return estimated distinct values
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTER_COUNT);
+        double estimate = alpha * REGISTER_COUNT * REGISTER_COUNT / sum;
+        if (estimate <= 2.5 * REGISTER_COUNT && zeros > 0)
+            estimate = REGISTER_COUNT * Math.log((double) REGISTER_COUNT / zeros);
+        return Math.round(estimate);
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the characters followed by a finalising mix so that every bit depends on every character
+     * @param value string to hash
+     * @return hash
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
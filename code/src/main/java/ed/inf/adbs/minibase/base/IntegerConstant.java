@@ -25,4 +25,9 @@ public class IntegerConstant extends Constant {
         if (!super.equals(object)) return false;
         else return ((IntegerConstant) object).getValue().equals(this.getValue());
     }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
 }
@@ -0,0 +1,99 @@
+package ed.inf.adbs.minibase.base;
+
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The QueryContext holds the state of the query being evaluated: the aliases of the tables in its body, their schemas
+ * and attribute positions, and where its result is written. Each thread evaluating a query has its own context, the
+ * threads an operator starts inherit it, so queries run by different threads do not see each other's tables. A thread
+ * that has not been given a context uses a default one shared by the process, used by single query runs
+ */
+public final class QueryContext {
+    // context of the threads that have not been given one
+    private static final QueryContext DEFAULT = new QueryContext(null, null);
+    // context of the query run by the current thread, inherited by the threads it starts
+    private static final InheritableThreadLocal<QueryContext> CURRENT = new InheritableThreadLocal<>();
+
+    private final Map<String, String> aliases = new HashMap<>();
+    private final Map<String, List<String>> schemaList = new HashMap<>();
+    private Map<String, Integer> attributePosition = new HashMap<>();
+    // output file path, used if output is null
+    private String outputPath;
+    // channel the result is written to instead of a file, left open once the result is written
+    private final WritableByteChannel output;
+
+    /**
+     * QueryContext constructor
+     * @param outputPath output file path, null if the result is written to a channel
+     * @param output channel the result is written to, null to write it to the output file
+     */
+    public QueryContext(String outputPath, WritableByteChannel output) {
+        this.outputPath = outputPath;
+        this.output = output;
+    }
+
+    /**
+     * Returns the context of the query run by the current thread
+     * @return current context
+     */
+    public static QueryContext current() {
+        QueryContext context = CURRENT.get();
+        return context != null ? context : DEFAULT;
+    }
+
+    /**
+     * Runs a task with the given context as the context of the current thread, restoring the previous one after
+     * @param context context of the task
+     * @param task task to run
+     */
+    public static void run(QueryContext context, Runnable task) {
+        QueryContext previous = CURRENT.get();
+        CURRENT.set(context);
+        try {
+            task.run();
+        } finally {
+            if (previous == null)
+                CURRENT.remove();
+            else
+                CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Forgets the tables of the previous query and sets the output file of the next one
+     * @param path output file path
+     */
+    void reset(String path) {
+        aliases.clear();
+        schemaList.clear();
+        attributePosition = new HashMap<>();
+        outputPath = path;
+    }
+
+    Map<String, String> getAliases() {
+        return aliases;
+    }
+
+    Map<String, List<String>> getSchemaList() {
+        return schemaList;
+    }
+
+    Map<String, Integer> getAttributePosition() {
+        return attributePosition;
+    }
+
+    void setAttributePosition(Map<String, Integer> attributePosition) {
+        this.attributePosition = attributePosition;
+    }
+
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    public WritableByteChannel getOutput() {
+        return output;
+    }
+}
@@ -25,4 +25,9 @@ public class StringConstant extends Constant {
         if (!super.equals(object)) return false;
         else return ((StringConstant) object).getValue().equals(this.getValue());
     }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,224 @@
+package ed.inf.adbs.minibase.base;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Statistics of a relation used to estimate the size of query results and to find the inputs that are already
+ * sorted: the row count and the statistics of each column. They are computed with a single scan of the relation file and stored in the statistics file of the database,
+ * one line per relation followed by one line per column, with tab separated fields
+ */
+public class TableStatistics {
+    // number of buckets of each histogram
+    private static final int HISTOGRAM_BUCKETS = 32;
+    // number of values per column kept in the sample the histogram is built from
+    private static final int SAMPLE_SIZE = 10000;
+    // field of a column line of the statistics file marking a column the file is sorted on
+    private static final String SORTED = "sorted";
+
+    private final long rowCount;
+    private final List<ColumnStatistics> columns;
+
+    /**
+     * TableStatistics constructor
+     * @param rows number of rows
+     * @param columnStatistics statistics of each column
+     */
+    public TableStatistics(long rows, List<ColumnStatistics> columnStatistics) {
+        rowCount = rows;
+        columns = columnStatistics;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the statistics of a column
+     * @param column column index
+     * @return column statistics or null if the column does not exist
+     */
+    public ColumnStatistics getColumn(int column) {
+        if (column < 0 || column >= columns.size())
+            return null;
+        return columns.get(column);
+    }
+
+    /**
+     * Scans a relation file and computes its statistics. Distinct values are counted with a HyperLogLog sketch and
+     * the histogram is built from a reservoir sample of each column
+     * @param path path of the relation file
+     * @param types column types of the relation
+     * @return statistics of the relation
+     * @throws IOException if the file cannot be read
+     */
+    public static TableStatistics analyze(String path, List<String> types) throws IOException {
+        int n = types.size();
+        List<HyperLogLog> sketches = new ArrayList<>();
+        List<List<Term>> samples = new ArrayList<>();
+        Term[] min = new Term[n];
+        Term[] max = new Term[n];
+        // last value of each column and whether the values have been ascending so far
+        Term[] previous = new Term[n];
+        boolean[] sorted = new boolean[n];
+        Arrays.fill(sorted, true);
+        for (int i = 0; i < n; i++) {
+            sketches.add(new HyperLogLog());
+            samples.add(new ArrayList<>());
+        }
+        Random random = new Random(42);
+        long rows = 0;
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(path))) {
+            String buffer;
+            while ((buffer = bufferedReader.readLine()) != null) {
+                buffer = buffer.trim();
+                if (buffer.isEmpty())
+                    continue;
+                String[] elements = buffer.split(",\\s+");
+                rows++;
+                for (int i = 0; i < n && i < elements.length; i++) {
+                    Term value = parseValue(elements[i], types.get(i));
+                    sketches.get(i).add(elements[i]);
+                    if (min[i] == null || ColumnStatistics.compare(value, min[i]) < 0)
+                        min[i] = value;
+                    if (max[i] == null || ColumnStatistics.compare(value, max[i]) > 0)
+                        max[i] = value;
+                    if (previous[i] != null && ColumnStatistics.compare(value, previous[i]) < 0)
+                        sorted[i] = false;
+                    previous[i] = value;
+                    // reservoir sampling keeps every row in the sample with the same probability
+                    List<Term> sample = samples.get(i);
+                    if (sample.size() < SAMPLE_SIZE) {
+                        sample.add(value);
+                    } else {
+                        long r = (long) (random.nextDouble() * rows);
+                        if (r < SAMPLE_SIZE)
+                            sample.set((int) r, value);
+                    }
+                }
+            }
+        }
+        List<ColumnStatistics> columnStatistics = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            List<Term> sample = samples.get(i);
+            sample.sort(ColumnStatistics::compare);
+            long distinct = Math.min(rows, sketches.get(i).estimate());
+            columnStatistics.add(new ColumnStatistics(distinct, min[i], max[i], buildHistogram(sample, min[i], max[i]),
+                    sorted[i]));
+        }
+        return new TableStatistics(rows, columnStatistics);
+    }
+
+    /**
+     * Picks the bucket bounds of an equi-depth histogram from a sorted sample
+     * @param sample sorted sample of the column
+     * @param min smallest value of the column
+     * @param max largest value of the column
+     * @return bucket bounds, empty if the column is empty
+     */
+    private static Term[] buildHistogram(List<Term> sample, Term min, Term max) {
+        if (sample.isEmpty())
+            return new Term[0];
+        int buckets = Math.max(1, Math.min(HISTOGRAM_BUCKETS, sample.size() - 1));
+        Term[] bounds = new Term[buckets + 1];
+        for (int b = 0; b <= buckets; b++)
+            bounds[b] = sample.get((int) ((long) b * (sample.size() - 1) / buckets));
+        // the sample may have missed the extremes
+        bounds[0] = min;
+        bounds[buckets] = max;
+        return bounds;
+    }
+
+    /**
+     * Parses a value as it appears in a relation file
+     * @param field field of the file
+     * @param type column type, int or string
+     * @return value as a term
+     */
+    private static Term parseValue(String field, String type) {
+        if (type.equals("int"))
+            return new IntegerConstant(Integer.valueOf(field));
+        return new StringConstant(field.replaceAll("'", ""));
+    }
+
+    /**
+     * Writes the statistics of a relation, a line with the row count and then for each column a line with the
+     * number of distinct values, the word sorted if the file is in ascending order of the column, the smallest and
+     * largest values and the histogram bounds
+     * @param relation relation name
+     * @param writer writer of the statistics file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(String relation, BufferedWriter writer) throws IOException {
+        writer.write(relation + "\t" + rowCount);
+        writer.newLine();
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnStatistics column = columns.get(i);
+            StringBuilder line = new StringBuilder(relation + "\t" + i + "\t" + column.getDistinctValues());
+            if (column.isSorted())
+                line.append("\t").append(SORTED);
+            if (column.getMin() != null) {
+                line.append("\t").append(column.getMin()).append("\t").append(column.getMax());
+                for (Term bound : column.getBounds())
+                    line.append("\t").append(bound);
+            }
+            writer.write(line.toString());
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Reads the statistics of every relation from a statistics file
+     * @param path path of the statistics file
+     * @return map of relation name to statistics
+     * @throws IOException if the file cannot be read
+     */
+    public static Map<String, TableStatistics> read(String path) throws IOException {
+        Map<String, Long> rows = new HashMap<>();
+        Map<String, List<ColumnStatistics>> columns = new HashMap<>();
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(path))) {
+            String buffer;
+            while ((buffer = bufferedReader.readLine()) != null) {
+                if (buffer.trim().isEmpty())
+                    continue;
+                String[] fields = buffer.split("\t");
+                String relation = fields[0];
+                if (fields.length == 2) {
+                    rows.put(relation, Long.parseLong(fields[1]));
+                    columns.put(relation, new ArrayList<>());
+                    continue;
+                }
+                long distinct = Long.parseLong(fields[2]);
+                // files written before the sorted flag was recorded have the values right after the distinct count
+                boolean sorted = fields.length > 3 && fields[3].equals(SORTED);
+                int first = sorted ? 4 : 3;
+                Term min = null;
+                Term max = null;
+                Term[] bounds = new Term[0];
+                if (fields.length > first + 1) {
+                    min = parseStoredValue(fields[first]);
+                    max = parseStoredValue(fields[first + 1]);
+                    bounds = new Term[fields.length - first - 2];
+                    for (int i = first + 2; i < fields.length; i++)
+                        bounds[i - first - 2] = parseStoredValue(fields[i]);
+                }
+                columns.get(relation).add(new ColumnStatistics(distinct, min, max, bounds, sorted));
+            }
+        }
+        Map<String, TableStatistics> statistics = new HashMap<>();
+        for (Map.Entry<String, Long> e : rows.entrySet())
+            statistics.put(e.getKey(), new TableStatistics(e.getValue(), columns.get(e.getKey())));
+        return statistics;
+    }
+
+    /**
+     * Parses a value written by write, strings are quoted and integers are not
+     * @param field field of the statistics file
+     * @return value as a term
+     */
+    private static Term parseStoredValue(String field) {
+        if (field.startsWith("'"))
+            return new StringConstant(field.substring(1, field.length() - 1));
+        return new IntegerConstant(Integer.valueOf(field));
+    }
+}
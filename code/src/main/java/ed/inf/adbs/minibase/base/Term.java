@@ -10,6 +10,11 @@ public class Term {
         return object != null && getClass() == object.getClass();
     }
 
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+
 }
 
 
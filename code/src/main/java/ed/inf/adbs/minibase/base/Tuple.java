@@ -1,46 +1,127 @@
 package ed.inf.adbs.minibase.base;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.List;
+import java.util.Objects;
 
 /**
- * Tuple class holds tuple objects, used to store lines from given tables, stores the list of terms for a tuple and
- * the schema for those terms
+ * Tuple class holds tuple objects, used to store lines from given tables. Integer values are kept in an int array and
+ * string values in a string array, the schema and the column types are held by a layout shared by all the tuples an
+ * operator produces
  */
 public class Tuple implements Comparable<Tuple> {
 
-    //tuple values
-    private final Term[] tuple;
-    //tuple schema
-    private final List<String> schema;
+    private static final int[] NO_INTS = new int[0];
+    private static final String[] NO_STRINGS = new String[0];
+
+    //schema and column types
+    private final TupleLayout layout;
+    //values of the integer columns
+    private final int[] ints;
+    //values of the string columns
+    private final String[] strings;
 
     /**
-     * Tuple constructor
+     * Tuple constructor, creates a layout for the tuple. Operators producing many tuples should create a layout once
+     * and use the constructors taking it
      * @param t terms
      * @param s schema
      */
     public Tuple(Term[] t, List<String> s) {
-        this.tuple = t;
-        this.schema = s;
+        this(TupleLayout.of(s, t), t);
+    }
+
+    /**
+     * Tuple constructor from terms and a shared layout, if the terms do not match the layout's types the tuple gets a
+     * layout of its own
+     * @param l layout of the tuple
+     * @param t terms
+     */
+    public Tuple(TupleLayout l, Term[] t) {
+        if (!l.fits(t))
+            l = TupleLayout.of(l.getSchema(), t);
+        layout = l;
+        ints = l.getIntCount() == 0 ? NO_INTS : new int[l.getIntCount()];
+        strings = l.getStringCount() == 0 ? NO_STRINGS : new String[l.getStringCount()];
+        for (int i = 0; i < t.length; i++) {
+            if (l.isString(i))
+                strings[l.getSlot(i)] = t[i] == null ? null : ((StringConstant) t[i]).getValue();
+            else if (t[i] != null)
+                ints[l.getSlot(i)] = ((IntegerConstant) t[i]).getValue();
+        }
+    }
+
+    /**
+     * Tuple constructor from the value arrays, which are not copied
+     * @param l layout of the tuple
+     * @param i values of the integer columns
+     * @param s values of the string columns
+     */
+    public Tuple(TupleLayout l, int[] i, String[] s) {
+        layout = l;
+        ints = i;
+        strings = s;
+    }
+
+    /**
+     * Creates the concatenation of two tuples
+     * @param layout layout of the combined tuple, created with TupleLayout.concat
+     * @param first first tuple
+     * @param second second tuple
+     * @return combined tuple
+     */
+    public static Tuple concat(TupleLayout layout, Tuple first, Tuple second) {
+        int[] i = new int[first.ints.length + second.ints.length];
+        System.arraycopy(first.ints, 0, i, 0, first.ints.length);
+        System.arraycopy(second.ints, 0, i, first.ints.length, second.ints.length);
+        String[] s = new String[first.strings.length + second.strings.length];
+        System.arraycopy(first.strings, 0, s, 0, first.strings.length);
+        System.arraycopy(second.strings, 0, s, first.strings.length, second.strings.length);
+        return new Tuple(layout, i, s);
     }
 
     /**
-     * Returns value of tuple at index i
+     * Creates a tuple made of some of the columns of this tuple
+     * @param projected layout of the new tuple, created with TupleLayout.project
+     * @param columns positions of the kept columns
+     * @return projected tuple
+     */
+    public Tuple project(TupleLayout projected, int[] columns) {
+        int[] i = projected.getIntCount() == 0 ? NO_INTS : new int[projected.getIntCount()];
+        String[] s = projected.getStringCount() == 0 ? NO_STRINGS : new String[projected.getStringCount()];
+        for (int c = 0; c < columns.length; c++) {
+            if (projected.isString(c))
+                s[projected.getSlot(c)] = strings[layout.getSlot(columns[c])];
+            else
+                i[projected.getSlot(c)] = ints[layout.getSlot(columns[c])];
+        }
+        return new Tuple(projected, i, s);
+    }
+
+    /**
+     * Returns true if the value at index i is a string
+     * @param i index
+     * @return true for a string column
+     */
+    public boolean isString(int i) {
+        return layout.isString(i);
+    }
+
+    /**
+     * Returns the integer value at index i, the column must hold integers
      * @param i index
      * @return value at i
      */
-    public Term getPosition(int i) {
-        return tuple[i];
+    public int getInt(int i) {
+        return ints[layout.getSlot(i)];
     }
 
     /**
-     * Returns the tuple values
-     * @return tuple values
+     * Returns the string value at index i, the column must hold strings
+     * @param i index
+     * @return value at i
      */
-    public Term[] getTuple() {
-        return tuple;
+    public String getString(int i) {
+        return strings[layout.getSlot(i)];
     }
 
     /**
@@ -48,7 +129,53 @@ public class Tuple implements Comparable<Tuple> {
      * @return tuple length
      */
     public int getLength() {
-        return tuple.length;
+        return layout.size();
+    }
+
+    /**
+     * Returns the tuple's layout
+     * @return tuple's layout
+     */
+    public TupleLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns a rough estimate of the heap space taken by the tuple's values, used to keep operators within their
+     * memory budget. The layout is shared between tuples so it is not counted
+     * @return estimated size in bytes
+     */
+    public long getEstimatedSize() {
+        long size = 24 + 16 + 4L * ints.length + 16 + 4L * strings.length;
+        for (String s : strings) {
+            if (s != null)
+                size += 40 + s.length();
+        }
+        return size;
+    }
+
+    /**
+     * Compares the values of two columns, integers are compared by value, strings lexicographically and integers come
+     * before strings
+     * @param first first tuple
+     * @param i column of the first tuple
+     * @param second second tuple
+     * @param j column of the second tuple
+     * @return negative, zero or positive if the first value is less than, equal to or greater than the second
+     */
+    public static int compareColumns(Tuple first, int i, Tuple second, int j) {
+        boolean firstString = first.layout.isString(i);
+        boolean secondString = second.layout.isString(j);
+        if (!firstString && !secondString)
+            return Integer.compare(first.getInt(i), second.getInt(j));
+        if (firstString && secondString) {
+            String a = first.getString(i);
+            String b = second.getString(j);
+            if (a == null || b == null)
+                return a == null ? (b == null ? 0 : -1) : 1;
+            return a.compareTo(b);
+        }
+        return firstString ? 1 : -1;
     }
 
     /**
@@ -58,37 +185,22 @@ public class Tuple implements Comparable<Tuple> {
     @Override
     public String toString() {
         StringBuilder t = new StringBuilder();
-        for (int i = 0; i < tuple.length; ++i) {
-            if(tuple[i] instanceof IntegerConstant)
-                t.append(tuple[i].toString().replaceAll("'", ""));
+        for (int i = 0; i < layout.size(); ++i) {
+            if (layout.isString(i))
+                t.append('\'').append(getString(i)).append('\'');
             else
-                t.append(tuple[i].toString());
-            if (i != tuple.length - 1) t.append(", ");
+                t.append(getInt(i));
+            if (i != layout.size() - 1) t.append(", ");
         }
         return t.toString();
     }
 
-    /**
-     * Wtites the tuple to the output file
-     */
-    public void dump() {
-        try {
-            String outputPath = DatabaseCatalogue.getOutputPath();
-            String t = this + "\n";
-            BufferedWriter bw = new BufferedWriter(new FileWriter(outputPath, true));
-            bw.write(t);
-            bw.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
     /**
      * Returns the tuple's schema
      * @return tuple's schema
      */
     public List<String> getSchema() {
-        return schema;
+        return layout.getSchema();
     }
 
     /**
@@ -98,29 +210,56 @@ public class Tuple implements Comparable<Tuple> {
      */
     public int getAttrPos(String attr) {
         if (attr.equals("*")) return -1;
-        return schema.indexOf(attr);
+        return layout.getPosition(attr);
     }
 
     /**
-     * Returns 0 if tuples are equal and -1 otherwise
+     * Orders tuples column by column as compareColumns does, a tuple that is a prefix of another comes first
      * @param t2 tuple to compare to
-     * @return int representing whether they're equal or not
+     * @return negative, zero or positive if this tuple is less than, equal to or greater than t2
      */
     @Override
     public int compareTo(Tuple t2) {
-        Term[] t2_elems = t2.getTuple();
-        if(tuple.length == t2_elems.length) {
-            boolean areEqual = true;
-            for(int i = 0; i<tuple.length; i++) {
-                if (!tuple[i].equals(t2_elems[i])) {
-                    areEqual = false;
-                    break;
-                }
-            }
-            if(areEqual) return 0;
-            return -1;
+        int length = Math.min(layout.size(), t2.getLength());
+        for (int i = 0; i < length; i++) {
+            int c = compareColumns(this, i, t2, i);
+            if (c != 0)
+                return c;
+        }
+        return Integer.compare(layout.size(), t2.getLength());
+    }
+
+    /**
+     * Two tuples are equal if they have the same values with the same types, the schemas are not compared
+     * @param object object to compare to
+     * @return true if the tuples are equal
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (!(object instanceof Tuple)) return false;
+        Tuple t2 = (Tuple) object;
+        if (layout.size() != t2.getLength())
+            return false;
+        for (int i = 0; i < layout.size(); i++) {
+            if (layout.isString(i) != t2.isString(i))
+                return false;
+            if (layout.isString(i) ? !Objects.equals(getString(i), t2.getString(i)) : getInt(i) != t2.getInt(i))
+                return false;
         }
-        return -1;
+        return true;
+    }
+
+    /**
+     * Returns a hash of the tuple's values, consistent with equals
+     * @return hash code
+     */
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < layout.size(); i++)
+            h = 31 * h + (layout.isString(i) ? Objects.hashCode(getString(i)) : Integer.hashCode(getInt(i)) * 0x9E3779B9);
+        return h;
     }
 
 }
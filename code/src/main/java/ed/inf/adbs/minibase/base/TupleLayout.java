@@ -0,0 +1,152 @@
+package ed.inf.adbs.minibase.base;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Layout shared by the tuples an operator produces. Holds the schema, the type of every column and where each column
+ * is stored in a tuple: integer columns are kept in the tuple's int array and string columns in its string array, so
+ * the tuples themselves only carry their values
+ */
+public class TupleLayout {
+
+    //schema of the tuples, of the form alias.variable
+    private final List<String> schema;
+    //true for the columns holding strings
+    private final boolean[] stringColumns;
+    //index of each column in the int array or in the string array
+    private final int[] slots;
+    private final int intCount;
+    private final int stringCount;
+    //position of each attribute in the schema
+    private final Map<String, Integer> positions;
+
+    /**
+     * TupleLayout constructor
+     * @param s schema
+     * @param strings true for the columns holding strings
+     */
+    public TupleLayout(List<String> s, boolean[] strings) {
+        schema = s;
+        stringColumns = strings;
+        slots = new int[strings.length];
+        int ints = 0;
+        int strs = 0;
+        for (int i = 0; i < strings.length; i++)
+            slots[i] = strings[i] ? strs++ : ints++;
+        intCount = ints;
+        stringCount = strs;
+        positions = new HashMap<>();
+        for (int i = s.size() - 1; i >= 0; i--)
+            positions.put(s.get(i), i);
+    }
+
+    /**
+     * Creates the layout of a row of terms, string constants are stored as strings and any other term as an integer
+     * @param schema schema of the row
+     * @param terms values of the row
+     * @return layout of the row
+     */
+    public static TupleLayout of(List<String> schema, Term[] terms) {
+        boolean[] strings = new boolean[terms.length];
+        for (int i = 0; i < terms.length; i++)
+            strings[i] = terms[i] instanceof StringConstant;
+        return new TupleLayout(schema, strings);
+    }
+
+    /**
+     * Creates the layout of the tuples of a table from the column types in the catalogue
+     * @param schema schema of the table's tuples
+     * @param types column types, "int" or "string"
+     * @return layout of the table's tuples
+     */
+    public static TupleLayout of(List<String> schema, List<String> types) {
+        boolean[] strings = new boolean[types.size()];
+        for (int i = 0; i < types.size(); i++)
+            strings[i] = types.get(i).equals("string");
+        return new TupleLayout(schema, strings);
+    }
+
+    /**
+     * Creates the layout of the concatenation of two tuples. The int and string arrays of the combined tuples are the
+     * arrays of the first tuple followed by those of the second
+     * @param first layout of the first tuple
+     * @param second layout of the second tuple
+     * @param schema schema of the combined tuples
+     * @return combined layout
+     */
+    public static TupleLayout concat(TupleLayout first, TupleLayout second, List<String> schema) {
+        boolean[] strings = new boolean[first.size() + second.size()];
+        System.arraycopy(first.stringColumns, 0, strings, 0, first.size());
+        System.arraycopy(second.stringColumns, 0, strings, first.size(), second.size());
+        return new TupleLayout(schema, strings);
+    }
+
+    /**
+     * Creates the layout of the tuples made of some of the columns of this layout
+     * @param columns positions of the kept columns
+     * @param schema schema of the projected tuples
+     * @return projected layout
+     */
+    public TupleLayout project(int[] columns, List<String> schema) {
+        boolean[] strings = new boolean[columns.length];
+        for (int i = 0; i < columns.length; i++)
+            strings[i] = stringColumns[columns[i]];
+        return new TupleLayout(schema, strings);
+    }
+
+    /**
+     * Returns true if a row of terms can be stored with this layout, null terms fit any column
+     * @param terms values of the row
+     * @return true if every term has the type of its column
+     */
+    public boolean fits(Term[] terms) {
+        if (terms.length != stringColumns.length)
+            return false;
+        for (int i = 0; i < terms.length; i++) {
+            if (terms[i] != null && (terms[i] instanceof StringConstant) != stringColumns[i])
+                return false;
+        }
+        return true;
+    }
+
+    public List<String> getSchema() {
+        return schema;
+    }
+
+    public int size() {
+        return stringColumns.length;
+    }
+
+    public boolean isString(int column) {
+        return stringColumns[column];
+    }
+
+    /**
+     * Returns the index of a column in the int array or in the string array of the tuples
+     * @param column column position
+     * @return index in the array holding the column
+     */
+    public int getSlot(int column) {
+        return slots[column];
+    }
+
+    public int getIntCount() {
+        return intCount;
+    }
+
+    public int getStringCount() {
+        return stringCount;
+    }
+
+    /**
+     * Returns the position of an attribute
+     * @param attr attribute of the form alias.variable
+     * @return position of the attribute, -1 if it is not in the schema
+     */
+    public int getPosition(String attr) {
+        Integer position = positions.get(attr);
+        return position == null ? -1 : position;
+    }
+}
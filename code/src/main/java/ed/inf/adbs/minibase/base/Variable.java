@@ -24,4 +24,9 @@ public class Variable extends Term {
         if (!super.equals(object)) return false;
         return ((Variable) object).getName().equals(this.getName());
     }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
 }
@@ -0,0 +1,47 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import ed.inf.adbs.minibase.base.Tuple;
+
+/**
+ *
+ * Adapter that returns the selected rows of an operator's batches one tuple at a time, used by operators that work
+ * on batches to implement getNextTuple
+ *
+ */
+class BatchTupleReader {
+    // operator whose batches are read
+    private final Operator operator;
+    // current batch and the index of the next selected row in it
+    private TupleBatch batch;
+    private int index;
+
+    /**
+     * BatchTupleReader constructor
+     * @param op operator whose batches are read
+     */
+    BatchTupleReader(Operator op) {
+        operator = op;
+    }
+
+    /**
+     * Returns the next selected row of the operator's batches as a tuple
+     * @return next tuple or null once the operator has no batches left
+     */
+    Tuple next() {
+        while (batch == null || index >= batch.getSelectedCount()) {
+            batch = operator.getNextBatch();
+            index = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.getSelectedRow(index++));
+    }
+
+    /**
+     * Drops the current batch, called when the operator is reset
+     */
+    void reset() {
+        batch = null;
+        index = 0;
+    }
+}
@@ -0,0 +1,115 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
+
+/**
+ *
+ * Result sink writing rows in a compact binary format. The file starts with the magic number, the number of columns
+ * and one type byte per column taken from the first row (0 for an integer, 1 for a string, 2 for a long), then each
+ * row follows as its values in column order: integers as 4 big-endian bytes, longs as 8 and strings as their UTF-8
+ * length followed by the bytes. The sums of SUM queries are longs. An empty result has no columns
+ *
+ */
+public class BinaryResultSink extends ResultSink {
+    // "MBRS"
+    public static final int MAGIC = 0x4D425253;
+    public static final byte INTEGER_TYPE = 0;
+    public static final byte STRING_TYPE = 1;
+    public static final byte LONG_TYPE = 2;
+
+    private boolean headerWritten;
+
+    /**
+     * BinaryResultSink constructor
+     * @param path output file path
+     * @throws IOException if the file cannot be opened
+     */
+    public BinaryResultSink(String path) throws IOException {
+        super(path);
+    }
+
+    /**
+     * BinaryResultSink constructor for a channel that stays open once the sink is closed
+     * @param output channel the rows are written to
+     */
+    public BinaryResultSink(WritableByteChannel output) {
+        super(output);
+    }
+
+    @Override
+    protected void writeTuple(Tuple tuple) throws IOException {
+        if (!headerWritten) {
+            putInt(MAGIC);
+            putInt(tuple.getLength());
+            for (int i = 0; i < tuple.getLength(); i++)
+                putByte(tuple.isString(i) ? STRING_TYPE : INTEGER_TYPE);
+            headerWritten = true;
+        }
+        for (int i = 0; i < tuple.getLength(); i++) {
+            if (tuple.isString(i))
+                putLengthString(tuple.getString(i));
+            else
+                putInt(tuple.getInt(i));
+        }
+    }
+
+    @Override
+    protected void writeSum(Tuple tuple, long sum) throws IOException {
+        if (!headerWritten) {
+            putInt(MAGIC);
+            putInt(tuple.getLength() + 1);
+            for (int i = 0; i < tuple.getLength(); i++)
+                putByte(tuple.isString(i) ? STRING_TYPE : INTEGER_TYPE);
+            putByte(LONG_TYPE);
+            headerWritten = true;
+        }
+        for (int i = 0; i < tuple.getLength(); i++) {
+            if (tuple.isString(i))
+                putLengthString(tuple.getString(i));
+            else
+                putInt(tuple.getInt(i));
+        }
+        putLong(sum);
+    }
+
+    @Override
+    protected void writeValues(TupleLayout layout, int[] ints, String[] strings) throws IOException {
+        if (!headerWritten) {
+            putInt(MAGIC);
+            putInt(layout.size());
+            for (int i = 0; i < layout.size(); i++)
+                putByte(layout.isString(i) ? STRING_TYPE : INTEGER_TYPE);
+            headerWritten = true;
+        }
+        for (int i = 0; i < layout.size(); i++) {
+            if (layout.isString(i))
+                putLengthString(strings[layout.getSlot(i)]);
+            else
+                putInt(ints[layout.getSlot(i)]);
+        }
+    }
+
+    private void putLengthString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        putBytes(bytes);
+    }
+
+    /**
+     * Writes the header of an empty result
+     * @throws IOException if the output cannot be written
+     */
+    @Override
+    protected void finish() throws IOException {
+        if (!headerWritten) {
+            putInt(MAGIC);
+            putInt(0);
+            headerWritten = true;
+        }
+    }
+}
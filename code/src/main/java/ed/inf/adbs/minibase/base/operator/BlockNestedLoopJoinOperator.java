@@ -0,0 +1,176 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.*;
+
+import ed.inf.adbs.minibase.base.*;
+
+
+/**
+ *
+ * Block nested loop join operator, reads a block of tuples from the outer (left) table into memory and then scans the
+ * inner (right) table once for the whole block, so the inner table is read once per block instead of once per outer
+ * tuple. Handles any join condition. Both inputs are read in batches and the joined rows are written into output
+ * batches
+ *
+ */
+public class BlockNestedLoopJoinOperator extends Operator {
+    // Left and right child operators
+    private final Operator leftOperator;
+    private final Operator rightOperator;
+    // List of join conditions
+    private final List<ComparisonAtom> comparisonAtoms;
+    // List of strings representing the common variables in the tuples
+    private final List<String> commonVariables;
+    // maximum number of outer tuples held in memory
+    private final int blockSize;
+    // join keys and residual conditions resolved against the tuple schemas
+    private JoinConditions joinConditions;
+    // layout of the joined rows
+    private TupleLayout outputLayout;
+    // current block of outer rows and the position in it
+    private List<Tuple> block;
+    private int blockIndex;
+    // outer batch being read into blocks, the index of its next selected row and the layout of the outer rows
+    private TupleBatch outerBatch;
+    private int outerIndex;
+    private TupleLayout outerLayout;
+    // current inner batch, the index of its current selected row and that row's values
+    private TupleBatch innerBatch;
+    private int innerIndex;
+    private Tuple innerRow;
+    // number of blocks read so far, the inner table is reset before every block but the first
+    private int blockCount;
+    private boolean finished;
+    // returns the rows of the output batches to getNextTuple
+    private final BatchTupleReader tupleReader = new BatchTupleReader(this);
+
+    /**
+     * BlockNestedLoopJoinOperator constructor
+     * @param left operator for outer table
+     * @param right operator for inner table
+     * @param atoms join conditions list
+     * @param variables Common variable names list
+     * @param size number of outer tuples in a block
+     */
+    public BlockNestedLoopJoinOperator(Operator left, Operator right, List<ComparisonAtom> atoms, List<String> variables, int size) {
+        leftOperator = left;
+        rightOperator = right;
+        comparisonAtoms = atoms;
+        commonVariables = variables;
+        blockSize = Math.max(1, size);
+    }
+
+    /**
+     * Returns the next tuple of the join, the left tuple's terms always come first
+     * @return next tuple resulting of the join condition
+     */
+    @Override
+    public Tuple getNextTuple() {
+        return tupleReader.next();
+    }
+
+    /**
+     * Returns the next batch of joined rows, the left row's terms always come first
+     * @return next batch or null at the end of the join
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        TupleBatch output = null;
+        while (!finished) {
+            if (block == null && !readBlock()) {
+                finished = true;
+                break;
+            }
+            // match the current inner row against every row of the block, then move to the next inner row
+            while (innerBatch != null) {
+                while (innerIndex < innerBatch.getSelectedCount()) {
+                    if (innerRow == null)
+                        innerRow = innerBatch.getTuple(innerBatch.getSelectedRow(innerIndex));
+                    while (blockIndex < block.size()) {
+                        Tuple outerRow = block.get(blockIndex++);
+                        if (matches(outerRow, innerRow)) {
+                            if (output == null)
+                                output = new TupleBatch(outputLayout, ExecutionSettings.getBatchSize());
+                            output.addRow(outerRow, innerRow);
+                            if (output.isFull())
+                                return output;
+                        }
+                    }
+                    innerIndex++;
+                    innerRow = null;
+                    blockIndex = 0;
+                }
+                innerBatch = rightOperator.getNextBatch();
+                innerIndex = 0;
+            }
+            // the inner table has been scanned for this block
+            block = null;
+        }
+        return output;
+    }
+
+    /**
+     * Reads the next block of outer rows and starts a new scan of the inner table
+     * @return false if there are no outer rows left or the inner table is empty
+     */
+    private boolean readBlock() {
+        List<Tuple> rows = new ArrayList<>(Math.min(blockSize, 4096));
+        while (rows.size() < blockSize) {
+            if (outerBatch == null || outerIndex >= outerBatch.getSelectedCount()) {
+                outerBatch = leftOperator.getNextBatch();
+                outerIndex = 0;
+                if (outerBatch == null)
+                    break;
+                outerLayout = outerBatch.getLayout();
+                continue;
+            }
+            rows.add(outerBatch.getTuple(outerBatch.getSelectedRow(outerIndex++)));
+        }
+        if (rows.isEmpty())
+            return false;
+        if (blockCount > 0)
+            rightOperator.reset();
+        blockCount++;
+        innerBatch = rightOperator.getNextBatch();
+        innerIndex = 0;
+        innerRow = null;
+        if (innerBatch == null)
+            return false;
+        if (joinConditions == null) {
+            joinConditions = new JoinConditions(comparisonAtoms, commonVariables, outerLayout.getSchema(), innerBatch.getSchema());
+            outputLayout = JoinOperator.combineLayouts(outerLayout, innerBatch.getLayout());
+        }
+        block = rows;
+        blockIndex = 0;
+        return true;
+    }
+
+    /**
+     * Checks the common variables and the join conditions for a pair of rows
+     * @param outerRow values of the outer row
+     * @param inner values of the inner row
+     * @return true if the rows join
+     */
+    private boolean matches(Tuple outerRow, Tuple inner) {
+        if (joinConditions.hasKeys() && !joinConditions.keysMatch(outerRow, inner))
+            return false;
+        return joinConditions.evaluateResidual(outerRow, inner);
+    }
+
+    /**
+     * Resets both children so the join starts again from the first block
+     */
+    @Override
+    public void reset() {
+        leftOperator.reset();
+        rightOperator.reset();
+        block = null;
+        outerBatch = null;
+        innerBatch = null;
+        innerRow = null;
+        blockCount = 0;
+        finished = false;
+        tupleReader.reset();
+    }
+
+}
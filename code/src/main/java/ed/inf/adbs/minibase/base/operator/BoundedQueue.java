@@ -0,0 +1,125 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * Bounded queue for several producer and consumer threads that takes no lock. The items are held in a ring of slots,
+ * each with a sequence number telling whether it is free for the producer or full for the consumer at a given
+ * position. A thread claims a position by a compare-and-set on the head or tail counter, so a full or empty queue is
+ * found without blocking. put and take wait for room or an item by spinning briefly and then parking
+ *
+ */
+final class BoundedQueue<T> {
+    // spins before a waiting thread starts parking
+    private static final int SPINS = 64;
+    // longest park of a waiting thread in nanoseconds
+    private static final long MAX_PARK = 1000000;
+
+    private final AtomicReferenceArray<T> items;
+    // for each slot, the tail position it can be filled at, or that position + 1 once it is filled
+    private final AtomicLongArray sequences;
+    private final int mask;
+    // next positions to take from and to put at
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * BoundedQueue constructor
+     * @param capacity minimum number of items the queue holds, rounded up to a power of two
+     */
+    BoundedQueue(int capacity) {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        items = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an item if the queue is not full
+     * @param item item to add, not null
+     * @return false if the queue is full
+     */
+    boolean offer(T item) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items.set(slot, item);
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest item if there is one
+     * @return oldest item or null if the queue is empty
+     */
+    T poll() {
+        long position = head.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    T item = items.get(slot);
+                    items.set(slot, null);
+                    sequences.set(slot, position + mask + 1);
+                    return item;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Adds an item, waiting while the queue is full
+     * @param item item to add, not null
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void put(T item) throws InterruptedException {
+        for (int attempt = 0; !offer(item); attempt++)
+            backOff(attempt);
+    }
+
+    /**
+     * Removes the oldest item, waiting while the queue is empty
+     * @return oldest item
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    T take() throws InterruptedException {
+        T item;
+        for (int attempt = 0; (item = poll()) == null; attempt++)
+            backOff(attempt);
+        return item;
+    }
+
+    private static void backOff(int attempt) throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (attempt < SPINS)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(Math.min(MAX_PARK, 1000L << Math.min(attempt - SPINS, 10)));
+    }
+}
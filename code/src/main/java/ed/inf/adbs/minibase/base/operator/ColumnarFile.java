@@ -0,0 +1,202 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *
+ * Binary columnar copy of a relation file. The file starts with a header holding the row count and, for each column,
+ * its type and the offset of its data. Int columns are stored as fixed width ints, string columns as a dictionary of
+ * the distinct strings followed by a fixed width dictionary code per row, so no text has to be parsed when the
+ * relation is scanned
+ *
+ */
+public class ColumnarFile {
+    // identifies columnar files and their format version
+    private static final int MAGIC = 0x4d42434c;
+    private static final int VERSION = 1;
+    // column type tags
+    private static final byte INT_COLUMN = 0;
+    private static final byte STRING_COLUMN = 1;
+    // size in bytes of the fixed part of the header and of each column entry of the header
+    private static final int HEADER_SIZE = 16;
+    private static final int COLUMN_ENTRY_SIZE = 9;
+
+    private final int rowCount;
+    // values of each int column, or dictionary codes of each string column
+    private final int[][] columns;
+    // dictionary of each string column, null for int columns
+    private final String[][] dictionaries;
+
+    private ColumnarFile(int rows, int[][] columnValues, String[][] columnDictionaries) {
+        rowCount = rows;
+        columns = columnValues;
+        dictionaries = columnDictionaries;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public boolean isString(int column) {
+        return dictionaries[column] != null;
+    }
+
+    /**
+     * Returns the value of an int column in a row
+     * @param row row index
+     * @param column column index
+     * @return value
+     */
+    public int getInt(int row, int column) {
+        return columns[column][row];
+    }
+
+    /**
+     * Returns the value of a string column in a row, strings of the same column share their dictionary entry
+     * @param row row index
+     * @param column column index
+     * @return value
+     */
+    public String getString(int row, int column) {
+        return dictionaries[column][columns[column][row]];
+    }
+
+    /**
+     * Returns the values of an int column, indexed by row
+     * @param column column index
+     * @return column values, not copied
+     */
+    public int[] getIntColumn(int column) {
+        return columns[column];
+    }
+
+    /**
+     * Converts a relation file to a columnar file
+     * @param csvPath path of the relation file
+     * @param types column types of the relation
+     * @param columnarPath path of the columnar file to write
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void convert(String csvPath, List<String> types, String columnarPath) throws IOException {
+        int n = types.size();
+        int[][] values = new int[n][1024];
+        List<Map<String, Integer>> codes = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            codes.add(types.get(i).equals("string") ? new LinkedHashMap<>() : null);
+        int rows = 0;
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(csvPath))) {
+            String buffer;
+            while ((buffer = bufferedReader.readLine()) != null) {
+                buffer = buffer.trim();
+                if (buffer.isEmpty())
+                    continue;
+                String[] elements = buffer.split(",\\s+");
+                if (rows == values[0].length) {
+                    for (int i = 0; i < n; i++)
+                        values[i] = Arrays.copyOf(values[i], rows * 2);
+                }
+                for (int i = 0; i < n; i++) {
+                    Map<String, Integer> dictionary = codes.get(i);
+                    if (dictionary != null) {
+                        String s = elements[i].replaceAll("'", "");
+                        Integer code = dictionary.get(s);
+                        if (code == null) {
+                            code = dictionary.size();
+                            dictionary.put(s, code);
+                        }
+                        values[i][rows] = code;
+                    } else {
+                        values[i][rows] = Integer.parseInt(elements[i]);
+                    }
+                }
+                rows++;
+            }
+        }
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(columnarPath)))) {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeInt(rows);
+            outputStream.writeInt(n);
+            // the dictionaries are encoded first so the column offsets are known when the header is written
+            List<byte[]> encodedDictionaries = new ArrayList<>();
+            long offset = HEADER_SIZE + (long) COLUMN_ENTRY_SIZE * n;
+            for (int i = 0; i < n; i++) {
+                byte[] dictionary = codes.get(i) == null ? new byte[0] : encodeDictionary(codes.get(i).keySet());
+                encodedDictionaries.add(dictionary);
+                outputStream.writeByte(codes.get(i) == null ? INT_COLUMN : STRING_COLUMN);
+                outputStream.writeLong(offset);
+                offset += dictionary.length + 4L * rows;
+            }
+            for (int i = 0; i < n; i++) {
+                outputStream.write(encodedDictionaries.get(i));
+                for (int r = 0; r < rows; r++)
+                    outputStream.writeInt(values[i][r]);
+            }
+        }
+    }
+
+    /**
+     * Encodes a dictionary as its size followed by its strings in code order
+     * @param strings distinct strings in code order
+     * @return encoded dictionary
+     * @throws IOException if a string cannot be encoded
+     */
+    private static byte[] encodeDictionary(Collection<String> strings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream outputStream = new DataOutputStream(bytes);
+        outputStream.writeInt(strings.size());
+        for (String s : strings)
+            outputStream.writeUTF(s);
+        outputStream.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a columnar file into memory
+     * @param path path of the columnar file
+     * @return columnar file
+     * @throws IOException if the file cannot be read or is not a columnar file
+     */
+    public static ColumnarFile read(String path) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION)
+                throw new IOException(path + " is not a columnar file of this version");
+            int rows = inputStream.readInt();
+            int n = inputStream.readInt();
+            byte[] columnTypes = new byte[n];
+            for (int i = 0; i < n; i++) {
+                columnTypes[i] = inputStream.readByte();
+                // the columns are stored in order so the offsets are not needed when reading the whole file
+                inputStream.readLong();
+            }
+            int[][] values = new int[n][rows];
+            String[][] dictionaries = new String[n][];
+            for (int i = 0; i < n; i++) {
+                if (columnTypes[i] == STRING_COLUMN) {
+                    dictionaries[i] = new String[inputStream.readInt()];
+                    for (int d = 0; d < dictionaries[i].length; d++)
+                        dictionaries[i][d] = inputStream.readUTF();
+                }
+                for (int r = 0; r < rows; r++)
+                    values[i][r] = inputStream.readInt();
+            }
+            return new ColumnarFile(rows, values, dictionaries);
+        }
+    }
+
+    /**
+     * Returns true if a relation has a columnar file that is at least as recent as its relation file
+     * @param csvPath path of the relation file
+     * @param columnarPath path of the columnar file
+     * @return true if the columnar file can be scanned instead of the relation file
+     */
+    public static boolean isAvailable(String csvPath, String columnarPath) {
+        File columnar = new File(columnarPath);
+        return columnar.exists() && columnar.lastModified() >= new File(csvPath).lastModified();
+    }
+}
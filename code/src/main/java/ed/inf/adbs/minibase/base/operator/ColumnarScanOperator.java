@@ -0,0 +1,134 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import ed.inf.adbs.minibase.base.DatabaseCatalogue;
+import ed.inf.adbs.minibase.base.ExecutionSettings;
+import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
+
+/**
+ *
+ * Operator that scans the binary columnar file of a table, created with Minibase --convert. The file is read into
+ * memory on the first call to getNextTuple and tuples are assembled from the column arrays without any text parsing
+ *
+ */
+public class ColumnarScanOperator extends Operator {
+
+    //table name to be scanned
+    private final String fileName;
+    //path of the table's columnar file
+    private final String filePath;
+    //schema of the tuples
+    private final List<String> tableSchema;
+    //columns of the table, null until the file has been read
+    private ColumnarFile columnarFile;
+    //index of the next row
+    private int row;
+    //layout of the tuples and batches, created once the file has been read
+    private TupleLayout layout;
+
+    /**
+     * ColumnarScanOperator constructor initialises the variables for the scan operator
+     * @param name table name
+     */
+    public ColumnarScanOperator(String name) {
+        fileName = name;
+        filePath = DatabaseCatalogue.getColumnarPath(DatabaseCatalogue.getAlias(name));
+        tableSchema = DatabaseCatalogue.getSchemaList(name);
+    }
+
+    /**
+     * Returns true if the relation of a table has an up to date columnar file
+     * @param name table name
+     * @return true if the table can be scanned with a ColumnarScanOperator
+     */
+    public static boolean isAvailable(String name) {
+        String relation = DatabaseCatalogue.getAlias(name);
+        return ColumnarFile.isAvailable(DatabaseCatalogue.getCsvPath(relation), DatabaseCatalogue.getColumnarPath(relation));
+    }
+
+    /**
+     * Returns a tuple containing the next row of the table
+     * @return tuple with the row's values, or null after the last row
+     */
+    @Override
+    public Tuple getNextTuple() {
+        open();
+        if (row >= columnarFile.getRowCount())
+            return null;
+        int[] ints = new int[layout.getIntCount()];
+        String[] strings = new String[layout.getStringCount()];
+        for (int i = 0; i < layout.size(); i++) {
+            if (layout.isString(i))
+                strings[layout.getSlot(i)] = columnarFile.getString(row, i);
+            else
+                ints[layout.getSlot(i)] = columnarFile.getInt(row, i);
+        }
+        row++;
+        return new Tuple(layout, ints, strings);
+    }
+
+    /**
+     * Returns a batch with the next rows of the table, filled one column at a time. Int columns are copied from the
+     * file's arrays and string columns are decoded from their dictionary
+     * @return batch with the rows' values, or null after the last row
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        open();
+        if (row >= columnarFile.getRowCount())
+            return null;
+        int rows = Math.min(ExecutionSettings.getBatchSize(), columnarFile.getRowCount() - row);
+        int[][] ints = new int[layout.getIntCount()][];
+        String[][] strings = new String[layout.getStringCount()][];
+        for (int c = 0; c < layout.size(); c++) {
+            if (layout.isString(c)) {
+                String[] column = new String[rows];
+                for (int r = 0; r < rows; r++)
+                    column[r] = columnarFile.getString(row + r, c);
+                strings[layout.getSlot(c)] = column;
+            } else {
+                ints[layout.getSlot(c)] = Arrays.copyOfRange(columnarFile.getIntColumn(c), row, row + rows);
+            }
+        }
+        row += rows;
+        return new TupleBatch(layout, ints, strings, rows, null, rows);
+    }
+
+    /**
+     * Reads the columnar file into memory if it has not been read yet
+     * @throws RuntimeException if the file cannot be read, the query then fails instead of finding the table empty
+     */
+    private void open() {
+        if (columnarFile == null) {
+            try {
+                columnarFile = ColumnarFile.read(filePath);
+                boolean[] stringColumns = new boolean[columnarFile.getColumnCount()];
+                for (int i = 0; i < stringColumns.length; i++)
+                    stringColumns[i] = columnarFile.isString(i);
+                layout = new TupleLayout(tableSchema, stringColumns);
+            } catch (IOException e) {
+                throw new RuntimeException("Error when reading columnar file " + filePath, e);
+            }
+        }
+    }
+
+    /**
+     * Rewinds to the first row, the columns stay in memory
+     */
+    @Override
+    public void reset() {
+        row = 0;
+    }
+
+    /**
+     * Return table name
+     * @return table name
+     */
+    public String getName() {
+        return fileName;
+    }
+}
@@ -0,0 +1,180 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import ed.inf.adbs.minibase.base.Tuple;
+
+/**
+ *
+ * Build side of a join of a compiled pipeline. The rows of the input are stored column by column in primitive arrays,
+ * and the rows sharing a key are chained through an array of row indices, so the generated code probes the table and
+ * reads the matching values without creating any object. A single integer key is hashed into open addressing arrays,
+ * other keys are held in a hash map: a String for a single string key, a list of Integer and String values otherwise
+ *
+ */
+public final class CompiledHashTable {
+    //values of the stored columns, null for the columns of the other type or that are not stored
+    private final int[][] intColumns;
+    private final String[][] stringColumns;
+    //index of the next row with the same key, -1 at the end of a chain
+    private int[] next = new int[64];
+    private int size;
+    //positions of the key columns
+    private final int[] keyPositions;
+    private final boolean intKey;
+    //open addressing table of integer keys and the first row of their chain plus one, 0 for an empty slot
+    private int[] slotKeys;
+    private int[] slotHeads;
+    private int slotCount;
+    //first row of the chain of each other key
+    private final Map<Object, Integer> heads = new HashMap<>();
+
+    /**
+     * CompiledHashTable constructor, reads the whole input
+     * @param input build input
+     * @param strings true for the columns holding strings
+     * @param stored true for the columns whose values the pipeline reads
+     * @param keys positions of the key columns
+     */
+    public CompiledHashTable(Operator input, boolean[] strings, boolean[] stored, int[] keys) {
+        keyPositions = keys;
+        intKey = keys.length == 1 && !strings[keys[0]];
+        if (intKey) {
+            slotKeys = new int[64];
+            slotHeads = new int[64];
+        }
+        intColumns = new int[strings.length][];
+        stringColumns = new String[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            if (!stored[i])
+                continue;
+            if (strings[i])
+                stringColumns[i] = new String[64];
+            else
+                intColumns[i] = new int[64];
+        }
+        BatchTupleReader reader = new BatchTupleReader(input);
+        Tuple tuple = reader.next();
+        while (tuple != null) {
+            add(tuple);
+            tuple = reader.next();
+        }
+    }
+
+    /**
+     * Stores a row and adds it to the chain of its key
+     * @param tuple row to store
+     */
+    private void add(Tuple tuple) {
+        if (size == next.length)
+            grow();
+        int row = size++;
+        for (int i = 0; i < intColumns.length; i++) {
+            if (intColumns[i] != null)
+                intColumns[i][row] = tuple.getInt(i);
+            else if (stringColumns[i] != null)
+                stringColumns[i][row] = tuple.getString(i);
+        }
+        if (intKey) {
+            int key = tuple.getInt(keyPositions[0]);
+            int slot = findSlot(key);
+            if (slotHeads[slot] == 0) {
+                slotKeys[slot] = key;
+                slotCount++;
+            }
+            next[row] = slotHeads[slot] - 1;
+            slotHeads[slot] = row + 1;
+            if (slotCount * 2 > slotKeys.length)
+                rehash();
+        } else {
+            Integer head = heads.put(getKey(tuple), row);
+            next[row] = head == null ? -1 : head;
+        }
+    }
+
+    private Object getKey(Tuple tuple) {
+        if (keyPositions.length == 1)
+            return tuple.getString(keyPositions[0]);
+        Object[] key = new Object[keyPositions.length];
+        for (int i = 0; i < keyPositions.length; i++) {
+            int p = keyPositions[i];
+            key[i] = tuple.isString(p) ? tuple.getString(p) : (Object) tuple.getInt(p);
+        }
+        return Arrays.asList(key);
+    }
+
+    private void grow() {
+        next = Arrays.copyOf(next, next.length * 2);
+        for (int i = 0; i < intColumns.length; i++) {
+            if (intColumns[i] != null)
+                intColumns[i] = Arrays.copyOf(intColumns[i], next.length);
+            else if (stringColumns[i] != null)
+                stringColumns[i] = Arrays.copyOf(stringColumns[i], next.length);
+        }
+    }
+
+    /**
+     * Returns the slot holding an integer key, or the empty slot where it belongs
+     * @param key integer key
+     * @return slot index
+     */
+    private int findSlot(int key) {
+        int mask = slotKeys.length - 1;
+        int h = key * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (slotHeads[slot] != 0 && slotKeys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void rehash() {
+        int[] oldKeys = slotKeys;
+        int[] oldHeads = slotHeads;
+        slotKeys = new int[oldKeys.length * 2];
+        slotHeads = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] != 0) {
+                int slot = findSlot(oldKeys[i]);
+                slotKeys[slot] = oldKeys[i];
+                slotHeads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the first row with a single integer key
+     * @param key key value
+     * @return row index, -1 if no row has the key
+     */
+    public int first(int key) {
+        return slotHeads[findSlot(key)] - 1;
+    }
+
+    /**
+     * Returns the first row with a string key or a key of several columns
+     * @param key a String or a list of Integer and String values
+     * @return row index, -1 if no row has the key
+     */
+    public int first(Object key) {
+        Integer head = heads.get(key);
+        return head == null ? -1 : head;
+    }
+
+    /**
+     * Returns the array chaining the rows with the same key
+     * @return index of the next row with the same key for each row, -1 at the end of a chain
+     */
+    public int[] getNext() {
+        return next;
+    }
+
+    public int[] getIntColumn(int column) {
+        return intColumns[column];
+    }
+
+    public String[] getStringColumn(int column) {
+        return stringColumns[column];
+    }
+}
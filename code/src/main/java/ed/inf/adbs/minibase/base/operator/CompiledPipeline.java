@@ -0,0 +1,20 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.IOException;
+
+/**
+ * Query pipeline generated and compiled at run time by the PipelineCompiler. It scans the first table of the join
+ * order, filters its lines, probes the hash tables of the other tables and passes each result row to the output
+ */
+public interface CompiledPipeline {
+
+    /**
+     * Runs the pipeline to the end
+     * @param scan cursor over the CSV file of the first table
+     * @param tables hash tables of the other tables in join order
+     * @param constants values of the constants of the conditions
+     * @param output receives the result rows
+     * @throws IOException if a row cannot be written
+     */
+    void run(CsvCursor scan, CompiledHashTable[] tables, Object[] constants, PipelineOutput output) throws IOException;
+}
@@ -0,0 +1,254 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * Reads the fields of a memory mapped CSV file one at a time. Fields are separated by a comma followed by whitespace
+ * and quotes are dropped from strings. The caller knows the type of each field and reads, or skips, the fields of a
+ * line in order before moving to the next line. A cursor can be split into cursors over chunks of the file that end at
+ * line ends, positions are offsets in the file for every cursor
+ *
+ */
+public final class CsvCursor {
+    //mapped file, limited to the cursor's chunk
+    private final ByteBuffer buffer;
+    //position of the start of the chunk
+    private final int start;
+    //reusable buffer for the bytes of a string field
+    private byte[] stringBytes = new byte[64];
+
+    /**
+     * CsvCursor constructor, maps a file
+     * @param path path of the CSV file, at most Integer.MAX_VALUE bytes long
+     * @throws IOException if the file cannot be mapped
+     */
+    public CsvCursor(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        start = 0;
+    }
+
+    /**
+     * CsvCursor constructor for a chunk of a mapped file
+     * @param view view of the mapping, positioned at the start of the chunk and limited to its end
+     */
+    private CsvCursor(ByteBuffer view) {
+        buffer = view;
+        start = view.position();
+    }
+
+    /**
+     * Splits the cursor's chunk into consecutive chunks of about the same size, each ending at a line end, the cursors
+     * of the chunks share the mapping and can be read by different threads
+     * @param count number of chunks wanted, fewer are returned if the chunk has fewer lines
+     * @return cursors over the chunks, in order
+     */
+    public List<CsvCursor> split(int count) {
+        List<CsvCursor> chunks = new ArrayList<>();
+        int end = buffer.limit();
+        int chunkStart = start;
+        for (int k = 1; k <= count && chunkStart < end; k++) {
+            int chunkEnd = (int) (start + (long) (end - start) * k / count);
+            if (chunkEnd <= chunkStart)
+                continue;
+            while (chunkEnd < end && buffer.get(chunkEnd - 1) != '\n')
+                chunkEnd++;
+            // the buffer methods are called on Buffer so the code runs on Java 8, where they return a Buffer
+            ByteBuffer view = buffer.duplicate();
+            ((Buffer) view).limit(chunkEnd);
+            ((Buffer) view).position(chunkStart);
+            chunks.add(new CsvCursor(view));
+            chunkStart = chunkEnd;
+        }
+        return chunks;
+    }
+
+    /**
+     * Skips blank lines up to the start of the next line
+     * @return false at the end of the file
+     */
+    public boolean nextLine() {
+        while (buffer.hasRemaining() && isWhitespace(buffer.get(buffer.position())))
+            buffer.get();
+        return buffer.hasRemaining();
+    }
+
+    /**
+     * Moves past the end of the current line, skipping the fields that have not been read
+     */
+    public void endLine() {
+        while (buffer.hasRemaining() && buffer.get() != '\n') {
+        }
+    }
+
+    /**
+     * Returns true if the byte at the current position ends the current field, i.e. it is the end of the line or a
+     * comma followed by whitespace
+     * @return true at the end of a field
+     */
+    private boolean atFieldEnd() {
+        if (!buffer.hasRemaining())
+            return true;
+        int p = buffer.position();
+        byte b = buffer.get(p);
+        if (b == '\n' || b == '\r')
+            return true;
+        return b == ',' && p + 1 < buffer.limit() && isWhitespace(buffer.get(p + 1));
+    }
+
+    /**
+     * Moves past the separator after a field, unless the field ends the line
+     */
+    private void skipSeparator() {
+        if (buffer.hasRemaining() && buffer.get(buffer.position()) == ',') {
+            buffer.get();
+            while (buffer.hasRemaining() && (buffer.get(buffer.position()) == ' ' || buffer.get(buffer.position()) == '\t'))
+                buffer.get();
+        }
+    }
+
+    /**
+     * Moves past the next field without parsing it
+     */
+    public void skipField() {
+        while (!atFieldEnd())
+            buffer.get();
+        skipSeparator();
+    }
+
+    /**
+     * Parses the next field as an integer
+     * @return value of the field
+     */
+    public int readInt() {
+        while (buffer.hasRemaining() && buffer.get(buffer.position()) == ' ')
+            buffer.get();
+        boolean negative = false;
+        if (buffer.hasRemaining() && (buffer.get(buffer.position()) == '-' || buffer.get(buffer.position()) == '+'))
+            negative = buffer.get() == '-';
+        int value = 0;
+        while (!atFieldEnd()) {
+            byte b = buffer.get();
+            if (b >= '0' && b <= '9')
+                value = value * 10 + (b - '0');
+        }
+        skipSeparator();
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the next field as a string
+     * @return value of the field without its quotes
+     */
+    public String readString() {
+        int start = buffer.position();
+        return getString(start, skipString());
+    }
+
+    /**
+     * Returns the position of the next byte, where the next field starts
+     * @return position in the file
+     */
+    public int getPosition() {
+        return buffer.position();
+    }
+
+    /**
+     * Moves past a string field without creating the string, its value is the bytes from the start of the field to
+     * the returned end that are not quotes
+     * @return end of the value, trailing whitespace excluded as the line is trimmed by the CSV scan
+     */
+    public int skipString() {
+        int start = buffer.position();
+        while (!atFieldEnd())
+            buffer.get();
+        int end = buffer.position();
+        while (end > start && (isWhitespace(buffer.get(end - 1)) || buffer.get(end - 1) == '\''))
+            end--;
+        skipSeparator();
+        return end;
+    }
+
+    /**
+     * Creates the string value of a field from its bytes
+     * @param start start of the field
+     * @param end end of the value, as returned by skipString
+     * @return value without quotes
+     */
+    public String getString(int start, int end) {
+        int length = 0;
+        for (int p = start; p < end; p++) {
+            byte b = buffer.get(p);
+            if (b == '\'')
+                continue;
+            if (length == stringBytes.length)
+                stringBytes = Arrays.copyOf(stringBytes, length * 2);
+            stringBytes[length++] = b;
+        }
+        return new String(stringBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares the value of a string field with the UTF-8 bytes of a string, without creating the field's string
+     * @param start start of the field
+     * @param end end of the value, as returned by skipString
+     * @param value bytes to compare with
+     * @return true if the value is equal to the bytes
+     */
+    public boolean stringEquals(int start, int end, byte[] value) {
+        int i = 0;
+        for (int p = start; p < end; p++) {
+            byte b = buffer.get(p);
+            if (b == '\'')
+                continue;
+            if (i == value.length || value[i++] != b)
+                return false;
+        }
+        return i == value.length;
+    }
+
+    /**
+     * Compares the values of two string fields, without creating their strings
+     * @param start1 start of the first field
+     * @param end1 end of the first value
+     * @param start2 start of the second field
+     * @param end2 end of the second value
+     * @return true if the values are equal
+     */
+    public boolean stringsEqual(int start1, int end1, int start2, int end2) {
+        int p = start1;
+        int q = start2;
+        while (true) {
+            while (p < end1 && buffer.get(p) == '\'')
+                p++;
+            while (q < end2 && buffer.get(q) == '\'')
+                q++;
+            if (p == end1 || q == end2)
+                return p == end1 && q == end2;
+            if (buffer.get(p++) != buffer.get(q++))
+                return false;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    /**
+     * Rewinds to the start of the chunk
+     */
+    public void rewind() {
+        ((Buffer) buffer).position(start);
+    }
+}
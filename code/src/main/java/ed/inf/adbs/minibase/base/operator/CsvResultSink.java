@@ -0,0 +1,83 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
+
+/**
+ *
+ * Result sink writing one line per row, values separated by ", " and strings between single quotes, the format of
+ * the expected query outputs
+ *
+ */
+public class CsvResultSink extends ResultSink {
+
+    /**
+     * CsvResultSink constructor
+     * @param path output file path
+     * @throws IOException if the file cannot be opened
+     */
+    public CsvResultSink(String path) throws IOException {
+        super(path);
+    }
+
+    /**
+     * CsvResultSink constructor for a channel that stays open once the sink is closed
+     * @param output channel the rows are written to
+     */
+    public CsvResultSink(WritableByteChannel output) {
+        super(output);
+    }
+
+    @Override
+    protected void writeTuple(Tuple tuple) throws IOException {
+        for (int i = 0; i < tuple.getLength(); i++) {
+            if (i > 0)
+                putSeparator();
+            if (tuple.isString(i))
+                putQuoted(tuple.getString(i));
+            else
+                putDecimal(tuple.getInt(i));
+        }
+        putByte((byte) '\n');
+    }
+
+    @Override
+    protected void writeSum(Tuple tuple, long sum) throws IOException {
+        for (int i = 0; i < tuple.getLength(); i++) {
+            if (tuple.isString(i))
+                putQuoted(tuple.getString(i));
+            else
+                putDecimal(tuple.getInt(i));
+            putSeparator();
+        }
+        putDecimal(sum);
+        putByte((byte) '\n');
+    }
+
+    @Override
+    protected void writeValues(TupleLayout layout, int[] ints, String[] strings) throws IOException {
+        for (int i = 0; i < layout.size(); i++) {
+            if (i > 0)
+                putSeparator();
+            if (layout.isString(i))
+                putQuoted(strings[layout.getSlot(i)]);
+            else
+                putDecimal(ints[layout.getSlot(i)]);
+        }
+        putByte((byte) '\n');
+    }
+
+    private void putSeparator() throws IOException {
+        putByte((byte) ',');
+        putByte((byte) ' ');
+    }
+
+    private void putQuoted(String value) throws IOException {
+        putByte((byte) '\'');
+        putString(value);
+        putByte((byte) '\'');
+    }
+}
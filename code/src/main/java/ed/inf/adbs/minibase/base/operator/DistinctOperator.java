@@ -1,58 +1,159 @@
 package ed.inf.adbs.minibase.base.operator;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.TreeSet;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 import ed.inf.adbs.minibase.base.Tuple;
 
 /**
  *
- * Distinct operator, purpose is to give a set of unique tuples given a list of tuples
+ * Distinct operator, removes duplicate tuples from the output of its child. Each tuple is returned as soon as it is
+ * seen for the first time, the tuples already returned are kept in a hash set. Once the set grows past the memory
+ * budget it stops growing: tuples already in it are still dropped, and new tuples are hash partitioned into spill
+ * files. After the input has been read each partition is deduplicated on its own, partitioning it again if it is still
+ * too large
  *
  */
 public class DistinctOperator extends Operator {
+    // number of partitions the remaining input is split into once the memory budget is exceeded
+    private static final int FANOUT = 16;
+    // bits of the hash used to choose a partition at each level
+    private static final int FANOUT_BITS = 4;
+    // partitions are not split further past this level, they are deduplicated in memory whatever their size
+    private static final int MAX_DEPTH = 6;
+    // rough size in bytes of a hash set entry, on top of the tuple itself
+    private static final int ENTRY_SIZE = 48;
 
-    //original tuples
-    private final List<Tuple> tuples;
-    //set of unique tuples
-    private final TreeSet<Tuple> distinctT;
-    //unique tuples in order
-    private final List<Tuple> distinctTuplesOrdered;
+    // child operator
+    private final Operator operator;
+    // reads the child's batches one tuple at a time
+    private final BatchTupleReader reader;
+    // memory budget in bytes for the set of seen tuples, 0 means no limit
+    private final long memoryBudget;
+    // level of partitioning, 0 for the operator created by the planner
+    private final int depth;
+    // tuples returned so far and their estimated size
+    private Set<Tuple> seen = new HashSet<>();
+    private long seenSize;
+    // partitions of the tuples not seen once the budget was exceeded, null while everything fits in memory
+    private SpillFile[] partitionFiles;
+    private boolean inputDone;
+    // distinct operator over the partition being read
+    private DistinctOperator partitionDistinct;
+    private int partitionIndex;
 
     /**
      * DistinctOperator constructor
-     * @param tuples sorted tuples
+     * @param op child operator
+     * @param budget memory budget in bytes for the seen tuples, 0 to always keep them in memory
      */
-    public DistinctOperator(List<Tuple> tuples) {
-        this.tuples = tuples;
-        distinctT = new TreeSet<>();
-        distinctTuplesOrdered = new ArrayList<>();
+    public DistinctOperator(Operator op, long budget) {
+        this(op, budget, 0);
     }
 
     /**
-     * Returns ordered list of unique tuples
-     * @return list of unique tuples
+     * DistinctOperator constructor for a given level of partitioning
+     * @param op child operator
+     * @param budget memory budget in bytes for the seen tuples
+     * @param level level of partitioning
      */
-    public List<Tuple> getDistinctTuples() {
-        for(Tuple tuple : tuples) {
-            if(distinctT.contains(tuple)){
-                continue;
-            }
-            distinctTuplesOrdered.add(tuple);
-            distinctT.add(tuple);
-        }
-        return distinctTuplesOrdered;
+    private DistinctOperator(Operator op, long budget, int level) {
+        operator = op;
+        reader = new BatchTupleReader(op);
+        memoryBudget = budget;
+        depth = level;
     }
 
-
+    /**
+     * Returns the next tuple that has not been returned before
+     * @return next unique tuple or null once every unique tuple has been returned
+     * @throws RuntimeException if a partition cannot be written, the query then fails instead of missing its tuples
+     */
     @Override
     public Tuple getNextTuple() {
+        try {
+            if (!inputDone) {
+                Tuple tuple = reader.next();
+                while (tuple != null) {
+                    if (partitionFiles == null) {
+                        if (seen.add(tuple)) {
+                            seenSize += tuple.getEstimatedSize() + ENTRY_SIZE;
+                            if (memoryBudget > 0 && seenSize > memoryBudget && depth < MAX_DEPTH)
+                                partitionFiles = new SpillFile[FANOUT];
+                            return tuple;
+                        }
+                    } else if (!seen.contains(tuple)) {
+                        int p = getPartition(tuple);
+                        if (partitionFiles[p] == null)
+                            partitionFiles[p] = new SpillFile();
+                        partitionFiles[p].write(tuple);
+                    }
+                    tuple = reader.next();
+                }
+                inputDone = true;
+                // the tuples in memory cannot be in any partition
+                if (partitionFiles != null)
+                    seen = null;
+            }
+            return nextPartitionTuple();
+        } catch (IOException e) {
+            throw new RuntimeException("Error when writing distinct partition", e);
+        }
+    }
+
+    /**
+     * Returns the next unique tuple of the spilled partitions
+     * @return next unique tuple or null once every partition has been read
+     */
+    private Tuple nextPartitionTuple() {
+        if (partitionFiles == null)
+            return null;
+        while (partitionIndex < FANOUT) {
+            SpillFile file = partitionFiles[partitionIndex];
+            if (file != null) {
+                if (partitionDistinct == null)
+                    partitionDistinct = new DistinctOperator(new SpillScanOperator(file), memoryBudget, depth + 1);
+                Tuple tuple = partitionDistinct.getNextTuple();
+                if (tuple != null)
+                    return tuple;
+                partitionDistinct = null;
+                file.delete();
+                partitionFiles[partitionIndex] = null;
+            }
+            partitionIndex++;
+        }
         return null;
     }
 
+    /**
+     * Returns the partition of a tuple, each level of partitioning uses different bits of the hash
+     * @param tuple tuple to partition
+     * @return partition index
+     */
+    private int getPartition(Tuple tuple) {
+        int h = tuple.hashCode() * 0x9E3779B9;
+        return (h >>> (depth * FANOUT_BITS)) & (FANOUT - 1);
+    }
+
+    /**
+     * Resets the child, forgets the tuples seen and deletes the spilled partitions
+     */
     @Override
     public void reset() {
-
+        operator.reset();
+        reader.reset();
+        if (partitionFiles != null) {
+            for (SpillFile file : partitionFiles) {
+                if (file != null)
+                    file.delete();
+            }
+        }
+        partitionFiles = null;
+        partitionDistinct = null;
+        partitionIndex = 0;
+        seen = new HashSet<>();
+        seenSize = 0;
+        inputDone = false;
     }
-}
\ No newline at end of file
+}
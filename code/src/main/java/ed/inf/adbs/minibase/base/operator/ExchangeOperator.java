@@ -0,0 +1,161 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ed.inf.adbs.minibase.base.Tuple;
+
+/**
+ *
+ * Exchange operator, runs several instances of a subtree of the plan in parallel. Each instance reads a disjoint
+ * partition of the input, typically through a scan over one partition of a table's file, and is run by a thread of its
+ * own that pulls the instance's batches and puts them in a bounded lock-free queue. The parent reads the batches of
+ * every instance from the queue as if they came from a single operator, in no particular order. The operators of the
+ * instances are not shared, so none of them needs to be thread safe
+ *
+ */
+public class ExchangeOperator extends Operator {
+    // number of batches per instance the queue holds before the instances wait
+    private static final int QUEUE_BATCHES_PER_INSTANCE = 4;
+    // put in the queue by an instance's thread once the instance has no rows left
+    private static final TupleBatch END_OF_INSTANCE = TupleBatch.marker();
+
+    // instances of the subtree, one per partition
+    private final List<Operator> instances;
+    // threads running the instances, null until the exchange starts
+    private ExecutorService pool;
+    // batches of the instances and the number of instances that have not finished
+    private BoundedQueue<TupleBatch> queue;
+    private int activeInstances;
+    // tells the threads of the current run to stop, once the exchange is reset
+    private AtomicBoolean stopped;
+    // first error of an instance
+    private AtomicReference<Throwable> failure;
+    // returns the rows of the batches to getNextTuple
+    private final BatchTupleReader tupleReader = new BatchTupleReader(this);
+
+    /**
+     * ExchangeOperator constructor, the instances are started by the first read
+     * @param subtrees instances of the subtree, each over its own partition of the input
+     */
+    public ExchangeOperator(List<Operator> subtrees) {
+        instances = subtrees;
+    }
+
+    /**
+     * Returns the next tuple of any instance
+     * @return next tuple or null once every instance has finished
+     */
+    @Override
+    public Tuple getNextTuple() {
+        return tupleReader.next();
+    }
+
+    /**
+     * Returns the next batch of any instance, starting the instances' threads on the first call
+     * @return next batch or null once every instance has finished
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (queue == null)
+            start();
+        try {
+            while (activeInstances > 0) {
+                TupleBatch batch = queue.take();
+                if (batch != END_OF_INSTANCE)
+                    return batch;
+                activeInstances--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        stop();
+        Throwable error = failure.get();
+        if (error instanceof RuntimeException)
+            throw (RuntimeException) error;
+        if (error instanceof Error)
+            throw (Error) error;
+        return null;
+    }
+
+    /**
+     * Starts a thread per instance
+     */
+    private void start() {
+        BoundedQueue<TupleBatch> batches = new BoundedQueue<>(instances.size() * QUEUE_BATCHES_PER_INSTANCE);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        pool = Executors.newFixedThreadPool(instances.size());
+        for (Operator instance : instances)
+            pool.execute(() -> run(instance, batches, stop, error));
+        queue = batches;
+        activeInstances = instances.size();
+        stopped = stop;
+        failure = error;
+    }
+
+    /**
+     * Pulls the batches of an instance into the queue, run by the instance's thread. The end of the instance is put in
+     * the queue whatever the instance throws, so the parent never waits for an instance that has failed
+     * @param instance instance of the subtree
+     * @param batches queue of the exchange
+     * @param stop set once the exchange is reset
+     * @param error receives the first error of an instance
+     */
+    private static void run(Operator instance, BoundedQueue<TupleBatch> batches, AtomicBoolean stop,
+                            AtomicReference<Throwable> error) {
+        boolean interrupted = false;
+        try {
+            TupleBatch batch;
+            while (!stop.get() && (batch = instance.getNextBatch()) != null)
+                batches.put(batch);
+        } catch (InterruptedException e) {
+            // the exchange was reset, nothing reads the queue anymore
+            interrupted = true;
+        } catch (Throwable e) {
+            error.compareAndSet(null, e);
+        } finally {
+            if (!interrupted) {
+                try {
+                    batches.put(END_OF_INSTANCE);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the threads of the current run, interrupting those waiting for room in the queue, and waits until they
+     * have returned so the instances are no longer read
+     */
+    private void stop() {
+        if (stopped != null)
+            stopped.set(true);
+        if (pool == null)
+            return;
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool = null;
+    }
+
+    /**
+     * Stops the instances' threads and resets every instance, the next read starts them again
+     */
+    @Override
+    public void reset() {
+        stop();
+        for (Operator instance : instances)
+            instance.reset();
+        queue = null;
+        tupleReader.reset();
+    }
+}
@@ -0,0 +1,371 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.IOException;
+import java.util.*;
+
+import ed.inf.adbs.minibase.base.*;
+
+
+/**
+ *
+ * Hybrid hash join operator for equi-joins whose build side may not fit in memory. The build input is hashed into a
+ * fixed number of partitions kept in memory, and whenever the memory budget is exceeded the largest partition still
+ * in memory is spilled to disk. Probe tuples falling into an in-memory partition are joined straight away, the others
+ * are written to the matching probe partition file. The spilled partitions are then joined pair by pair, recursively
+ * partitioning again with other hash bits if a build partition still does not fit
+ *
+ */
+public class GraceHashJoinOperator extends Operator {
+    // number of partitions the build input is split into
+    private static final int FANOUT = 16;
+    // number of hash bits used per level of partitioning
+    private static final int FANOUT_BITS = 4;
+    // after this many levels of partitioning the partition is joined in memory whatever its size
+    private static final int MAX_DEPTH = 6;
+
+    // Left and right child operators
+    private final Operator leftOperator;
+    private final Operator rightOperator;
+    // List of join conditions
+    private final List<ComparisonAtom> comparisonAtoms;
+    // List of strings representing the common variables in the tuples
+    private final List<String> commonVariables;
+    // memory budget in bytes for the in-memory build partitions
+    private final long memoryBudget;
+    // true if the hash table is built on the left input
+    private final boolean buildLeft;
+    // level of partitioning, 0 for the operator in the query plan
+    private final int depth;
+
+    // join keys and residual conditions resolved against the tuple schemas
+    private JoinConditions joinConditions;
+    // in-memory hash table of each partition, null once the partition has been spilled
+    private List<Map<Object, List<Tuple>>> partitionTables;
+    // estimated size of each in-memory partition
+    private long[] partitionSizes;
+    // build and probe files of the spilled partitions
+    private SpillFile[] buildFiles;
+    private SpillFile[] probeFiles;
+    // first probe tuple, read while building to know the probe schema
+    private Tuple pendingProbeTuple;
+    // current probe tuple and the build tuples it matches
+    private Tuple probeTuple;
+    private List<Tuple> matches;
+    private int matchIndex;
+    // layout of the joined tuples
+    private TupleLayout outputLayout;
+    // join of the spilled partition currently being output and the index of that partition
+    private GraceHashJoinOperator partitionJoin;
+    private int partitionIndex;
+    // state of the join
+    private boolean built;
+    private boolean probeDone;
+    private boolean finished;
+    // statistics on the partitions spilled, including those of the recursive joins
+    private int spilledPartitions;
+    private long bytesWritten;
+
+    /**
+     * GraceHashJoinOperator constructor, builds the hash table on the right input
+     * @param left operator for the left table
+     * @param right operator for the right table
+     * @param atoms join conditions list, must contain at least one equality unless variables is non empty
+     * @param variables Common variable names list
+     * @param budget memory budget in bytes for the build side
+     */
+    public GraceHashJoinOperator(Operator left, Operator right, List<ComparisonAtom> atoms, List<String> variables, long budget) {
+        this(left, right, atoms, variables, budget, false, 0);
+    }
+
+    /**
+     * GraceHashJoinOperator constructor
+     * @param left operator for the left table
+     * @param right operator for the right table
+     * @param atoms join conditions list, must contain at least one equality unless variables is non empty
+     * @param variables Common variable names list
+     * @param budget memory budget in bytes for the build side
+     * @param buildOnLeft true if the hash table should be built on the left input
+     */
+    public GraceHashJoinOperator(Operator left, Operator right, List<ComparisonAtom> atoms, List<String> variables, long budget, boolean buildOnLeft) {
+        this(left, right, atoms, variables, budget, buildOnLeft, 0);
+    }
+
+    private GraceHashJoinOperator(Operator left, Operator right, List<ComparisonAtom> atoms, List<String> variables, long budget, boolean buildOnLeft, int level) {
+        leftOperator = left;
+        rightOperator = right;
+        comparisonAtoms = atoms;
+        commonVariables = variables;
+        memoryBudget = budget;
+        buildLeft = buildOnLeft;
+        depth = level;
+    }
+
+    /**
+     * Returns the next tuple of the join, the left tuple's terms always come first
+     * @return next tuple resulting of the join condition
+     * @throws RuntimeException if a partition cannot be written or read, the query then fails instead of returning
+     * part of the join
+     */
+    @Override
+    public Tuple getNextTuple() {
+        try {
+            if (!built) {
+                built = true;
+                build();
+            }
+            if (finished)
+                return null;
+            if (!probeDone) {
+                Tuple tuple = probe();
+                if (tuple != null)
+                    return tuple;
+                probeDone = true;
+                releaseMemory();
+            }
+            Tuple tuple = nextSpilledTuple();
+            if (tuple == null)
+                finish();
+            return tuple;
+        } catch (IOException e) {
+            throw new RuntimeException("Error in grace hash join when writing or reading a partition", e);
+        }
+    }
+
+    /**
+     * Hashes the build input into the partitions, spilling the largest in-memory partition whenever the budget is
+     * exceeded, then opens a probe file for every spilled partition
+     * @throws IOException if a partition cannot be written
+     */
+    private void build() throws IOException {
+        Operator buildOperator = buildLeft ? leftOperator : rightOperator;
+        Operator probeOperator = buildLeft ? rightOperator : leftOperator;
+        Tuple buildTuple = buildOperator.getNextTuple();
+        pendingProbeTuple = probeOperator.getNextTuple();
+        // if either input is empty the join is empty
+        if (buildTuple == null || pendingProbeTuple == null) {
+            finished = true;
+            return;
+        }
+        List<String> buildSchema = buildTuple.getSchema();
+        List<String> probeSchema = pendingProbeTuple.getSchema();
+        joinConditions = new JoinConditions(comparisonAtoms, commonVariables,
+                buildLeft ? buildSchema : probeSchema, buildLeft ? probeSchema : buildSchema);
+        partitionTables = new ArrayList<>();
+        for (int i = 0; i < FANOUT; i++)
+            partitionTables.add(new HashMap<>());
+        partitionSizes = new long[FANOUT];
+        buildFiles = new SpillFile[FANOUT];
+        probeFiles = new SpillFile[FANOUT];
+        long memoryUsed = 0;
+        while (buildTuple != null) {
+            Object key = joinConditions.getKey(buildTuple, buildLeft);
+            int p = getPartition(key);
+            if (buildFiles[p] != null) {
+                buildFiles[p].write(buildTuple);
+            } else {
+                partitionTables.get(p).computeIfAbsent(key, k -> new ArrayList<>()).add(buildTuple);
+                long size = buildTuple.getEstimatedSize();
+                partitionSizes[p] += size;
+                memoryUsed += size;
+                // spill the largest partitions until the in-memory ones fit in the budget again
+                while (memoryUsed > memoryBudget && depth < MAX_DEPTH) {
+                    int largest = getLargestInMemoryPartition();
+                    if (largest < 0)
+                        break;
+                    memoryUsed -= partitionSizes[largest];
+                    spillPartition(largest);
+                }
+            }
+            buildTuple = buildOperator.getNextTuple();
+        }
+        for (int i = 0; i < FANOUT; i++) {
+            if (buildFiles[i] != null)
+                probeFiles[i] = new SpillFile();
+        }
+    }
+
+    /**
+     * Returns the next joined tuple from the in-memory partitions, writing the probe tuples of spilled partitions to
+     * their probe file
+     * @return next joined tuple or null once the probe input has been consumed
+     * @throws IOException if a probe tuple cannot be written
+     */
+    private Tuple probe() throws IOException {
+        Operator probeOperator = buildLeft ? rightOperator : leftOperator;
+        while (true) {
+            // return the remaining matches of the current probe tuple
+            while (matches != null && matchIndex < matches.size()) {
+                Tuple buildTuple = matches.get(matchIndex++);
+                Tuple leftTuple = buildLeft ? buildTuple : probeTuple;
+                Tuple rightTuple = buildLeft ? probeTuple : buildTuple;
+                if (joinConditions.evaluateResidual(leftTuple, rightTuple)) {
+                    if (outputLayout == null)
+                        outputLayout = JoinOperator.combineLayouts(leftTuple.getLayout(), rightTuple.getLayout());
+                    return JoinOperator.combineTuples(leftTuple, rightTuple, outputLayout);
+                }
+            }
+            matches = null;
+            if (pendingProbeTuple != null) {
+                probeTuple = pendingProbeTuple;
+                pendingProbeTuple = null;
+            } else {
+                probeTuple = probeOperator.getNextTuple();
+            }
+            if (probeTuple == null)
+                return null;
+            Object key = joinConditions.getKey(probeTuple, !buildLeft);
+            int p = getPartition(key);
+            if (probeFiles[p] != null) {
+                probeFiles[p].write(probeTuple);
+            } else {
+                matches = partitionTables.get(p).get(key);
+                matchIndex = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the next tuple from the joins of the spilled partitions, moving on to the next spilled partition when
+     * the current one is done
+     * @return next joined tuple or null once every spilled partition has been joined
+     * @throws IOException if a partition cannot be read
+     */
+    private Tuple nextSpilledTuple() throws IOException {
+        while (true) {
+            if (partitionJoin != null) {
+                Tuple tuple = partitionJoin.getNextTuple();
+                if (tuple != null)
+                    return tuple;
+                spilledPartitions += partitionJoin.getSpilledPartitions();
+                bytesWritten += partitionJoin.getBytesWritten();
+                partitionJoin = null;
+                buildFiles[partitionIndex].delete();
+                probeFiles[partitionIndex].delete();
+                buildFiles[partitionIndex] = null;
+                probeFiles[partitionIndex] = null;
+                partitionIndex++;
+            }
+            // find the next spilled partition
+            while (partitionIndex < FANOUT && buildFiles[partitionIndex] == null)
+                partitionIndex++;
+            if (partitionIndex == FANOUT)
+                return null;
+            SpillFile buildFile = buildFiles[partitionIndex];
+            SpillFile probeFile = probeFiles[partitionIndex];
+            buildFile.finishWriting();
+            probeFile.finishWriting();
+            bytesWritten += buildFile.getBytesWritten() + probeFile.getBytesWritten();
+            Operator buildScan = new SpillScanOperator(buildFile);
+            Operator probeScan = new SpillScanOperator(probeFile);
+            partitionJoin = new GraceHashJoinOperator(buildLeft ? buildScan : probeScan, buildLeft ? probeScan : buildScan,
+                    comparisonAtoms, commonVariables, memoryBudget, buildLeft, depth + 1);
+        }
+    }
+
+    /**
+     * Returns the partition of a key, each level of partitioning uses different bits of the hash
+     * @param key join key
+     * @return partition index
+     */
+    private int getPartition(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h >>> (depth * FANOUT_BITS)) & (FANOUT - 1);
+    }
+
+    /**
+     * Returns the largest partition still in memory
+     * @return partition index or -1 if every partition has been spilled
+     */
+    private int getLargestInMemoryPartition() {
+        int largest = -1;
+        for (int i = 0; i < FANOUT; i++) {
+            if (buildFiles[i] == null && (largest < 0 || partitionSizes[i] > partitionSizes[largest]))
+                largest = i;
+        }
+        return largest;
+    }
+
+    /**
+     * Writes the tuples of an in-memory partition to a new build file and drops them from memory
+     * @param p partition index
+     * @throws IOException if the partition cannot be written
+     */
+    private void spillPartition(int p) throws IOException {
+        buildFiles[p] = new SpillFile();
+        for (List<Tuple> tuples : partitionTables.get(p).values()) {
+            for (Tuple tuple : tuples)
+                buildFiles[p].write(tuple);
+        }
+        partitionTables.set(p, null);
+        partitionSizes[p] = 0;
+        spilledPartitions++;
+    }
+
+    /**
+     * Drops the in-memory partitions once the probe input has been consumed
+     */
+    private void releaseMemory() {
+        partitionTables = null;
+        matches = null;
+        probeTuple = null;
+    }
+
+    /**
+     * Marks the join as finished and, with the verbose option, reports how much was spilled
+     */
+    private void finish() {
+        finished = true;
+        if (depth == 0 && ExecutionSettings.isVerbose())
+            System.err.println("Grace hash join spilled " + spilledPartitions + " partitions and wrote " + bytesWritten + " bytes");
+    }
+
+    /**
+     * Returns the number of partitions spilled to disk so far, including those of the recursive partition joins
+     * @return number of spilled partitions
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /**
+     * Returns the number of bytes written to partition files so far, including those of the recursive partition joins
+     * @return bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Deletes the partition files of the join and of the partition join still running
+     */
+    private void deletePartitions() {
+        if (partitionJoin != null)
+            partitionJoin.deletePartitions();
+        if (buildFiles != null) {
+            for (int i = 0; i < FANOUT; i++) {
+                if (buildFiles[i] != null) buildFiles[i].delete();
+                if (probeFiles[i] != null) probeFiles[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Resets both children and deletes any partition files so the join is done again on the next call to getNextTuple
+     */
+    @Override
+    public void reset() {
+        leftOperator.reset();
+        rightOperator.reset();
+        deletePartitions();
+        buildFiles = null;
+        probeFiles = null;
+        releaseMemory();
+        partitionJoin = null;
+        partitionIndex = 0;
+        pendingProbeTuple = null;
+        built = false;
+        probeDone = false;
+        finished = false;
+    }
+
+}
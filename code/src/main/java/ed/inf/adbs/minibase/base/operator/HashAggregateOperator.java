@@ -0,0 +1,642 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ed.inf.adbs.minibase.base.*;
+
+/**
+ *
+ * Hash aggregation operator for heads of the form Q(x, y, SUM(t * u)). The input is read in batches and every row adds
+ * the product of its SUM terms to the long accumulator of its group, the group being the values of the head variables.
+ * Once the groups take more than the memory budget no new group is created in memory: the rows of groups that are not
+ * in memory are hash partitioned into spill files as partial sums, and each partition is aggregated on its own after
+ * the groups in memory have been returned.
+ * With more than one thread the aggregation runs in two phases. The calling thread reads the input batches and hands
+ * them to worker threads, each adding the rows to partial tables of its own split into hash partitions. The partitions
+ * are then merged in parallel, one task per partition. Once its partial tables exceed the memory budget a parallel
+ * aggregation goes on serially, spilling the groups that do not fit.
+ * For eager aggregation the operator also pre-aggregates a join input: it then returns partial sums, the group values
+ * followed by the high and low words of the sum, and the final aggregation multiplies the partial sums of the joined
+ * inputs
+ *
+ */
+public class HashAggregateOperator extends Operator {
+    // number of partitions the remaining input is split into once the memory budget is exceeded
+    private static final int FANOUT = 16;
+    // bits of the hash used to choose a partition at each level
+    private static final int FANOUT_BITS = 4;
+    // partitions are not split further past this level, they are aggregated in memory whatever their size
+    private static final int MAX_DEPTH = 6;
+    // rough size in bytes of a group in the hash table, on top of the strings of its key
+    private static final int GROUP_SIZE = 96;
+    // bits of the key hash choosing the partition of a group in a parallel aggregation
+    private static final int MERGE_PARTITION_BITS = 5;
+    // marks the end of the input for the worker threads
+    private static final TupleBatch END_OF_INPUT = TupleBatch.marker();
+
+    // child operator
+    private final Operator operator;
+    // variables the rows are grouped on
+    private final List<Variable> groupVariables;
+    // aggregate of the head
+    private final SumAggregate aggregate;
+    // terms multiplied for each row, the product terms of the aggregate unless the operator is part of an eager
+    //... aggregation
+    private final List<Term> productTerms;
+    // names of the partial sums of pre-aggregated inputs that are multiplied for each row
+    private final List<String> partialSums;
+    // name of the partial sum returned by a pre-aggregation, null if the operator returns the final sums
+    private final String partialOutput;
+    // table whose alias names the columns of the joined tuples
+    private final String tableName;
+    // memory budget in bytes for the groups, 0 means no limit
+    private final long memoryBudget;
+    // number of threads aggregating the input
+    private final int threads;
+    // level of partitioning, 0 for the operator created by the planner
+    private final int depth;
+    // true if the input rows are partial sums spilled by a parent operator: the group values followed by the high and
+    //... low words of the sum
+    private final boolean partialInput;
+    // schema of the output tuples, the group columns followed by the sum
+    private final List<String> outputSchema;
+    // positions of the group columns and of the variables of the product in the input rows, and the product of the
+    //... constants of the product
+    private int[] groupPositions;
+    private int[] productPositions;
+    private int[] partialPositions;
+    private long constantFactor;
+    // layout of the input rows, giving the type of the group columns
+    private TupleLayout inputLayout;
+    // sum of each group, keyed like the hash joins: the Integer or String value for one group column, otherwise a
+    //... list of values
+    private Map<Object, long[]> groups;
+    private long groupsSize;
+    // groups of the partitions merged by a parallel aggregation that are still to be returned
+    private Iterator<Map<Object, long[]>> mergedPartitions;
+    // partitions of the rows whose groups are not in memory, null while every group fits in memory
+    private SpillFile[] partitionFiles;
+    private TupleLayout partialLayout;
+    private TupleLayout outputLayout;
+    // layout of the group values written by dump, without the sum
+    private TupleLayout groupLayout;
+    // groups left to return
+    private Iterator<Map.Entry<Object, long[]>> groupIterator;
+    // aggregation of the partition being read
+    private HashAggregateOperator partitionAggregate;
+    private int partitionIndex;
+    private boolean aggregated;
+
+    /**
+     * HashAggregateOperator constructor
+     * @param op child operator
+     * @param variables head variables the rows are grouped on
+     * @param agg SUM aggregate of the head
+     * @param table table whose alias names the columns of the child's tuples
+     * @param budget memory budget in bytes for the groups, 0 to always keep them in memory
+     */
+    public HashAggregateOperator(Operator op, List<Variable> variables, SumAggregate agg, String table, long budget) {
+        this(op, variables, agg, agg.getProductTerms(), Collections.emptyList(), null, table, budget, 1, 0, false);
+    }
+
+    /**
+     * HashAggregateOperator constructor for an aggregation run by several threads
+     * @param op child operator
+     * @param variables head variables the rows are grouped on
+     * @param agg SUM aggregate of the head
+     * @param table table whose alias names the columns of the child's tuples
+     * @param budget memory budget in bytes for the groups
+     * @param threadCount number of threads, 1 for a serial aggregation that spills when over budget
+     */
+    public HashAggregateOperator(Operator op, List<Variable> variables, SumAggregate agg, String table, long budget, int threadCount) {
+        this(op, variables, agg, agg.getProductTerms(), Collections.emptyList(), null, table, budget, threadCount, 0, false);
+    }
+
+    /**
+     * HashAggregateOperator constructor for the operators of an eager aggregation
+     * @param op child operator
+     * @param variables variables the rows are grouped on
+     * @param agg SUM aggregate of the head
+     * @param product variables and constants multiplied for each row
+     * @param partials names of the partial sums of the pre-aggregated inputs multiplied for each row
+     * @param partialName name of the partial sum to return, null to return the final sums
+     * @param table table whose alias names the columns of the child's tuples
+     * @param budget memory budget in bytes for the groups
+     * @param threadCount number of threads
+     */
+    HashAggregateOperator(Operator op, List<Variable> variables, SumAggregate agg, List<Term> product, List<String> partials,
+                          String partialName, String table, long budget, int threadCount) {
+        this(op, variables, agg, product, partials, partialName, table, budget, threadCount, 0, false);
+    }
+
+    /**
+     * Returns the name of a column holding a word of a partial sum
+     * @param name name of the partial sum
+     * @param high true for the high word, false for the low word
+     * @return column name
+     */
+    static String getPartialColumn(String name, boolean high) {
+        return "#sum_" + name + (high ? "_hi" : "_lo");
+    }
+
+    /**
+     * HashAggregateOperator constructor for a given level of partitioning
+     * @param op child operator
+     * @param variables head variables the rows are grouped on
+     * @param agg SUM aggregate of the head
+     * @param product variables and constants multiplied for each row
+     * @param partials names of the partial sums of the pre-aggregated inputs multiplied for each row
+     * @param partialName name of the partial sum to return, null to return the final sums
+     * @param table table whose alias names the columns of the child's tuples
+     * @param budget memory budget in bytes for the groups
+     * @param threadCount number of threads
+     * @param level level of partitioning
+     * @param partial true if the child returns the partial sums spilled by a parent operator
+     */
+    private HashAggregateOperator(Operator op, List<Variable> variables, SumAggregate agg, List<Term> product, List<String> partials,
+                                  String partialName, String table, long budget, int threadCount, int level, boolean partial) {
+        operator = op;
+        groupVariables = variables;
+        aggregate = agg;
+        productTerms = product;
+        partialSums = partials;
+        partialOutput = partialName;
+        tableName = table;
+        memoryBudget = budget;
+        threads = Math.max(1, threadCount);
+        depth = level;
+        partialInput = partial;
+        outputSchema = new ArrayList<>();
+        for (Variable variable : variables)
+            outputSchema.add(table + "." + variable.getName());
+        if (partialName == null) {
+            outputSchema.add(table + "." + agg);
+        } else {
+            outputSchema.add(table + "." + getPartialColumn(partialName, true));
+            outputSchema.add(table + "." + getPartialColumn(partialName, false));
+        }
+    }
+
+    /**
+     * Returns the next group and its sum, the input is aggregated on the first call
+     * @return tuple of the group values followed by the sum, or null once every group has been returned
+     * @throws RuntimeException if a sum does not fit in a long, or in an integer for the final sums of a tuple, or if
+     * a partition cannot be written or read, the query then fails instead of returning part of its groups
+     */
+    @Override
+    public Tuple getNextTuple() {
+        Map.Entry<Object, long[]> group = nextGroup();
+        if (group == null)
+            return null;
+        try {
+            return toTuple(group.getKey(), group.getValue()[0]);
+        } catch (ArithmeticException e) {
+            throw new RuntimeException("SUM does not fit in an integer", e);
+        }
+    }
+
+    /**
+     * Writes every group to a result sink. The final sums are written as longs, so a SUM larger than an integer is
+     * output rather than failing the query as it does for getNextTuple
+     * @param sink destination of the rows
+     * @throws IOException if the output cannot be written
+     */
+    @Override
+    public void dump(ResultSink sink) throws IOException {
+        if (partialOutput != null) {
+            super.dump(sink);
+            return;
+        }
+        Map.Entry<Object, long[]> group = nextGroup();
+        while (group != null) {
+            List<Object> values = getKeyValues(group.getKey());
+            if (groupLayout == null)
+                groupLayout = getLayout(outputSchema.subList(0, values.size()), values, 0);
+            sink.write(toTuple(groupLayout, values, 0, 0), group.getValue()[0]);
+            group = nextGroup();
+        }
+    }
+
+    /**
+     * Returns the next group and its sum, aggregating the input on the first call
+     * @return group key and sum, or null once every group has been returned
+     * @throws RuntimeException if a sum does not fit in a long or a partition cannot be written or read
+     */
+    private Map.Entry<Object, long[]> nextGroup() {
+        try {
+            if (!aggregated) {
+                aggregate();
+                aggregated = true;
+                groupIterator = groups.entrySet().iterator();
+            }
+            while (!groupIterator.hasNext() && mergedPartitions != null && mergedPartitions.hasNext())
+                groupIterator = mergedPartitions.next().entrySet().iterator();
+            if (groupIterator.hasNext()) {
+                Map.Entry<Object, long[]> group = groupIterator.next();
+                groupIterator.remove();
+                return group;
+            }
+            return nextPartitionGroup();
+        } catch (IOException e) {
+            throw new RuntimeException("Error when aggregating", e);
+        } catch (ArithmeticException e) {
+            throw new RuntimeException("SUM does not fit in a long", e);
+        }
+    }
+
+    /**
+     * Reads the whole input and adds every row to the sum of its group
+     * @throws IOException if a partition cannot be written
+     */
+    private void aggregate() throws IOException {
+        groups = new HashMap<>();
+        if (threads > 1) {
+            aggregateInParallel();
+            return;
+        }
+        aggregateSerially(operator.getNextBatch());
+        // a sum over no rows is 0, a pre-aggregation of an empty input returns no rows so the join stays empty
+        if (partialOutput == null && groupVariables.isEmpty() && groups.isEmpty() && depth == 0)
+            groups.put(Collections.emptyList(), new long[]{0});
+    }
+
+    /**
+     * Adds the rows of a batch and of the rest of the input to the groups, spilling the groups that do not fit
+     * @param batch first batch to add, null if the input is over
+     * @throws IOException if a spill file cannot be written
+     */
+    private void aggregateSerially(TupleBatch batch) throws IOException {
+        while (batch != null) {
+            if (groupPositions == null)
+                resolvePositions(batch.getLayout());
+            for (int i = 0; i < batch.getSelectedCount(); i++) {
+                int row = batch.getSelectedRow(i);
+                accumulate(getKey(batch, row), getValue(batch, row));
+            }
+            batch = operator.getNextBatch();
+        }
+    }
+
+    /**
+     * Adds a value to the sum of a group, the value is spilled if the group is not in memory and the budget is used up
+     * @param key group key
+     * @param value value to add
+     * @throws IOException if a spill file cannot be written
+     */
+    private void accumulate(Object key, long value) throws IOException {
+        long[] sum = groups.get(key);
+        if (sum != null) {
+            sum[0] = Math.addExact(sum[0], value);
+        } else if (partitionFiles == null) {
+            groups.put(key, new long[]{value});
+            groupsSize += getEstimatedSize(key);
+            if (memoryBudget > 0 && groupsSize > memoryBudget && depth < MAX_DEPTH && !groupVariables.isEmpty())
+                partitionFiles = new SpillFile[FANOUT];
+        } else {
+            spill(key, value);
+        }
+    }
+
+    /**
+     * Aggregates the input with several threads. Each worker adds the rows of the batches it takes to partial tables
+     * of its own, one per hash partition of the groups, then the tables of each partition are merged by a separate
+     * task. Once the partial tables take more than the memory budget the workers are stopped, and their sums and the
+     * rest of the input are aggregated serially so that the groups that do not fit are spilled
+     * @throws IOException if a spill file cannot be written
+     */
+    private void aggregateInParallel() throws IOException {
+        TupleBatch batch = operator.getNextBatch();
+        if (batch == null) {
+            if (partialOutput == null && groupVariables.isEmpty())
+                groups.put(Collections.emptyList(), new long[]{0});
+            return;
+        }
+        resolvePositions(batch.getLayout());
+        int partitionCount = 1 << MERGE_PARTITION_BITS;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            BlockingQueue<TupleBatch> queue = new ArrayBlockingQueue<>(threads * 4);
+            // estimated size of the groups of all the partial tables, a group found by several workers counts for each
+            AtomicLong partialSize = new AtomicLong();
+            // first phase: every worker aggregates the batches it takes into its own tables
+            List<Future<PartialAggregateTable[]>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(pool.submit(() -> {
+                    PartialAggregateTable[] tables = new PartialAggregateTable[partitionCount];
+                    for (int p = 0; p < partitionCount; p++)
+                        tables[p] = new PartialAggregateTable();
+                    TupleBatch next = queue.take();
+                    while (next != END_OF_INPUT) {
+                        long added = 0;
+                        for (int i = 0; i < next.getSelectedCount(); i++) {
+                            int row = next.getSelectedRow(i);
+                            Object key = getKey(next, row);
+                            if (tables[PartialAggregateTable.hash(key) >>> (32 - MERGE_PARTITION_BITS)].add(key, getValue(next, row)))
+                                added += getEstimatedSize(key);
+                        }
+                        partialSize.addAndGet(added);
+                        next = queue.take();
+                    }
+                    return tables;
+                }));
+            }
+            while (batch != null && (memoryBudget <= 0 || partialSize.get() <= memoryBudget) && handOver(queue, batch, workers))
+                batch = operator.getNextBatch();
+            // a worker that failed takes no more batches, the end markers are only offered while some are running
+            for (int t = 0; t < threads; t++) {
+                while (!queue.offer(END_OF_INPUT, 10, TimeUnit.MILLISECONDS)) {
+                    if (workers.stream().allMatch(Future::isDone))
+                        break;
+                }
+            }
+            List<PartialAggregateTable[]> partials = new ArrayList<>();
+            for (Future<PartialAggregateTable[]> worker : workers)
+                partials.add(worker.get());
+            if (batch != null) {
+                // over budget: the partial sums go through the serial path, which spills the groups that do not fit
+                for (int t = 0; t < partials.size(); t++) {
+                    for (PartialAggregateTable table : partials.set(t, null)) {
+                        for (Map.Entry<Object, long[]> group : table.toMap().entrySet())
+                            accumulate(group.getKey(), group.getValue()[0]);
+                    }
+                }
+                aggregateSerially(batch);
+                return;
+            }
+            // second phase: the tables of each partition are merged by a task of their own
+            List<Future<Map<Object, long[]>>> merges = new ArrayList<>();
+            for (int p = 0; p < partitionCount; p++) {
+                final int partition = p;
+                merges.add(pool.submit(() -> {
+                    PartialAggregateTable merged = partials.get(0)[partition];
+                    for (int t = 1; t < partials.size(); t++)
+                        merged.addAll(partials.get(t)[partition]);
+                    return merged.toMap();
+                }));
+            }
+            List<Map<Object, long[]>> results = new ArrayList<>();
+            boolean empty = true;
+            for (Future<Map<Object, long[]>> merge : merges) {
+                results.add(merge.get());
+                empty &= results.get(results.size() - 1).isEmpty();
+            }
+            if (empty && partialOutput == null && groupVariables.isEmpty())
+                groups.put(Collections.emptyList(), new long[]{0});
+            mergedPartitions = results.iterator();
+        } catch (InterruptedException e) {
+            throw new IOException("Parallel aggregation interrupted", e);
+        } catch (ExecutionException e) {
+            // an error or a SUM overflow of a worker is rethrown as is
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException("Parallel aggregation failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Hands a batch to the workers, waiting for room in the queue as long as no worker has ended. A worker only ends
+     * before the end of the input when it fails, its failure is then reported by its future
+     * @param queue queue the workers take the batches from
+     * @param batch batch to hand over
+     * @param workers futures of the workers
+     * @return true if the batch was queued, false if a worker has ended
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private static boolean handOver(BlockingQueue<TupleBatch> queue, TupleBatch batch, List<? extends Future<?>> workers)
+            throws InterruptedException {
+        while (!queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+            for (Future<?> worker : workers) {
+                if (worker.isDone())
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the positions of the group columns, of the product variables and of the partial sums in the input rows.
+     * The rows spilled by a parent operator hold the group values followed by one partial sum
+     * @param layout layout of the input rows
+     */
+    private void resolvePositions(TupleLayout layout) {
+        inputLayout = layout;
+        List<String> schema = layout.getSchema();
+        groupPositions = new int[groupVariables.size()];
+        for (int i = 0; i < groupPositions.length; i++)
+            groupPositions[i] = partialInput ? i : schema.indexOf(tableName + "." + groupVariables.get(i).getName());
+        constantFactor = 1;
+        if (partialInput) {
+            productPositions = new int[0];
+            partialPositions = new int[]{groupPositions.length};
+            return;
+        }
+        partialPositions = new int[partialSums.size()];
+        for (int i = 0; i < partialPositions.length; i++)
+            partialPositions[i] = schema.indexOf(tableName + "." + getPartialColumn(partialSums.get(i), true));
+        List<Integer> positions = new ArrayList<>();
+        for (Term term : productTerms) {
+            if (term instanceof Variable)
+                positions.add(schema.indexOf(tableName + "." + ((Variable) term).getName()));
+            else
+                constantFactor = Math.multiplyExact(constantFactor, ((IntegerConstant) term).getValue());
+        }
+        productPositions = new int[positions.size()];
+        for (int i = 0; i < productPositions.length; i++)
+            productPositions[i] = positions.get(i);
+    }
+
+    /**
+     * Returns the group key of a row, an empty list when there are no group variables
+     * @param batch batch holding the row
+     * @param row row index
+     * @return group key
+     */
+    private Object getKey(TupleBatch batch, int row) {
+        if (groupPositions.length == 0)
+            return Collections.emptyList();
+        if (groupPositions.length == 1)
+            return getGroupValue(batch, row, groupPositions[0]);
+        Object[] key = new Object[groupPositions.length];
+        for (int i = 0; i < groupPositions.length; i++)
+            key[i] = getGroupValue(batch, row, groupPositions[i]);
+        return Arrays.asList(key);
+    }
+
+    private Object getGroupValue(TupleBatch batch, int row, int position) {
+        if (inputLayout.isString(position))
+            return batch.getStringColumn(position)[row];
+        return batch.getIntColumn(position)[row];
+    }
+
+    /**
+     * Returns the value a row adds to its group, the product of its values, of its partial sums and of the constants
+     * @param batch batch holding the row
+     * @param row row index
+     * @return value of the row
+     */
+    private long getValue(TupleBatch batch, int row) {
+        long value = constantFactor;
+        for (int p : productPositions)
+            value = Math.multiplyExact(value, batch.getIntColumn(p)[row]);
+        for (int p : partialPositions) {
+            long high = batch.getIntColumn(p)[row];
+            long low = batch.getIntColumn(p + 1)[row];
+            value = Math.multiplyExact(value, (high << 32) | (low & 0xffffffffL));
+        }
+        return value;
+    }
+
+    /**
+     * Writes a partial sum to the partition of its group
+     * @param key group key
+     * @param value partial sum
+     * @throws IOException if the partition cannot be written
+     */
+    private void spill(Object key, long value) throws IOException {
+        List<Object> values = getKeyValues(key);
+        if (partialLayout == null) {
+            List<String> partialSchema = new ArrayList<>(outputSchema.subList(0, groupPositions.length));
+            partialSchema.add("high");
+            partialSchema.add("low");
+            partialLayout = getLayout(partialSchema, values, 2);
+        }
+        int p = getPartition(key);
+        if (partitionFiles[p] == null)
+            partitionFiles[p] = new SpillFile();
+        partitionFiles[p].write(toTuple(partialLayout, values, value, 2));
+    }
+
+    /**
+     * Returns the next group of the spilled partitions
+     * @return next group or null once every partition has been read
+     */
+    private Map.Entry<Object, long[]> nextPartitionGroup() {
+        if (partitionFiles == null)
+            return null;
+        while (partitionIndex < FANOUT) {
+            SpillFile file = partitionFiles[partitionIndex];
+            if (file != null) {
+                if (partitionAggregate == null)
+                    partitionAggregate = new HashAggregateOperator(new SpillScanOperator(file), groupVariables, aggregate,
+                            productTerms, partialSums, partialOutput, tableName, memoryBudget, 1, depth + 1, true);
+                Map.Entry<Object, long[]> group = partitionAggregate.nextGroup();
+                if (group != null)
+                    return group;
+                partitionAggregate = null;
+                file.delete();
+                partitionFiles[partitionIndex] = null;
+            }
+            partitionIndex++;
+        }
+        return null;
+    }
+
+    /**
+     * Creates the output tuple of a group
+     * @param key group key
+     * @param sum sum of the group
+     * @return tuple of the group values followed by the sum, or by its high and low words for a pre-aggregation
+     */
+    private Tuple toTuple(Object key, long sum) {
+        List<Object> values = getKeyValues(key);
+        if (outputLayout == null)
+            outputLayout = getLayout(outputSchema, values, partialOutput == null ? 1 : 2);
+        return toTuple(outputLayout, values, sum, partialOutput == null ? 1 : 2);
+    }
+
+    /**
+     * Creates a tuple of group values followed by a sum
+     * @param layout layout of the tuple
+     * @param values group values
+     * @param sum sum of the group
+     * @param sums 2 to write the high and low words of the sum, 1 to write the sum as an integer, 0 to leave it out
+     * @return tuple of the group values and the sum
+     */
+    private static Tuple toTuple(TupleLayout layout, List<Object> values, long sum, int sums) {
+        int[] ints = new int[layout.getIntCount()];
+        String[] strings = new String[layout.getStringCount()];
+        for (int i = 0; i < values.size(); i++) {
+            if (layout.isString(i))
+                strings[layout.getSlot(i)] = (String) values.get(i);
+            else
+                ints[layout.getSlot(i)] = (Integer) values.get(i);
+        }
+        if (sums == 2) {
+            ints[layout.getSlot(values.size())] = (int) (sum >>> 32);
+            ints[layout.getSlot(values.size()) + 1] = (int) sum;
+        } else if (sums == 1) {
+            ints[layout.getSlot(values.size())] = Math.toIntExact(sum);
+        }
+        return new Tuple(layout, ints, strings);
+    }
+
+    /**
+     * Returns the layout of tuples of group values followed by integer sum columns
+     * @param schema schema of the tuples
+     * @param values group values of one of the tuples
+     * @param sums number of sum columns
+     * @return layout of the tuples
+     */
+    private static TupleLayout getLayout(List<String> schema, List<Object> values, int sums) {
+        boolean[] strings = new boolean[values.size() + sums];
+        for (int i = 0; i < values.size(); i++)
+            strings[i] = values.get(i) instanceof String;
+        return new TupleLayout(schema, strings);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> getKeyValues(Object key) {
+        if (key instanceof List)
+            return (List<Object>) key;
+        return Collections.singletonList(key);
+    }
+
+    private static long getEstimatedSize(Object key) {
+        long size = GROUP_SIZE;
+        for (Object value : getKeyValues(key)) {
+            size += 16;
+            if (value instanceof String)
+                size += 40 + ((String) value).length();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the partition of a group, each level of partitioning uses different bits of the hash
+     * @param key group key
+     * @return partition index
+     */
+    private int getPartition(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h >>> (depth * FANOUT_BITS)) & (FANOUT - 1);
+    }
+
+    /**
+     * Resets the child, drops the groups and deletes the spilled partitions
+     */
+    @Override
+    public void reset() {
+        operator.reset();
+        if (partitionFiles != null) {
+            for (SpillFile file : partitionFiles) {
+                if (file != null)
+                    file.delete();
+            }
+        }
+        partitionFiles = null;
+        partitionAggregate = null;
+        partitionIndex = 0;
+        groups = null;
+        groupsSize = 0;
+        groupIterator = null;
+        mergedPartitions = null;
+        aggregated = false;
+    }
+}
@@ -0,0 +1,231 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.*;
+
+import ed.inf.adbs.minibase.base.*;
+
+
+/**
+ *
+ * Hash join operator for equi-joins. Builds an in-memory hash table on the smaller of its two inputs, or on the input
+ * chosen by the planner, keyed on the common variables and the equality join conditions, and probes it with the
+ * tuples of the other input. Any join condition that is not an equality is checked on each matching pair of tuples.
+ * Both inputs are read in batches and the joined rows are written straight into the column vectors of the output
+ * batches
+ *
+ */
+public class HashJoinOperator extends Operator {
+    // Left and right child operators
+    private final Operator leftOperator;
+    private final Operator rightOperator;
+    // List of join conditions
+    private final List<ComparisonAtom> comparisonAtoms;
+    // List of strings representing the common variables in the tuples
+    private final List<String> commonVariables;
+    // join keys and residual conditions resolved against the tuple schemas
+    private JoinConditions joinConditions;
+    // layout of the joined rows
+    private TupleLayout outputLayout;
+    // hash table of the rows of one of the inputs
+    private Map<Object, List<Tuple>> hashTable;
+    // true if the hash table holds the left input
+    private boolean buildLeft;
+    // true if the build side was chosen by the planner rather than found by reading both inputs
+    private final boolean fixedBuildSide;
+    // batches of the probe input read while building, returned before the rest of the probe input
+    private Iterator<TupleBatch> bufferedProbeBatches;
+    // current probe batch, index of its next selected row, current probe row and the build rows it matches
+    private TupleBatch probeBatch;
+    private int probeIndex;
+    private Tuple probeRow;
+    private List<Tuple> matches;
+    private int matchIndex;
+    private boolean probeDone;
+    // true once the hash table has been built
+    private boolean built;
+    // returns the rows of the output batches to getNextTuple
+    private final BatchTupleReader tupleReader = new BatchTupleReader(this);
+
+    /**
+     * HashJoinOperator constructor, the hash table is built lazily on the first call to getNextTuple
+     * @param left operator for the left table
+     * @param right operator for the right table
+     * @param atoms join conditions list, must contain at least one equality unless variables is non empty
+     * @param variables Common variable names list
+     */
+    public HashJoinOperator(Operator left, Operator right, List<ComparisonAtom> atoms, List<String> variables) {
+        leftOperator = left;
+        rightOperator = right;
+        this.comparisonAtoms = atoms;
+        this.commonVariables = variables;
+        fixedBuildSide = false;
+    }
+
+    /**
+     * HashJoinOperator constructor with the build side given, the hash table is built lazily on the first call to
+     * getNextTuple
+     * @param left operator for the left table
+     * @param right operator for the right table
+     * @param atoms join conditions list, must contain at least one equality unless variables is non empty
+     * @param variables Common variable names list
+     * @param buildOnLeft true to build the hash table on the left input, false to build it on the right input
+     */
+    public HashJoinOperator(Operator left, Operator right, List<ComparisonAtom> atoms, List<String> variables, boolean buildOnLeft) {
+        leftOperator = left;
+        rightOperator = right;
+        this.comparisonAtoms = atoms;
+        this.commonVariables = variables;
+        buildLeft = buildOnLeft;
+        fixedBuildSide = true;
+    }
+
+    /**
+     * Returns true if the join can be evaluated with a hash join, i.e. if there is a common variable or an equality
+     * join condition
+     * @param atoms join conditions list
+     * @param variables common variable names list
+     * @return true if there is at least one equality join predicate
+     */
+    public static boolean hasEquiJoinPredicate(List<ComparisonAtom> atoms, List<String> variables) {
+        if (variables.size() > 0)
+            return true;
+        for (ComparisonAtom atom : atoms) {
+            if (atom.getOp() == ComparisonOperator.EQ)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next tuple of the join, the left tuple's terms always come first
+     * @return next tuple resulting of the join condition
+     */
+    @Override
+    public Tuple getNextTuple() {
+        return tupleReader.next();
+    }
+
+    /**
+     * Returns the next batch of joined rows, the left row's terms always come first
+     * @return next batch or null once the probe input has been read
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (!built) {
+            build();
+            built = true;
+        }
+        if (hashTable == null)
+            return null;
+        TupleBatch output = new TupleBatch(outputLayout, ExecutionSettings.getBatchSize());
+        while (!output.isFull()) {
+            // add the remaining matches of the current probe row
+            if (matches != null && matchIndex < matches.size()) {
+                Tuple buildRow = matches.get(matchIndex++);
+                Tuple leftRow = buildLeft ? buildRow : probeRow;
+                Tuple rightRow = buildLeft ? probeRow : buildRow;
+                if (joinConditions.evaluateResidual(leftRow, rightRow))
+                    output.addRow(leftRow, rightRow);
+                continue;
+            }
+            // move to the next probe batch once this one has been probed
+            if (probeBatch == null || probeIndex >= probeBatch.getSelectedCount()) {
+                probeBatch = nextProbeBatch();
+                probeIndex = 0;
+                if (probeBatch == null)
+                    break;
+                continue;
+            }
+            // look up the matches of the next probe row, its values are only copied out if it has any
+            int row = probeBatch.getSelectedRow(probeIndex++);
+            matches = hashTable.get(joinConditions.getKey(probeBatch, row, !buildLeft));
+            matchIndex = 0;
+            probeRow = matches == null ? null : probeBatch.getTuple(row);
+        }
+        return output.getSize() == 0 ? null : output;
+    }
+
+    /**
+     * Reads both inputs alternately until one of them runs out, that input is the smaller one and the hash table is
+     * built on it. The batches read from the other input are kept so they can be probed first. If the build side is
+     * fixed it is read in full and only the first batch of the probe input is read
+     */
+    private void build() {
+        List<TupleBatch> leftBatches = new ArrayList<>();
+        List<TupleBatch> rightBatches = new ArrayList<>();
+        boolean leftDone = false;
+        boolean rightDone = false;
+        if (fixedBuildSide) {
+            Operator buildOperator = buildLeft ? leftOperator : rightOperator;
+            Operator probeOperator = buildLeft ? rightOperator : leftOperator;
+            List<TupleBatch> buildBatches = buildLeft ? leftBatches : rightBatches;
+            TupleBatch batch = buildOperator.getNextBatch();
+            while (batch != null) {
+                buildBatches.add(batch);
+                batch = buildOperator.getNextBatch();
+            }
+            if (buildBatches.isEmpty())
+                return;
+            batch = probeOperator.getNextBatch();
+            if (batch != null)
+                (buildLeft ? rightBatches : leftBatches).add(batch);
+            leftDone = buildLeft;
+            rightDone = !buildLeft;
+        }
+        while (!leftDone && !rightDone) {
+            TupleBatch batch = leftOperator.getNextBatch();
+            if (batch == null) leftDone = true;
+            else leftBatches.add(batch);
+            batch = rightOperator.getNextBatch();
+            if (batch == null) rightDone = true;
+            else rightBatches.add(batch);
+        }
+        // if either input is empty the join is empty
+        if (leftBatches.isEmpty() || rightBatches.isEmpty())
+            return;
+        buildLeft = leftDone;
+        TupleLayout leftLayout = leftBatches.get(0).getLayout();
+        TupleLayout rightLayout = rightBatches.get(0).getLayout();
+        joinConditions = new JoinConditions(comparisonAtoms, commonVariables, leftLayout.getSchema(), rightLayout.getSchema());
+        outputLayout = JoinOperator.combineLayouts(leftLayout, rightLayout);
+        hashTable = new HashMap<>();
+        for (TupleBatch batch : buildLeft ? leftBatches : rightBatches) {
+            for (int i = 0; i < batch.getSelectedCount(); i++) {
+                int row = batch.getSelectedRow(i);
+                hashTable.computeIfAbsent(joinConditions.getKey(batch, row, buildLeft), k -> new ArrayList<>()).add(batch.getTuple(row));
+            }
+        }
+        bufferedProbeBatches = (buildLeft ? rightBatches : leftBatches).iterator();
+    }
+
+    /**
+     * Returns the next batch of the probe input, first from the batches read while building then from the operator
+     * @return next probe batch or null if there are none left
+     */
+    private TupleBatch nextProbeBatch() {
+        if (bufferedProbeBatches.hasNext())
+            return bufferedProbeBatches.next();
+        if (probeDone)
+            return null;
+        TupleBatch batch = buildLeft ? rightOperator.getNextBatch() : leftOperator.getNextBatch();
+        probeDone = batch == null;
+        return batch;
+    }
+
+    /**
+     * Resets both children and drops the hash table so it is rebuilt on the next call to getNextTuple
+     */
+    @Override
+    public void reset() {
+        leftOperator.reset();
+        rightOperator.reset();
+        hashTable = null;
+        matches = null;
+        probeRow = null;
+        probeBatch = null;
+        probeDone = false;
+        built = false;
+        tupleReader.reset();
+    }
+
+}
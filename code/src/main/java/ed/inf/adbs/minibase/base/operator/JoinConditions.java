@@ -0,0 +1,178 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.*;
+
+import ed.inf.adbs.minibase.base.*;
+
+
+/**
+ *
+ * Resolves the join conditions between a left and a right input against their tuple schemas. Common variables and
+ * equality conditions become key positions on both sides, every other condition is kept as a residual condition that
+ * is checked on each candidate pair of tuples
+ *
+ */
+class JoinConditions {
+    // positions of the key terms in left and right tuples
+    private final int[] leftKeyPositions;
+    private final int[] rightKeyPositions;
+    // conditions that are not keys
+    private final List<ComparisonAtom> residualAtoms = new ArrayList<>();
+    // residual conditions compiled against the positions of their terms in both inputs
+    private final Predicate residual;
+
+    /**
+     * Works out the key positions in both inputs from the common variables and equality conditions, every other
+     * condition becomes a residual condition
+     * @param atoms join conditions list
+     * @param commonVariables common variable names list
+     * @param leftSchema schema of the left tuples
+     * @param rightSchema schema of the right tuples
+     */
+    JoinConditions(List<ComparisonAtom> atoms, List<String> commonVariables, List<String> leftSchema, List<String> rightSchema) {
+        Map<String, Integer> termPositions1 = JoinOperator.getTermPositions(leftSchema);
+        Map<String, Integer> termPositions2 = JoinOperator.getTermPositions(rightSchema);
+        List<Integer> leftKeys = new ArrayList<>();
+        List<Integer> rightKeys = new ArrayList<>();
+        for (String var : commonVariables) {
+            leftKeys.add(termPositions1.get(var));
+            rightKeys.add(termPositions2.get(var));
+        }
+        for (ComparisonAtom atom : atoms) {
+            String term1Name = ((Variable) atom.getTerm1()).getName();
+            String term2Name = ((Variable) atom.getTerm2()).getName();
+            if (atom.getOp() == ComparisonOperator.EQ && termPositions1.containsKey(term1Name) && termPositions2.containsKey(term2Name)) {
+                leftKeys.add(termPositions1.get(term1Name));
+                rightKeys.add(termPositions2.get(term2Name));
+            } else if (atom.getOp() == ComparisonOperator.EQ && termPositions1.containsKey(term2Name) && termPositions2.containsKey(term1Name)) {
+                leftKeys.add(termPositions1.get(term2Name));
+                rightKeys.add(termPositions2.get(term1Name));
+            } else {
+                residualAtoms.add(atom);
+            }
+        }
+        leftKeyPositions = leftKeys.stream().mapToInt(Integer::intValue).toArray();
+        rightKeyPositions = rightKeys.stream().mapToInt(Integer::intValue).toArray();
+        residual = Predicate.compile(residualAtoms, new ArrayList<>(), termPositions1, termPositions2);
+    }
+
+    /**
+     * Returns true if there is at least one key on which the inputs can be matched
+     * @return true if there are key positions
+     */
+    boolean hasKeys() {
+        return leftKeyPositions.length > 0;
+    }
+
+    /**
+     * Returns the positions of the key terms in left tuples
+     * @return left key positions
+     */
+    int[] getLeftKeyPositions() {
+        return leftKeyPositions;
+    }
+
+    /**
+     * Returns the positions of the key terms in right tuples
+     * @return right key positions
+     */
+    int[] getRightKeyPositions() {
+        return rightKeyPositions;
+    }
+
+    /**
+     * Returns the key of a tuple from either input
+     * @param tuple tuple to get the key of
+     * @param left true if the tuple comes from the left input
+     * @return hash key
+     */
+    Object getKey(Tuple tuple, boolean left) {
+        return getKey(tuple, left ? leftKeyPositions : rightKeyPositions);
+    }
+
+    /**
+     * Returns the key of a row of a batch from either input
+     * @param batch batch holding the row
+     * @param row row index
+     * @param left true if the batch comes from the left input
+     * @return hash key
+     */
+    Object getKey(TupleBatch batch, int row, boolean left) {
+        int[] positions = left ? leftKeyPositions : rightKeyPositions;
+        if (positions.length == 1)
+            return getValue(batch, row, positions[0]);
+        Object[] key = new Object[positions.length];
+        for (int i = 0; i < positions.length; i++)
+            key[i] = getValue(batch, row, positions[i]);
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Returns the hash key of a tuple, the value itself for a single key otherwise a list of the key values. The keys
+     * of tuples and of batch rows with the same values are equal
+     * @param tuple tuple to get the key of
+     * @param positions positions of the key terms
+     * @return hash key
+     */
+    private static Object getKey(Tuple tuple, int[] positions) {
+        if (positions.length == 1)
+            return getValue(tuple, positions[0]);
+        Object[] key = new Object[positions.length];
+        for (int i = 0; i < positions.length; i++)
+            key[i] = getValue(tuple, positions[i]);
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Returns a value of a tuple as an Integer or a String, without creating a term
+     * @param tuple tuple holding the value
+     * @param position position of the value
+     * @return value
+     */
+    private static Object getValue(Tuple tuple, int position) {
+        return tuple.isString(position) ? tuple.getString(position) : (Object) tuple.getInt(position);
+    }
+
+    /**
+     * Returns a value of a batch row as an Integer or a String
+     * @param batch batch holding the row
+     * @param row row index
+     * @param position position of the value
+     * @return value
+     */
+    private static Object getValue(TupleBatch batch, int row, int position) {
+        return batch.isString(position) ? batch.getStringColumn(position)[row] : (Object) batch.getIntColumn(position)[row];
+    }
+
+    /**
+     * Checks that a left and a right tuple have equal keys, without building the keys
+     * @param left left tuple
+     * @param right right tuple
+     * @return true if every key value is equal
+     */
+    boolean keysMatch(Tuple left, Tuple right) {
+        for (int i = 0; i < leftKeyPositions.length; i++) {
+            if (Tuple.compareColumns(left, leftKeyPositions[i], right, rightKeyPositions[i]) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the conditions that are not keys
+     * @return residual conditions
+     */
+    List<ComparisonAtom> getResidualAtoms() {
+        return residualAtoms;
+    }
+
+    /**
+     * Checks the join conditions that are not keys
+     * @param leftTuple tuple from the left input
+     * @param rightTuple tuple from the right input
+     * @return true if all residual conditions hold
+     */
+    boolean evaluateResidual(Tuple leftTuple, Tuple rightTuple) {
+        return residual.test(leftTuple, rightTuple);
+    }
+}
@@ -21,9 +21,10 @@ public class JoinOperator extends Operator {
     private Tuple rightTuple;
     // List of strings representing the common variables in the tuples
     private final List<String> commonVariables;
-    // maps for the int positions of terms in each tuple
-    Map<String, Integer> termPositions1 = new HashMap<>();
-    Map<String, Integer> termPositions2 = new HashMap<>();
+    // layout of the joined tuples
+    private TupleLayout outputLayout;
+    // join conditions and common variables compiled against the positions of the terms in each tuple
+    private Predicate predicate;
 
     /**
      * JoinOperator constructor; reads in arguments and then initialises the join by getting the first tuple of both the
@@ -52,34 +53,17 @@ public class JoinOperator extends Operator {
             Tuple tuple = null;
             //while there are still tuples in the left operator
             while (leftTuple != null) {
-                List<String> leftTupleSchema = leftTuple.getSchema();
-                List<String> rightTupleSchema = rightTuple.getSchema();
-                // while i is less than the size of both of the tuples
-                for (int i=0; i<leftTupleSchema.size() || i<rightTupleSchema.size();i++){
-                    // If there's still attributes in the first tuple add their position to relevant position map
-                    if(i<leftTupleSchema.size()){
-                        String[] splitLine = leftTupleSchema.get(i).split("\\.");
-                        termPositions1.put(splitLine[1], i);
-                    }
-                    if(i<rightTupleSchema.size()){
-                        String[] splitLine = rightTupleSchema.get(i).split("\\.");
-                        termPositions2.put(splitLine[1], i);
-                    }
-                }
-                // Evaluate the conditions and the common variables
-                boolean compareBool = true;
-                if(comparisonAtoms.size()>0)
-                    for(ComparisonAtom a : comparisonAtoms) {
-                        compareBool = compareBool & evaluateAtom(a);
-                    }
-                if(commonVariables.size()>0) {
-                    for(String var : commonVariables) {
-                        compareBool = compareBool & evaluateAtom(var);
-                    }
-                }
+                // compile the conditions against the schemas of the first pair of tuples
+                if (predicate == null)
+                    predicate = Predicate.compile(comparisonAtoms, commonVariables,
+                            getTermPositions(leftTuple.getSchema()), getTermPositions(rightTuple.getSchema()));
+                boolean compareBool = predicate.test(leftTuple, rightTuple);
                 //If all join conditions are met, then combine the tuples
-                if (compareBool)
-                    tuple = combineTuples(leftTuple, rightTuple);
+                if (compareBool) {
+                    if (outputLayout == null)
+                        outputLayout = combineLayouts(leftTuple.getLayout(), rightTuple.getLayout());
+                    tuple = combineTuples(leftTuple, rightTuple, outputLayout);
+                }
                 // If not at the last tuple for inner table then get next tuple
                 if (rightTuple != null) //get next tuple for the inner table
                     rightTuple = rightOperator.getNextTuple();
@@ -102,130 +86,73 @@ public class JoinOperator extends Operator {
     }
 
     /**
-     * Evaluates whether a comparison condition is met for a given comparison atom
-     * @param comparisonAtom condition to be tested
-     * @return returns true if the condition is met and false otherwise
+     * Maps each variable name of a tuple schema (the part after the table alias) to its position in the tuple
+     * @param schema tuple schema of the form alias.variable
+     * @return map of variable name to position
      */
-    public boolean evaluateAtom(ComparisonAtom comparisonAtom) {
-        //Get the operator and terms for the condition
-        ComparisonOperator operator = comparisonAtom.getOp();
-        String term1Name = ((Variable) comparisonAtom.getTerm1()).getName();
-        String term2Name = ((Variable) comparisonAtom.getTerm2()).getName();
-
-        // Get the positions of the first and second terms from the first and second tuples
-        Term term1 = leftTuple.getPosition(termPositions1.get(term1Name));
-        Term term2 = rightTuple.getPosition(termPositions2.get(term2Name));
-        //if both terms are strings then do string comparison
-        if((term1 instanceof StringConstant) & (term2 instanceof StringConstant)) {
-                return evaluateComparison(operator, ((StringConstant) term1).getValue(), ((StringConstant) term2).getValue());
-            //if both values are integers, return expression evaluation
-        } else if((term1 instanceof IntegerConstant) & (term2 instanceof IntegerConstant)){
-            return evaluateComparison(operator, ((IntegerConstant) term1).getValue(), ((IntegerConstant) term2).getValue());
+    static Map<String, Integer> getTermPositions(List<String> schema) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < schema.size(); i++) {
+            String[] splitLine = schema.get(i).split("\\.");
+            positions.put(splitLine[1], i);
         }
-        return false;
-
+        return positions;
     }
 
     /**
-     * Evaluates whether two variables are equal
-     * @param variable variable name
-     * @return returns true if condition is met and false otherwise
+     * Given two tuples,create the schema for a new combined tuple, and full the new tuple with attributes from both
+     * tuples
+     * @param first first tuple to be combined
+     * @param second second tuple to be combined
+     * @return returns the combined tuple with new attributes and new schema
      */
-    public boolean evaluateAtom(String variable) {
-        // Get the position of the variable in left and right tuples
-        Term term1 = leftTuple.getPosition(termPositions1.get(variable));
-        Term term2 = rightTuple.getPosition(termPositions2.get(variable));
-        // if both terms are strings then do string equality check
-        if ((term1 instanceof StringConstant) & (term2 instanceof StringConstant)) {
-            return ((StringConstant) term1).getValue().equals(((StringConstant) term2).getValue());
-            // if both terms are strings then do string equality check
-        } else if ((term1 instanceof IntegerConstant) & (term2 instanceof IntegerConstant)) {
-            return Objects.equals(((IntegerConstant) term1).getValue(), ((IntegerConstant) term2).getValue());
-        }
-        return false;
+    public static Tuple combineTuples(Tuple first, Tuple second){
+        return combineTuples(first, second, combineLayouts(first.getLayout(), second.getLayout()));
     }
 
     /**
-     * If the two terms to be compared are integers then this function is called, it checks whether the terms satisfy
-     * the given operator.
-     * @param operator operator with which to compare the two terms
-     * @param first first int term to be compared
-     * @param second second int term to be compared
-     * @return boolean returns true if the comparison is satisfied and false otherwise
+     * Combines two tuples into a tuple with the given layout, used by joins that create the layout of their output
+     * once
+     * @param first first tuple to be combined
+     * @param second second tuple to be combined
+     * @param layout layout of the combined tuple, created with combineLayouts
+     * @return returns the combined tuple
      */
-    private boolean evaluateComparison(ComparisonOperator operator, int first, int second) {
-        if(operator.toString().matches("=")) {
-            return first==second;
-        }else if(operator.toString().matches("<=")){
-            return first<=second;
-        }else if(operator.toString().matches(">=")) {
-            return first>=second;
-        }else if(operator.toString().matches("<")) {
-            return first<second;
-        }else if(operator.toString().matches(">")) {
-            return first>second;
-        } else if(operator.toString().matches("!=")) {
-            return first!=second;
-        }else return false;
+    public static Tuple combineTuples(Tuple first, Tuple second, TupleLayout layout) {
+        return Tuple.concat(layout, first, second);
     }
 
     /**
-     * If the two terms to be compared are strings then this function is called, it checks whether the terms satisfy
-     * the given operator.
-     * @param operator operator with which to compare the two terms
-     * @param first first string term to be compared
-     * @param second second string term to be compared
-     * @return boolean returns true if the comparison is satisfied and false otherwise
+     * Creates the layout of combined tuples, the schema is built as in combineSchemas
+     * @param first layout of the first tuples
+     * @param second layout of the second tuples
+     * @return layout of the combined tuples
      */
-    private boolean evaluateComparison(ComparisonOperator operator, String first, String second) {
-        if(operator.toString().matches("=")) {
-            return first.equals(second);
-        }else if(operator.toString().matches(">=")) {
-            return first.compareTo(second)>=0;
-        }else if(operator.toString().matches("<=")) {
-            return first.compareTo(second)<=0;
-        }else if(operator.toString().matches(">")) {
-            return first.compareTo(second)>0;
-        }else if(operator.toString().matches("<")) {
-            return first.compareTo(second)<0;
-        }else if(operator.toString().matches("!=")) {
-            return !first.equals(second);
-        } else return false;
+    public static TupleLayout combineLayouts(TupleLayout first, TupleLayout second) {
+        return TupleLayout.concat(first, second, combineSchemas(first.getSchema(), second.getSchema()));
     }
 
     /**
-     * Given two tuples,create the schema for a new combined tuple, and full the new tuple with attributes from both
-     * tuples
-     * @param first first tuple to be combined
-     * @param second second tuple to be combined
-     * @return returns the combined tuple with new attributes and new schema
+     * Creates the schema of combined tuples, the first schema followed by the second one renamed to the first
+     * schema's table
+     * @param first schema of the first tuples
+     * @param second schema of the second tuples
+     * @return combined schema
      */
-    public Tuple combineTuples(Tuple first, Tuple second){
-        List<String> schema;
-        Term[] tuple;
-        List<String> initialSchema = second.getSchema();
+    public static List<String> combineSchemas(List<String> first, List<String> second) {
         List<String> finalSchema = new ArrayList<>();
-        String table = first.getSchema().get(0).split("\\.")[0];
+        String table = first.get(0).split("\\.")[0];
         //modify the schema of the second tuple to add to the new schema
-        for(String col : initialSchema) {
+        for(String col : second) {
             String [] splitCol = col.split("\\.");
             String ans = table + "." + splitCol[1];
             finalSchema.add(ans);
         }
         // create new schema adding the first tuples schema followed by the second tuples
-        schema = new ArrayList<>();
-        schema.addAll(first.getSchema());
+        List<String> schema = new ArrayList<>();
+        schema.addAll(first);
         schema.addAll(finalSchema);
-        int firstLength = first.getLength();
-        int secondLength = second.getLength();
-        tuple = new Term[firstLength + secondLength];
-        //Add the terms from both tuples to the new tuple
-        for (int i = 0; i < tuple.length; i++) {
-            if (i < firstLength)
-                tuple[i] = first.getPosition(i);
-            else tuple[i] = second.getPosition(i - firstLength);
-        }
-        return new Tuple(tuple, schema);
+        return schema;
     }
 
     @Override
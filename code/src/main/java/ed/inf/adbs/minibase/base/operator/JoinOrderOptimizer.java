@@ -0,0 +1,352 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.*;
+
+import ed.inf.adbs.minibase.base.*;
+
+
+/**
+ *
+ * Cost-based join ordering. Estimates the size of every table after its selections and of every join result from the
+ * row counts and distinct values known to the DatabaseCatalogue, then picks the cheapest left-deep join order.
+ * Dynamic programming over the subsets of tables is used for small queries and a greedy search for larger ones. Joins
+ * that would be cross products are only considered when no other join is possible. For each join the smaller input is
+ * chosen as the build side of a hash join
+ *
+ */
+class JoinOrderOptimizer {
+    // largest number of tables ordered with dynamic programming, larger queries use the greedy search
+    private static final int DP_TABLE_LIMIT = 10;
+    // selectivity of a range condition when nothing better is known
+    static final double RANGE_SELECTIVITY = 1.0 / 3;
+
+    // tables of the query in textual order
+    private final List<String> tables;
+    // row count of each table and its estimated size after selections
+    private final double[] rowCounts;
+    private final double[] cardinalities;
+    // for each table, the estimated distinct values of each of its variables after selections
+    private final List<Map<String, Double>> distinctValues = new ArrayList<>();
+    // for each variable, the bitmask of the tables it appears in
+    private final Map<String, Integer> variableTables = new HashMap<>();
+    // join conditions between variables of different tables
+    private final List<ComparisonAtom> joinAtoms = new ArrayList<>();
+    // estimated result size of each set of tables
+    private final Map<Integer, Double> cardinalityCache = new HashMap<>();
+    // chosen join order and, for each join, whether the left input should be the build side
+    private final List<String> order = new ArrayList<>();
+    private boolean[] buildLeft;
+
+    /**
+     * JoinOrderOptimizer constructor, estimates the table sizes then chooses the join order
+     * @param tableNames table aliases in textual order
+     * @param selectConditions only select conditions per table
+     * @param joinConditions only join conditions per table
+     */
+    JoinOrderOptimizer(List<String> tableNames, Map<String, List<ComparisonAtom>> selectConditions, Map<String, List<ComparisonAtom>> joinConditions) {
+        tables = tableNames;
+        int n = tables.size();
+        rowCounts = new double[n];
+        cardinalities = new double[n];
+        for (int i = 0; i < n; i++) {
+            String table = tables.get(i);
+            estimateTable(i, selectConditions.getOrDefault(table, new ArrayList<>()));
+            for (String var : distinctValues.get(i).keySet())
+                variableTables.merge(var, 1 << i, (a, b) -> a | b);
+            for (ComparisonAtom atom : joinConditions.getOrDefault(table, new ArrayList<>())) {
+                if (!joinAtoms.contains(atom))
+                    joinAtoms.add(atom);
+            }
+        }
+        if (n <= DP_TABLE_LIMIT)
+            orderWithDynamicProgramming();
+        else
+            orderGreedily();
+        buildLeft = new boolean[n];
+        int joined = 1 << tables.indexOf(order.get(0));
+        for (int i = 1; i < n; i++) {
+            int t = tables.indexOf(order.get(i));
+            buildLeft[i] = estimateCardinality(joined) < cardinalities[t];
+            joined |= 1 << t;
+        }
+    }
+
+    /**
+     * Returns the chosen join order
+     * @return table aliases in the order they should be joined
+     */
+    List<String> getJoinOrder() {
+        return order;
+    }
+
+    /**
+     * Returns whether the hash table of a join should be built on its left input
+     * @param step index in the join order of the table joined, at least 1
+     * @return true if the result of the previous joins is expected to be smaller than the table
+     */
+    boolean isBuildLeft(int step) {
+        return buildLeft[step];
+    }
+
+    /**
+     * Estimates the size of a table after its selections and the distinct values of each of its variables
+     * @param t table index
+     * @param conditions select conditions of the table
+     */
+    private void estimateTable(int t, List<ComparisonAtom> conditions) {
+        String alias = tables.get(t);
+        String relation = DatabaseCatalogue.getAlias(alias);
+        List<String> names = new ArrayList<>();
+        for (String column : DatabaseCatalogue.getSchemaList(alias))
+            names.add(column.split("\\.")[1]);
+        rowCounts[t] = Math.max(1, DatabaseCatalogue.getRowCount(relation));
+        Map<String, Double> ndv = new HashMap<>();
+        for (int c = 0; c < names.size(); c++)
+            ndv.put(names.get(c), (double) DatabaseCatalogue.getDistinctValues(relation, c));
+        double selectivity = 1;
+        for (ComparisonAtom atom : conditions) {
+            Term first = atom.getTerm1();
+            Term second = atom.getTerm2();
+            ComparisonOperator op = atom.getOp();
+            if (first instanceof Variable && second instanceof Constant) {
+                String var = ((Variable) first).getName();
+                selectivity *= estimateSelectivity(relation, names.indexOf(var), op, (Constant) second, ndv.get(var));
+                if (op == ComparisonOperator.EQ)
+                    ndv.put(var, 1.0);
+            } else if (first instanceof Constant && second instanceof Variable) {
+                String var = ((Variable) second).getName();
+                selectivity *= estimateSelectivity(relation, names.indexOf(var), op.reverse(), (Constant) first, ndv.get(var));
+                if (op == ComparisonOperator.EQ)
+                    ndv.put(var, 1.0);
+            } else if (first instanceof Variable && second instanceof Variable) {
+                double d = Math.max(ndv.get(((Variable) first).getName()), ndv.get(((Variable) second).getName()));
+                selectivity *= comparisonSelectivity(op, d);
+            }
+        }
+        cardinalities[t] = Math.max(1, rowCounts[t] * selectivity);
+        // a table cannot have more distinct values than rows
+        for (Map.Entry<String, Double> e : ndv.entrySet())
+            e.setValue(Math.max(1, Math.min(e.getValue(), cardinalities[t])));
+        distinctValues.add(ndv);
+    }
+
+    /**
+     * Estimates the fraction of the rows of a relation satisfying (column op value), from the histogram of the column
+     * if the relation has been analyzed
+     * @param relation relation name
+     * @param column column index
+     * @param op comparison operator
+     * @param value constant compared with
+     * @param distinct estimated distinct values of the column
+     * @return estimated selectivity
+     */
+    private double estimateSelectivity(String relation, int column, ComparisonOperator op, Constant value, double distinct) {
+        TableStatistics statistics = DatabaseCatalogue.getStatistics(relation);
+        if (statistics != null && statistics.getColumn(column) != null)
+            return statistics.getColumn(column).estimateSelectivity(op, value);
+        return comparisonSelectivity(op, distinct);
+    }
+
+    /**
+     * Default selectivity of a comparison on values with the given number of distinct values, equality is 1/ndv,
+     * inequality is its complement and ranges use a fixed fraction
+     * @param op comparison operator
+     * @param distinct number of distinct values
+     * @return estimated selectivity
+     */
+    private static double comparisonSelectivity(ComparisonOperator op, double distinct) {
+        switch (op) {
+            case EQ: return 1 / Math.max(1, distinct);
+            case NEQ: return 1 - 1 / Math.max(1, distinct);
+            default: return RANGE_SELECTIVITY;
+        }
+    }
+
+    /**
+     * Estimates the size of the join of a set of tables, the product of their sizes times the selectivity of every
+     * common variable and join condition among them
+     * @param mask bitmask of the tables
+     * @return estimated number of tuples
+     */
+    double estimateCardinality(int mask) {
+        Double cached = cardinalityCache.get(mask);
+        if (cached != null)
+            return cached;
+        double size = 1;
+        for (int t = 0; t < tables.size(); t++) {
+            if ((mask & (1 << t)) != 0)
+                size *= cardinalities[t];
+        }
+        // each extra occurrence of a common variable is an equality with the previous ones
+        for (Map.Entry<String, Integer> e : variableTables.entrySet()) {
+            int inMask = e.getValue() & mask;
+            if (Integer.bitCount(inMask) > 1)
+                size *= Math.pow(1 / maxDistinct(e.getKey(), inMask), Integer.bitCount(inMask) - 1);
+        }
+        for (ComparisonAtom atom : joinAtoms) {
+            String var1 = ((Variable) atom.getTerm1()).getName();
+            String var2 = ((Variable) atom.getTerm2()).getName();
+            int tables1 = variableTables.getOrDefault(var1, 0) & mask;
+            int tables2 = variableTables.getOrDefault(var2, 0) & mask;
+            if (tables1 != 0 && tables2 != 0)
+                size *= comparisonSelectivity(atom.getOp(), Math.max(maxDistinct(var1, tables1), maxDistinct(var2, tables2)));
+        }
+        size = Math.max(1, size);
+        cardinalityCache.put(mask, size);
+        return size;
+    }
+
+    /**
+     * Returns the largest number of distinct values of a variable among a set of tables
+     * @param var variable name
+     * @param mask bitmask of tables containing the variable
+     * @return largest distinct values
+     */
+    private double maxDistinct(String var, int mask) {
+        double d = 1;
+        for (int t = 0; t < tables.size(); t++) {
+            if ((mask & (1 << t)) != 0)
+                d = Math.max(d, distinctValues.get(t).get(var));
+        }
+        return d;
+    }
+
+    /**
+     * Returns true if there is a common variable or a join condition between a table and a set of tables
+     * @param mask bitmask of the joined tables
+     * @param t table index
+     * @return true if joining the table is not a cross product
+     */
+    private boolean isConnected(int mask, int t) {
+        return hasCommonVariable(mask, t) || getJoinAtoms(mask, t).size() > 0;
+    }
+
+    /**
+     * Returns true if a table shares a variable with a set of tables
+     * @param mask bitmask of the joined tables
+     * @param t table index
+     * @return true if there is a common variable
+     */
+    private boolean hasCommonVariable(int mask, int t) {
+        for (int tables : variableTables.values()) {
+            if ((tables & (1 << t)) != 0 && (tables & mask) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the join conditions between a table and a set of tables
+     * @param mask bitmask of the joined tables
+     * @param t table index
+     * @return join conditions connecting them
+     */
+    private List<ComparisonAtom> getJoinAtoms(int mask, int t) {
+        List<ComparisonAtom> atoms = new ArrayList<>();
+        for (ComparisonAtom atom : joinAtoms) {
+            int tables1 = variableTables.getOrDefault(((Variable) atom.getTerm1()).getName(), 0);
+            int tables2 = variableTables.getOrDefault(((Variable) atom.getTerm2()).getName(), 0);
+            if (((tables1 & (1 << t)) != 0 && (tables2 & mask) != 0) || ((tables2 & (1 << t)) != 0 && (tables1 & mask) != 0))
+                atoms.add(atom);
+        }
+        return atoms;
+    }
+
+    /**
+     * Estimates the cost of joining a table to the result of a set of tables, using the join algorithm the planner
+     * would pick: a hash join reads both inputs once, a sort-merge join sorts both inputs and a block nested loop join
+     * scans the table once per block of the left input. The size of the result is added to every join
+     * @param mask bitmask of the joined tables
+     * @param t table index
+     * @return estimated cost
+     */
+    private double joinCost(int mask, int t) {
+        double left = estimateCardinality(mask);
+        double right = cardinalities[t];
+        double output = estimateCardinality(mask | (1 << t));
+        List<ComparisonAtom> atoms = getJoinAtoms(mask, t);
+        List<String> vars = hasCommonVariable(mask, t) ? Collections.singletonList("") : new ArrayList<>();
+        double cost = rowCounts[t] + output;
+        if (HashJoinOperator.hasEquiJoinPredicate(atoms, vars))
+            return cost + left + right;
+        if (SortMergeJoinOperator.isApplicable(atoms, vars))
+            return cost + left * log2(left) + right * log2(right);
+        return cost + left + Math.ceil(left / Math.max(1, ExecutionSettings.getBlockSize())) * rowCounts[t];
+    }
+
+    private static double log2(double x) {
+        return Math.log(Math.max(2, x)) / Math.log(2);
+    }
+
+    /**
+     * Finds the cheapest left-deep join order with dynamic programming over the subsets of tables. The best plan for
+     * a set is the best plan for the set without one of its tables followed by a join with that table
+     */
+    private void orderWithDynamicProgramming() {
+        int n = tables.size();
+        int full = (1 << n) - 1;
+        double[] cost = new double[full + 1];
+        int[] last = new int[full + 1];
+        Arrays.fill(cost, Double.MAX_VALUE);
+        for (int t = 0; t < n; t++) {
+            cost[1 << t] = rowCounts[t];
+            last[1 << t] = t;
+        }
+        for (int mask = 1; mask <= full; mask++) {
+            if (Integer.bitCount(mask) < 2)
+                continue;
+            // only allow cross products if the tables cannot be joined otherwise
+            for (int pass = 0; pass < 2 && cost[mask] == Double.MAX_VALUE; pass++) {
+                for (int t = 0; t < n; t++) {
+                    int rest = mask & ~(1 << t);
+                    if ((mask & (1 << t)) == 0 || cost[rest] == Double.MAX_VALUE)
+                        continue;
+                    if (pass == 0 && !isConnected(rest, t))
+                        continue;
+                    double c = cost[rest] + joinCost(rest, t);
+                    if (c < cost[mask]) {
+                        cost[mask] = c;
+                        last[mask] = t;
+                    }
+                }
+            }
+        }
+        LinkedList<String> result = new LinkedList<>();
+        for (int mask = full; mask != 0; mask &= ~(1 << last[mask]))
+            result.addFirst(tables.get(last[mask]));
+        order.addAll(result);
+    }
+
+    /**
+     * Builds a join order greedily, starting from the smallest table and adding at each step the table that is
+     * cheapest to join, preferring tables that are not cross products
+     */
+    private void orderGreedily() {
+        int n = tables.size();
+        int first = 0;
+        for (int t = 1; t < n; t++) {
+            if (cardinalities[t] < cardinalities[first])
+                first = t;
+        }
+        int mask = 1 << first;
+        order.add(tables.get(first));
+        while (order.size() < n) {
+            int best = -1;
+            double bestCost = Double.MAX_VALUE;
+            boolean bestConnected = false;
+            for (int t = 0; t < n; t++) {
+                if ((mask & (1 << t)) != 0)
+                    continue;
+                boolean connected = isConnected(mask, t);
+                double c = joinCost(mask, t);
+                if (best < 0 || (connected && !bestConnected) || (connected == bestConnected && c < bestCost)) {
+                    best = t;
+                    bestCost = c;
+                    bestConnected = connected;
+                }
+            }
+            mask |= 1 << best;
+            order.add(tables.get(best));
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ed.inf.adbs.minibase.base.DatabaseCatalogue;
+import ed.inf.adbs.minibase.base.ExecutionSettings;
+import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
+
+/**
+ *
+ * Operator that scans a table by memory mapping its CSV file. Fields are found and parsed directly in the mapped
+ * bytes, and values are only created for the columns the query references, the other positions of the tuples are left
+ * null. Reset rewinds to the start of the mapping.
+ * With several scan threads the file is split into chunks ending at line ends, each parsed and filtered into batches
+ * by a fork-join worker. The batches are passed through a bounded queue, so the workers stay at most a few batches
+ * ahead of the operators reading the scan, and arrive in no particular order
+ *
+ */
+public class MappedScanOperator extends Operator {
+    // number of chunks per scan thread, so that threads finishing early take the remaining chunks
+    private static final int CHUNKS_PER_THREAD = 4;
+    // number of batches per scan thread the queue holds before the workers wait
+    private static final int QUEUE_BATCHES_PER_THREAD = 4;
+    // put in the queue by a worker once it has scanned its chunk
+    private static final TupleBatch END_OF_CHUNK = TupleBatch.marker();
+
+    //table name to be scanned
+    private final String fileName;
+    //schema of the tuples
+    private final List<String> tableSchema;
+    //true for the columns holding strings
+    private final boolean[] stringColumns;
+    //layout of the tuples
+    private final TupleLayout layout;
+    //true for the columns whose values are needed
+    private final boolean[] referencedColumns;
+    //reads the fields of the mapped file, or of the scan's partition, null if it could not be mapped or the
+    //... partition is empty
+    private CsvCursor cursor;
+    //selection conditions checked on the fields of each line, null if there are none
+    private final ScanFilter filter;
+    //true for the columns read from each line, the referenced ones and those the conditions read
+    private final boolean[] parsedColumns;
+    //last column read from each line
+    private final int lastColumn;
+    //reads the lines of the file or partition for a serial scan
+    private LineReader reader;
+    //batches of the workers of a parallel scan, null until it starts, and the number of chunks not finished
+    private BlockingQueue<TupleBatch> queue;
+    private int activeChunks;
+    //tells the workers of the current parallel scan to stop, once it is reset
+    private AtomicBoolean stopped;
+    //first error of a worker of the current parallel scan
+    private AtomicReference<RuntimeException> failure;
+    //returns the rows of the batches of a parallel scan as tuples
+    private final BatchTupleReader tupleReader = new BatchTupleReader(this);
+
+    /**
+     * MappedScanOperator constructor, maps the table's file
+     * @param name table name
+     * @param referenced true for the columns whose values are needed, null if all are needed
+     */
+    public MappedScanOperator(String name, boolean[] referenced) {
+        this(name, referenced, null);
+    }
+
+    /**
+     * MappedScanOperator constructor for a scan that also checks the selection conditions of the table, only the
+     * values of the referenced columns of the lines satisfying them are created
+     * @param name table name
+     * @param referenced true for the columns whose values are needed, null if all are needed
+     * @param conditions selection conditions of the table, null if there are none
+     */
+    MappedScanOperator(String name, boolean[] referenced, ScanFilter conditions) {
+        this(name, referenced, conditions, 0, 1);
+    }
+
+    /**
+     * MappedScanOperator constructor for a scan of one partition of the table, the file is split into chunks of about
+     * the same size that end at line ends and the scan only reads one of them
+     * @param name table name
+     * @param referenced true for the columns whose values are needed, null if all are needed
+     * @param conditions selection conditions of the table, null if there are none
+     * @param partition index of the chunk read by the scan
+     * @param partitions number of chunks the file is split into
+     */
+    MappedScanOperator(String name, boolean[] referenced, ScanFilter conditions, int partition, int partitions) {
+        fileName = name;
+        String relation = DatabaseCatalogue.getAlias(name);
+        tableSchema = DatabaseCatalogue.getSchemaList(name);
+        List<String> types = DatabaseCatalogue.getInitialTypes(relation);
+        stringColumns = new boolean[types.size()];
+        for (int i = 0; i < types.size(); i++)
+            stringColumns[i] = types.get(i).equals("string");
+        if (referenced == null) {
+            referenced = new boolean[types.size()];
+            Arrays.fill(referenced, true);
+        }
+        referencedColumns = referenced;
+        filter = conditions;
+        parsedColumns = referenced.clone();
+        int last = -1;
+        for (int i = 0; i < parsedColumns.length; i++) {
+            parsedColumns[i] |= filter != null && filter.getFilterColumns()[i];
+            if (parsedColumns[i])
+                last = i;
+        }
+        lastColumn = last;
+        layout = new TupleLayout(tableSchema, stringColumns);
+        try {
+            cursor = new CsvCursor(DatabaseCatalogue.getCsvPath(relation));
+            if (partitions > 1) {
+                // a file with fewer lines than partitions has no chunk for the last partitions
+                List<CsvCursor> chunks = cursor.split(partitions);
+                cursor = partition < chunks.size() ? chunks.get(partition) : null;
+            }
+            if (cursor != null)
+                reader = new LineReader(cursor);
+        } catch (IOException e) {
+            System.out.println("Error when creating mapped scan operator instance");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns true if the file of a table is small enough to be mapped at once
+     * @param name table name
+     * @return true if the table can be scanned with a MappedScanOperator
+     */
+    public static boolean canMap(String name) {
+        return new File(DatabaseCatalogue.getCsvPath(DatabaseCatalogue.getAlias(name))).length() <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns a tuple containing the next line of the table satisfying the conditions. Fields are separated by a comma
+     * followed by whitespace, quotes are dropped from strings and unreferenced fields are skipped without being parsed
+     * @return tuple with the line's referenced values, or null at the end of the file
+     */
+    @Override
+    public Tuple getNextTuple() {
+        if (reader == null)
+            return null;
+        if (ExecutionSettings.getScanThreads() > 1)
+            return tupleReader.next();
+        if (!reader.next())
+            return null;
+        return reader.getTuple();
+    }
+
+    /**
+     * Returns a batch with the next lines of the table satisfying the conditions, values are parsed straight into the
+     * column vectors
+     * @return batch with the lines' referenced values, or null at the end of the file
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (reader == null)
+            return null;
+        if (ExecutionSettings.getScanThreads() > 1)
+            return takeBatch();
+        return reader.nextBatch();
+    }
+
+    /**
+     * Returns the next batch of the workers of a parallel scan, starting them on the first call
+     * @return next batch, or null once every chunk has been scanned
+     */
+    private TupleBatch takeBatch() {
+        if (queue == null)
+            startWorkers(ExecutionSettings.getScanThreads());
+        try {
+            while (activeChunks > 0) {
+                TupleBatch batch = queue.take();
+                if (batch != END_OF_CHUNK)
+                    return batch;
+                activeChunks--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (failure.get() != null)
+            throw failure.get();
+        return null;
+    }
+
+    /**
+     * Splits the file into chunks and submits a task scanning each of them to a fork-join pool
+     * @param threads number of worker threads
+     */
+    private void startWorkers(int threads) {
+        List<CsvCursor> chunks = cursor.split(threads * CHUNKS_PER_THREAD);
+        BlockingQueue<TupleBatch> batches = new ArrayBlockingQueue<>(threads * QUEUE_BATCHES_PER_THREAD);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<RuntimeException> error = new AtomicReference<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        for (CsvCursor chunk : chunks)
+            pool.execute(() -> scanChunk(chunk, batches, stop, error));
+        // the pool's threads end once the submitted tasks are done
+        pool.shutdown();
+        queue = batches;
+        activeChunks = chunks.size();
+        stopped = stop;
+        failure = error;
+    }
+
+    /**
+     * Parses a chunk of the file into batches and puts them in the queue, run by the workers
+     * @param chunk cursor over the chunk
+     * @param batches queue the batches are put in
+     * @param stop set once the scan is reset, the worker then drops its remaining lines
+     * @param error receives the first error of a worker
+     */
+    private void scanChunk(CsvCursor chunk, BlockingQueue<TupleBatch> batches, AtomicBoolean stop,
+                           AtomicReference<RuntimeException> error) {
+        try {
+            LineReader chunkReader = new LineReader(chunk);
+            TupleBatch batch;
+            while (!stop.get() && (batch = chunkReader.nextBatch()) != null)
+                put(batches, batch, stop);
+        } catch (RuntimeException e) {
+            error.compareAndSet(null, e);
+        }
+        try {
+            put(batches, END_OF_CHUNK, stop);
+        } catch (RuntimeException e) {
+            error.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Puts a batch in the queue, waiting while it is full unless the scan has been reset, in which case nothing reads
+     * the queue anymore
+     * @param batches queue of the scan
+     * @param batch batch to put
+     * @param stop set once the scan is reset
+     */
+    private static void put(BlockingQueue<TupleBatch> batches, TupleBatch batch, AtomicBoolean stop) {
+        try {
+            while (!stop.get() && !batches.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the lines of a range of the file, for the whole scan or for one of its chunks
+     */
+    private class LineReader {
+        //reads the fields of the range
+        private final CsvCursor lines;
+        //values of the integer fields and bounds of the string fields of the current line
+        private final int[] intFields = new int[stringColumns.length];
+        private final int[] stringStarts = new int[stringColumns.length];
+        private final int[] stringEnds = new int[stringColumns.length];
+        //gives the conditions access to the fields of the current line
+        private final ScanFilter.Fields fields = new LineFields();
+
+        LineReader(CsvCursor range) {
+            lines = range;
+        }
+
+        /**
+         * Reads the fields of the next line satisfying the conditions, checking each condition as soon as its fields
+         * have been read so the rest of a rejected line is skipped
+         * @return false at the end of the range
+         */
+        boolean next() {
+            if (filter != null && !filter.isSatisfiable())
+                return false;
+            while (lines.nextLine()) {
+                boolean accepted = true;
+                for (int i = 0; i <= lastColumn && accepted; i++) {
+                    if (!parsedColumns[i]) {
+                        lines.skipField();
+                    } else if (stringColumns[i]) {
+                        stringStarts[i] = lines.getPosition();
+                        stringEnds[i] = lines.skipString();
+                    } else {
+                        intFields[i] = lines.readInt();
+                    }
+                    accepted = filter == null || filter.test(i, fields);
+                }
+                lines.endLine();
+                if (accepted)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Creates a tuple with the referenced values of the current line
+         * @return tuple of the current line
+         */
+        Tuple getTuple() {
+            int[] ints = new int[layout.getIntCount()];
+            String[] strings = new String[layout.getStringCount()];
+            readValues(ints, strings);
+            return new Tuple(layout, ints, strings);
+        }
+
+        /**
+         * Stores the referenced values of the current line in value arrays
+         * @param ints values of the integer columns
+         * @param strings values of the string columns
+         */
+        private void readValues(int[] ints, String[] strings) {
+            for (int i = 0; i < stringColumns.length; i++) {
+                if (!referencedColumns[i])
+                    continue;
+                if (stringColumns[i])
+                    strings[layout.getSlot(i)] = lines.getString(stringStarts[i], stringEnds[i]);
+                else
+                    ints[layout.getSlot(i)] = intFields[i];
+            }
+        }
+
+        /**
+         * Reads the next lines satisfying the conditions into a batch
+         * @return batch with the lines' referenced values, or null at the end of the range
+         */
+        TupleBatch nextBatch() {
+            if (!next())
+                return null;
+            int[] ints = new int[layout.getIntCount()];
+            String[] strings = new String[layout.getStringCount()];
+            TupleBatch batch = new TupleBatch(layout, ExecutionSettings.getBatchSize());
+            do {
+                readValues(ints, strings);
+                batch.addRow(ints, strings);
+            } while (!batch.isFull() && next());
+            return batch;
+        }
+
+        /**
+         * Fields of the current line, strings are only created for the conditions that order them
+         */
+        private class LineFields implements ScanFilter.Fields {
+            @Override
+            public int getInt(int column) {
+                return intFields[column];
+            }
+
+            @Override
+            public String getString(int column) {
+                return lines.getString(stringStarts[column], stringEnds[column]);
+            }
+
+            @Override
+            public boolean stringEquals(int column, String value, byte[] bytes) {
+                return lines.stringEquals(stringStarts[column], stringEnds[column], bytes);
+            }
+
+            @Override
+            public boolean stringsEqual(int column1, int column2) {
+                return lines.stringsEqual(stringStarts[column1], stringEnds[column1], stringStarts[column2], stringEnds[column2]);
+            }
+        }
+    }
+
+    /**
+     * Rewinds to the start of the file, the mapping is kept. The workers of a parallel scan are stopped and new ones
+     * are started by the next read
+     */
+    @Override
+    public void reset() {
+        if (cursor != null)
+            cursor.rewind();
+        if (stopped != null)
+            stopped.set(true);
+        queue = null;
+        tupleReader.reset();
+    }
+
+    /**
+     * Return table name
+     * @return table name
+     */
+    public String getName() {
+        return fileName;
+    }
+}
@@ -1,7 +1,10 @@
 package ed.inf.adbs.minibase.base.operator;
 
+import ed.inf.adbs.minibase.base.ExecutionSettings;
+import ed.inf.adbs.minibase.base.QueryContext;
 import ed.inf.adbs.minibase.base.Tuple;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,21 +17,49 @@ public abstract class Operator {
 
     public abstract void reset();
 
-public void dump() {
-        Tuple current = getNextTuple();
-        do {
-            current.dump();
-            current = getNextTuple();
-        } while (current!=null);
-}
+    /**
+     * Returns the next batch of up to ExecutionSettings.getBatchSize() rows. Operators that work on batches override
+     * this, for the others the batch is filled by calling getNextTuple and has the layout of the first tuple, the values
+     * of the tuples are copied into the column vectors as they are. A batch may have no selected rows, null is only
+     * returned once the operator has no rows left. An operator should be read either with getNextTuple or with
+     * getNextBatch between two resets
+     * @return next batch or null at the end of the input
+     */
+    public TupleBatch getNextBatch() {
+        Tuple tuple = getNextTuple();
+        if (tuple == null)
+            return null;
+        TupleBatch batch = new TupleBatch(tuple.getLayout(), ExecutionSettings.getBatchSize());
+        batch.addRow(tuple);
+        while (!batch.isFull() && (tuple = getNextTuple()) != null)
+            batch.addRow(tuple);
+        return batch;
+    }
+
+    /**
+     * Writes every row of the operator to a result sink, batch by batch
+     * @param sink destination of the rows
+     * @throws IOException if the output cannot be written
+     */
+    public void dump(ResultSink sink) throws IOException {
+        TupleBatch batch = getNextBatch();
+        while (batch != null) {
+            sink.write(batch);
+            batch = getNextBatch();
+        }
+    }
 
     /**
-     * For queries with projection use this dump
-     * @param result list of the resulting tuples
+     * Writes every row of the operator to the output of the current query, in the format of
+     * ExecutionSettings.getOutputFormat()
      */
-    public void dump(List<Tuple> result) {
-        for (Tuple t:result)
-            t.dump();
+    public void dump() {
+        try (ResultSink sink = ResultSink.open(QueryContext.current(), ExecutionSettings.getOutputFormat())) {
+            dump(sink);
+        } catch (IOException e) {
+            System.out.println("Error when writing the query result");
+            e.printStackTrace();
+        }
     }
 
 
@@ -39,10 +70,11 @@ public void dump() {
     public List<Tuple> getQueryResult() {
         List<Tuple> result =  new ArrayList<>();
         try {
-            Tuple t = getNextTuple();
-            while (t != null) {
-                result.add(t);
-                t = getNextTuple();
+            BatchTupleReader reader = new BatchTupleReader(this);
+            Tuple tuple = reader.next();
+            while (tuple != null) {
+                result.add(tuple);
+                tuple = reader.next();
             }
         } catch (NullPointerException ignored) {
         }
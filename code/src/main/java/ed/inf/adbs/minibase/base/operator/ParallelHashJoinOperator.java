@@ -0,0 +1,317 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ed.inf.adbs.minibase.base.*;
+
+/**
+ *
+ * Hash join operator for equi-joins that uses several threads. The build input, chosen by the planner, is read in
+ * full and radix partitioned on the hash of its join key: in a first phase every worker splits a share of the build
+ * batches into partitions of its own, and in a second phase each partition's hash table is built from the workers'
+ * rows by a task of its own. There are enough partitions for each table to hold about PARTITION_ROWS rows, so a probe
+ * only touches one small table.
+ * The probe input is then read by the calling thread and each of its batches is a morsel probed by a task of a
+ * work-stealing fork-join pool. Every task writes the joined rows into output batches of its own that are passed back
+ * through a queue, so the batches of the join come in no particular order. At most IN_FLIGHT_PER_THREAD morsels per
+ * thread are probed at once
+ *
+ */
+public class ParallelHashJoinOperator extends Operator {
+    // rows per partition of the build input the number of partitions aims for
+    private static final int PARTITION_ROWS = 4096;
+    // the build input is split into at most 2^MAX_PARTITION_BITS partitions
+    private static final int MAX_PARTITION_BITS = 12;
+    // number of probe morsels per thread handed to the pool before waiting for output
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+    // put in the output queue by a probe task once it has probed its morsel
+    private static final TupleBatch MORSEL_DONE = TupleBatch.marker();
+
+    // Left and right child operators
+    private final Operator leftOperator;
+    private final Operator rightOperator;
+    // List of join conditions
+    private final List<ComparisonAtom> comparisonAtoms;
+    // List of strings representing the common variables in the tuples
+    private final List<String> commonVariables;
+    // true if the hash tables hold the left input
+    private final boolean buildLeft;
+    // number of worker threads
+    private final int threads;
+    // join keys and residual conditions resolved against the tuple schemas
+    private JoinConditions joinConditions;
+    // layout of the joined rows
+    private TupleLayout outputLayout;
+    // hash tables of the partitions of the build input, and the number of hash bits choosing a partition
+    private Map<Object, List<Tuple>>[] partitions;
+    private int partitionBits;
+    // pool running the build and probe tasks, null until the join starts
+    private ForkJoinPool pool;
+    // output batches of the probe tasks, and the number of morsels handed to the pool that are not done
+    private BlockingQueue<TupleBatch> output;
+    private int inFlight;
+    // first probe batch, read while building to find the probe schema
+    private TupleBatch firstProbeBatch;
+    private boolean probeDone;
+    // set once the join is reset, the tasks still running then drop their rows
+    private AtomicBoolean stopped;
+    // first error of a task
+    private AtomicReference<RuntimeException> failure;
+    // true once the hash tables have been built
+    private boolean built;
+    // returns the rows of the output batches to getNextTuple
+    private final BatchTupleReader tupleReader = new BatchTupleReader(this);
+
+    /**
+     * ParallelHashJoinOperator constructor, the hash tables are built lazily on the first call to getNextTuple
+     * @param left operator for the left table
+     * @param right operator for the right table
+     * @param atoms join conditions list, must contain at least one equality unless variables is non empty
+     * @param variables Common variable names list
+     * @param buildOnLeft true to build the hash tables on the left input, false to build them on the right input
+     * @param threadCount number of worker threads
+     */
+    public ParallelHashJoinOperator(Operator left, Operator right, List<ComparisonAtom> atoms, List<String> variables,
+                                    boolean buildOnLeft, int threadCount) {
+        leftOperator = left;
+        rightOperator = right;
+        comparisonAtoms = atoms;
+        commonVariables = variables;
+        buildLeft = buildOnLeft;
+        threads = threadCount;
+    }
+
+    /**
+     * Returns the next tuple of the join, the left tuple's terms always come first
+     * @return next tuple resulting of the join condition
+     */
+    @Override
+    public Tuple getNextTuple() {
+        return tupleReader.next();
+    }
+
+    /**
+     * Returns the next batch of joined rows produced by the probe tasks, handing further probe morsels to the pool
+     * while fewer than the limit are being probed
+     * @return next batch or null once the probe input has been probed
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (!built) {
+            built = true;
+            build();
+        }
+        if (partitions == null)
+            return null;
+        try {
+            while (true) {
+                TupleBatch batch = output.poll();
+                if (batch == null && (probeDone || inFlight >= threads * IN_FLIGHT_PER_THREAD)) {
+                    if (inFlight == 0)
+                        break;
+                    batch = output.take();
+                }
+                if (batch == MORSEL_DONE)
+                    inFlight--;
+                else if (batch != null)
+                    return batch;
+                else
+                    submitMorsel();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finish();
+        if (failure.get() != null)
+            throw failure.get();
+        return null;
+    }
+
+    /**
+     * Reads the next batch of the probe input and hands it to the pool
+     */
+    private void submitMorsel() {
+        TupleBatch morsel = firstProbeBatch;
+        firstProbeBatch = null;
+        if (morsel == null)
+            morsel = buildLeft ? rightOperator.getNextBatch() : leftOperator.getNextBatch();
+        if (morsel == null) {
+            probeDone = true;
+            return;
+        }
+        TupleBatch probeBatch = morsel;
+        BlockingQueue<TupleBatch> queue = output;
+        AtomicBoolean stop = stopped;
+        inFlight++;
+        pool.execute(() -> {
+            try {
+                if (!stop.get())
+                    probe(probeBatch, queue);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+            queue.add(MORSEL_DONE);
+        });
+    }
+
+    /**
+     * Probes the hash tables with the rows of a morsel, run by the probe tasks
+     * @param morsel probe batch
+     * @param queue queue the output batches are put in
+     */
+    private void probe(TupleBatch morsel, BlockingQueue<TupleBatch> queue) {
+        TupleBatch batch = new TupleBatch(outputLayout, ExecutionSettings.getBatchSize());
+        for (int i = 0; i < morsel.getSelectedCount(); i++) {
+            int row = morsel.getSelectedRow(i);
+            Object key = joinConditions.getKey(morsel, row, !buildLeft);
+            List<Tuple> matches = partitions[getPartition(key)].get(key);
+            if (matches == null)
+                continue;
+            Tuple probeRow = morsel.getTuple(row);
+            for (Tuple buildRow : matches) {
+                Tuple leftRow = buildLeft ? buildRow : probeRow;
+                Tuple rightRow = buildLeft ? probeRow : buildRow;
+                if (!joinConditions.evaluateResidual(leftRow, rightRow))
+                    continue;
+                batch.addRow(leftRow, rightRow);
+                if (batch.isFull()) {
+                    queue.add(batch);
+                    batch = new TupleBatch(outputLayout, ExecutionSettings.getBatchSize());
+                }
+            }
+        }
+        if (batch.getSize() > 0)
+            queue.add(batch);
+    }
+
+    /**
+     * Returns the partition of a key, from the top bits of its hash
+     * @param key join key
+     * @return partition index
+     */
+    private int getPartition(Object key) {
+        return partitionBits == 0 ? 0 : PartialAggregateTable.hash(key) >>> (32 - partitionBits);
+    }
+
+    /**
+     * Reads the build input and the first probe batch, then builds the hash tables of the partitions in two parallel
+     * phases. The tables are left null if either input is empty
+     */
+    @SuppressWarnings("unchecked")
+    private void build() {
+        Operator buildOperator = buildLeft ? leftOperator : rightOperator;
+        List<TupleBatch> buildBatches = new ArrayList<>();
+        int buildRows = 0;
+        TupleBatch batch = buildOperator.getNextBatch();
+        while (batch != null) {
+            buildBatches.add(batch);
+            buildRows += batch.getSelectedCount();
+            batch = buildOperator.getNextBatch();
+        }
+        if (buildBatches.isEmpty())
+            return;
+        firstProbeBatch = buildLeft ? rightOperator.getNextBatch() : leftOperator.getNextBatch();
+        if (firstProbeBatch == null)
+            return;
+        TupleLayout buildLayout = buildBatches.get(0).getLayout();
+        TupleLayout probeLayout = firstProbeBatch.getLayout();
+        TupleLayout leftLayout = buildLeft ? buildLayout : probeLayout;
+        TupleLayout rightLayout = buildLeft ? probeLayout : buildLayout;
+        joinConditions = new JoinConditions(comparisonAtoms, commonVariables, leftLayout.getSchema(), rightLayout.getSchema());
+        outputLayout = JoinOperator.combineLayouts(leftLayout, rightLayout);
+        partitionBits = 0;
+        while (partitionBits < MAX_PARTITION_BITS && ((long) PARTITION_ROWS << partitionBits) < buildRows)
+            partitionBits++;
+        int partitionCount = 1 << partitionBits;
+        pool = new ForkJoinPool(threads);
+        output = new LinkedBlockingQueue<>();
+        stopped = new AtomicBoolean();
+        failure = new AtomicReference<>();
+        probeDone = false;
+        inFlight = 0;
+        try {
+            // first phase: every worker splits a share of the build batches into partitions of its own
+            int shares = Math.min(threads, buildBatches.size());
+            List<Future<List<Object>[]>> splits = new ArrayList<>();
+            for (int t = 0; t < shares; t++) {
+                List<TupleBatch> share = buildBatches.subList(buildBatches.size() * t / shares, buildBatches.size() * (t + 1) / shares);
+                splits.add(pool.submit(() -> partition(share, partitionCount)));
+            }
+            List<List<Object>[]> split = new ArrayList<>();
+            for (Future<List<Object>[]> future : splits)
+                split.add(future.get());
+            // second phase: the hash table of each partition is built by a task of its own
+            List<Future<Map<Object, List<Tuple>>>> tables = new ArrayList<>();
+            for (int p = 0; p < partitionCount; p++) {
+                final int partition = p;
+                tables.add(pool.submit(() -> {
+                    Map<Object, List<Tuple>> table = new HashMap<>();
+                    for (List<Object>[] rows : split) {
+                        List<Object> entries = rows[partition];
+                        for (int i = 0; i < entries.size(); i += 2)
+                            table.computeIfAbsent(entries.get(i), k -> new ArrayList<>()).add((Tuple) entries.get(i + 1));
+                    }
+                    return table;
+                }));
+            }
+            partitions = new Map[partitionCount];
+            for (int p = 0; p < partitionCount; p++)
+                partitions[p] = tables.get(p).get();
+        } catch (InterruptedException | ExecutionException e) {
+            finish();
+            throw new IllegalStateException("Parallel hash join build failed", e);
+        }
+    }
+
+    /**
+     * Splits the rows of some build batches into partitions, run by the first phase of the build
+     * @param batches build batches
+     * @param partitionCount number of partitions
+     * @return for each partition, its rows' keys and values one after the other
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object>[] partition(List<TupleBatch> batches, int partitionCount) {
+        List<Object>[] rows = new List[partitionCount];
+        for (int p = 0; p < partitionCount; p++)
+            rows[p] = new ArrayList<>();
+        for (TupleBatch batch : batches) {
+            for (int i = 0; i < batch.getSelectedCount(); i++) {
+                int row = batch.getSelectedRow(i);
+                Object key = joinConditions.getKey(batch, row, buildLeft);
+                List<Object> partition = rows[getPartition(key)];
+                partition.add(key);
+                partition.add(batch.getTuple(row));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Stops the pool, the tasks still running finish on their own
+     */
+    private void finish() {
+        if (stopped != null)
+            stopped.set(true);
+        if (pool != null)
+            pool.shutdown();
+        pool = null;
+    }
+
+    /**
+     * Resets both children and drops the hash tables so they are rebuilt on the next call to getNextTuple
+     */
+    @Override
+    public void reset() {
+        finish();
+        leftOperator.reset();
+        rightOperator.reset();
+        partitions = null;
+        output = null;
+        firstProbeBatch = null;
+        built = false;
+        tupleReader.reset();
+    }
+}
@@ -0,0 +1,119 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * Table of partial sums filled by one thread of a parallel aggregation. Groups keyed by a single integer are kept in
+ * open addressing arrays of primitive keys and long sums, so adding a row allocates nothing, other groups are kept in
+ * a hash map keyed like the serial aggregation
+ *
+ */
+class PartialAggregateTable {
+    // integer keys, their sums and whether each slot is in use, the length is a power of two
+    private int[] intKeys = new int[64];
+    private long[] intSums = new long[64];
+    private boolean[] used = new boolean[64];
+    private int intCount;
+    // groups whose key is not a single integer
+    private final Map<Object, long[]> groups = new HashMap<>();
+
+    /**
+     * Adds a value to the sum of a group
+     * @param key group key, as built by HashAggregateOperator
+     * @param value value to add
+     * @return true if the group is new to the table
+     */
+    boolean add(Object key, long value) {
+        if (key instanceof Integer)
+            return addInt((Integer) key, value);
+        long[] sum = groups.get(key);
+        if (sum != null) {
+            sum[0] = Math.addExact(sum[0], value);
+            return false;
+        }
+        groups.put(key, new long[]{value});
+        return true;
+    }
+
+    /**
+     * Adds a value to the sum of a group keyed by an integer
+     * @param key group key
+     * @param value value to add
+     * @return true if the group is new to the table
+     */
+    private boolean addInt(int key, long value) {
+        int mask = intKeys.length - 1;
+        int i = mix(key) & mask;
+        while (used[i]) {
+            if (intKeys[i] == key) {
+                intSums[i] = Math.addExact(intSums[i], value);
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        intKeys[i] = key;
+        intSums[i] = value;
+        if (++intCount * 2 > intKeys.length)
+            grow();
+        return true;
+    }
+
+    private void grow() {
+        int[] oldKeys = intKeys;
+        long[] oldSums = intSums;
+        boolean[] oldUsed = used;
+        intKeys = new int[oldKeys.length * 2];
+        intSums = new long[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        intCount = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i])
+                addInt(oldKeys[i], oldSums[i]);
+        }
+    }
+
+    /**
+     * Adds the sums of another table to this one
+     * @param other table to merge
+     */
+    void addAll(PartialAggregateTable other) {
+        for (int i = 0; i < other.intKeys.length; i++) {
+            if (other.used[i])
+                addInt(other.intKeys[i], other.intSums[i]);
+        }
+        for (Map.Entry<Object, long[]> group : other.groups.entrySet())
+            add(group.getKey(), group.getValue()[0]);
+    }
+
+    /**
+     * Returns the groups of the table keyed like the serial aggregation
+     * @return map of group key to sum
+     */
+    Map<Object, long[]> toMap() {
+        Map<Object, long[]> map = new HashMap<>(groups);
+        for (int i = 0; i < intKeys.length; i++) {
+            if (used[i])
+                map.put(intKeys[i], new long[]{intSums[i]});
+        }
+        return map;
+    }
+
+    /**
+     * Returns the hash used to partition a group key between the merge tasks
+     * @param key group key
+     * @return hash of the key
+     */
+    static int hash(Object key) {
+        if (key instanceof Integer)
+            return mix((Integer) key);
+        return mix(key.hashCode());
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,450 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import ed.inf.adbs.minibase.base.*;
+
+/**
+ *
+ * Compiles the plan of a query into a single Java loop. The generated code parses the CSV file of the first table of
+ * the join order field by field, checks each selection condition as soon as the fields it needs have been parsed,
+ * probes the hash table of each following table with nested loops over the matching rows, checks the remaining join
+ * conditions and writes the head values into the output arrays. Values are kept in local variables, so no tuple or
+ * term is created and no operator is called per row. The source is compiled in memory with the system Java compiler,
+ * constants are passed in as parameters so the source only depends on the shape of the plan, and compiled pipelines
+ * are cached by their source. Plans the compiler does not handle are run by the operator tree instead
+ *
+ */
+class PipelineCompiler {
+    private static final String PACKAGE = "ed.inf.adbs.minibase.generated";
+    private static final String CLASS_NAME = PACKAGE + ".GeneratedPipeline";
+    // compiled pipelines by their source code
+    private static final Map<String, CompiledPipeline> cache = new ConcurrentHashMap<>();
+
+    /**
+     * A table joined into the pipeline, with the input its hash table is built from
+     */
+    static class Join {
+        final String table;
+        final Operator input;
+        final List<ComparisonAtom> conditions;
+        final List<String> commonVariables;
+
+        /**
+         * Join constructor
+         * @param name table name
+         * @param build scan of the table with its selection conditions applied
+         * @param atoms join conditions between the table and the tables before it
+         * @param variables variables shared with the tables before it
+         */
+        Join(String name, Operator build, List<ComparisonAtom> atoms, List<String> variables) {
+            table = name;
+            input = build;
+            conditions = atoms;
+            commonVariables = variables;
+        }
+    }
+
+    // declarations made before the loop and the loop itself
+    private final StringBuilder prologue = new StringBuilder();
+    private final StringBuilder body = new StringBuilder();
+    private int depth = 2;
+    // values of the constants, passed to the generated code
+    private final List<Object> constants = new ArrayList<>();
+    // local variable holding each bound query variable, and whether it is a string
+    private final Map<String, String> locals = new HashMap<>();
+    private final Map<String, Boolean> stringVariables = new HashMap<>();
+    // for each join, the stored columns and the key columns of its hash table
+    private final List<boolean[]> storedColumns = new ArrayList<>();
+    private final List<int[]> keyColumns = new ArrayList<>();
+    // layout of the output rows
+    private TupleLayout outputLayout;
+
+    private PipelineCompiler() {
+    }
+
+    /**
+     * Compiles and runs the pipeline of a query plan, writing its result to the output of the query
+     * @param first first table of the join order
+     * @param conditions selection conditions of the first table
+     * @param joins the other tables in join order
+     * @param output variables of the output rows
+     * @param distinct true if duplicate rows are eliminated
+     * @param referenced names of the variables the plan needs the values of
+     * @return false if the plan cannot be compiled, nothing has been written then
+     * @throws RuntimeException if the pipeline fails to read a file or write the output, the query then fails instead
+     * of leaving a partial output
+     */
+    static boolean execute(String first, List<ComparisonAtom> conditions, List<Join> joins, List<String> output,
+                           boolean distinct, Set<String> referenced) {
+        if (ExecutionSettings.getJoinMemoryBudget() > 0 || !MappedScanOperator.canMap(first))
+            return false;
+        for (Join join : joins) {
+            if (!HashJoinOperator.hasEquiJoinPredicate(join.conditions, join.commonVariables))
+                return false;
+        }
+        PipelineCompiler compiler = new PipelineCompiler();
+        String source = compiler.generate(first, conditions, joins, output, referenced);
+        if (source == null)
+            return false;
+        CompiledPipeline pipeline = cache.get(source);
+        if (pipeline == null) {
+            pipeline = compile(source);
+            if (pipeline == null)
+                return false;
+            cache.putIfAbsent(source, pipeline);
+        }
+        CompiledHashTable[] tables = new CompiledHashTable[joins.size()];
+        for (int i = 0; i < joins.size(); i++) {
+            String table = joins.get(i).table;
+            tables[i] = new CompiledHashTable(joins.get(i).input, getStringColumns(table), compiler.storedColumns.get(i),
+                    compiler.keyColumns.get(i));
+        }
+        try (ResultSink sink = ResultSink.open(QueryContext.current(), ExecutionSettings.getOutputFormat())) {
+            PipelineOutput pipelineOutput = new PipelineOutput(sink, compiler.outputLayout, distinct,
+                    ExecutionSettings.getDistinctMemoryBudget());
+            CsvCursor scan = new CsvCursor(DatabaseCatalogue.getCsvPath(DatabaseCatalogue.getAlias(first)));
+            pipeline.run(scan, tables, compiler.constants.toArray(), pipelineOutput);
+            pipelineOutput.finish();
+        } catch (IOException e) {
+            throw new RuntimeException("Error when running compiled pipeline", e);
+        }
+        return true;
+    }
+
+    /**
+     * Generates the source of the pipeline
+     * @return source code, or null if the plan cannot be compiled
+     */
+    private String generate(String first, List<ComparisonAtom> conditions, List<Join> joins, List<String> output,
+                            Set<String> referenced) {
+        // parse the referenced fields of the first table up to the last one needed
+        List<String> names = getVariableNames(first);
+        boolean[] strings = getStringColumns(first);
+        int last = -1;
+        for (int j = 0; j < names.size(); j++) {
+            if (referenced.contains(names.get(j)))
+                last = j;
+        }
+        line("while (scan.nextLine()) {");
+        depth++;
+        List<ComparisonAtom> pending = new ArrayList<>(conditions);
+        checkConditions(pending, "{ scan.endLine(); continue; }");
+        for (int j = 0; j <= last; j++) {
+            if (!referenced.contains(names.get(j))) {
+                line("scan.skipField();");
+                continue;
+            }
+            String local = "c0_" + j;
+            line((strings[j] ? "String " : "int ") + local + " = scan." + (strings[j] ? "readString" : "readInt") + "();");
+            bind(names.get(j), local, strings[j]);
+            checkConditions(pending, "{ scan.endLine(); continue; }");
+        }
+        if (!pending.isEmpty())
+            return null;
+        line("scan.endLine();");
+
+        // probe the hash table of each following table
+        List<String> leftSchema = new ArrayList<>();
+        for (String name : names)
+            leftSchema.add("L." + name);
+        for (int t = 1; t <= joins.size(); t++) {
+            Join join = joins.get(t - 1);
+            List<String> rightSchema = DatabaseCatalogue.getSchemaList(join.table);
+            List<String> rightNames = getVariableNames(join.table);
+            boolean[] rightStrings = getStringColumns(join.table);
+            JoinConditions joinConditions = new JoinConditions(join.conditions, join.commonVariables, leftSchema, rightSchema);
+            int[] leftKeys = joinConditions.getLeftKeyPositions();
+            int[] rightKeys = joinConditions.getRightKeyPositions();
+            if (leftKeys.length == 0)
+                return null;
+            String[] keys = new String[leftKeys.length];
+            for (int k = 0; k < leftKeys.length; k++) {
+                String name = leftSchema.get(leftKeys[k]).split("\\.")[1];
+                if (!locals.containsKey(name) || stringVariables.get(name) != rightStrings[rightKeys[k]])
+                    return null;
+                keys[k] = locals.get(name);
+                if (leftKeys.length > 1 && !stringVariables.get(name))
+                    keys[k] = "Integer.valueOf(" + keys[k] + ")";
+            }
+            String key = keys.length == 1 ? keys[0] : "java.util.Arrays.asList(new Object[]{" + String.join(", ", keys) + "})";
+            prologue("final CompiledHashTable t" + t + " = tables[" + (t - 1) + "];");
+            prologue("final int[] n" + t + " = t" + t + ".getNext();");
+            line("for (int r" + t + " = t" + t + ".first(" + key + "); r" + t + " >= 0; r" + t + " = n" + t + "[r" + t + "]) {");
+            depth++;
+            boolean[] stored = new boolean[rightNames.size()];
+            for (int j = 0; j < rightNames.size(); j++) {
+                String name = rightNames.get(j);
+                if (!referenced.contains(name) || locals.containsKey(name))
+                    continue;
+                stored[j] = true;
+                String column = "t" + t + "_" + j;
+                prologue("final " + (rightStrings[j] ? "String" : "int") + "[] " + column + " = t" + t
+                        + (rightStrings[j] ? ".getStringColumn(" : ".getIntColumn(") + j + ");");
+                String local = "c" + t + "_" + j;
+                line((rightStrings[j] ? "String " : "int ") + local + " = " + column + "[r" + t + "];");
+                bind(name, local, rightStrings[j]);
+            }
+            storedColumns.add(stored);
+            keyColumns.add(rightKeys);
+            List<ComparisonAtom> residual = new ArrayList<>(joinConditions.getResidualAtoms());
+            checkConditions(residual, "continue;");
+            if (!residual.isEmpty())
+                return null;
+            for (String name : rightNames)
+                leftSchema.add("L." + name);
+        }
+
+        // write the output values
+        boolean[] outputStrings = new boolean[output.size()];
+        List<String> outputSchema = new ArrayList<>();
+        for (int i = 0; i < output.size(); i++) {
+            if (!locals.containsKey(output.get(i)))
+                return null;
+            outputStrings[i] = stringVariables.get(output.get(i));
+            outputSchema.add(first + "." + output.get(i));
+        }
+        outputLayout = new TupleLayout(outputSchema, outputStrings);
+        for (int i = 0; i < output.size(); i++)
+            line((outputStrings[i] ? "os[" : "oi[") + outputLayout.getSlot(i) + "] = " + locals.get(output.get(i)) + ";");
+        line("output.emit();");
+        while (depth > 2) {
+            depth--;
+            line("}");
+        }
+
+        return "package " + PACKAGE + ";\n\n"
+                + "import ed.inf.adbs.minibase.base.operator.*;\n\n"
+                + "public final class GeneratedPipeline implements CompiledPipeline {\n"
+                + "    public void run(CsvCursor scan, CompiledHashTable[] tables, Object[] constants, PipelineOutput output)\n"
+                + "            throws java.io.IOException {\n"
+                + "        final int[] oi = output.getInts();\n"
+                + "        final String[] os = output.getStrings();\n"
+                + prologue + body
+                + "    }\n"
+                + "}\n";
+    }
+
+    /**
+     * Generates the checks of the pending conditions whose variables are all bound, and removes them from the list
+     * @param pending conditions not checked yet
+     * @param onFailure statement run when a condition does not hold
+     */
+    private void checkConditions(List<ComparisonAtom> pending, String onFailure) {
+        Iterator<ComparisonAtom> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            ComparisonAtom atom = iterator.next();
+            if (isBound(atom.getTerm1()) && isBound(atom.getTerm2())) {
+                line("if (!(" + getCondition(atom) + ")) " + onFailure);
+                iterator.remove();
+            }
+        }
+    }
+
+    private boolean isBound(Term term) {
+        return !(term instanceof Variable) || locals.containsKey(((Variable) term).getName());
+    }
+
+    /**
+     * Returns the Java expression of a condition, conditions between values of different types never hold
+     * @param atom condition with bound variables
+     * @return boolean expression
+     */
+    private String getCondition(ComparisonAtom atom) {
+        Term first = atom.getTerm1();
+        Term second = atom.getTerm2();
+        if (first instanceof Constant && second instanceof Constant) {
+            Predicate predicate = Predicate.compile(Collections.singletonList(atom), new HashMap<>());
+            return String.valueOf(predicate.testConstants());
+        }
+        boolean string = isString(first);
+        if (string != isString(second))
+            return "false";
+        String a = getOperand(first);
+        String b = getOperand(second);
+        ComparisonOperator op = atom.getOp();
+        if (!string)
+            return a + " " + getJavaOperator(op) + " " + b;
+        if (op == ComparisonOperator.EQ)
+            return a + ".equals(" + b + ")";
+        if (op == ComparisonOperator.NEQ)
+            return "!" + a + ".equals(" + b + ")";
+        return a + ".compareTo(" + b + ") " + getJavaOperator(op) + " 0";
+    }
+
+    private boolean isString(Term term) {
+        if (term instanceof Variable)
+            return stringVariables.get(((Variable) term).getName());
+        return term instanceof StringConstant;
+    }
+
+    /**
+     * Returns the local variable holding a variable or a constant, constants are read from the parameters
+     * @param term variable or constant
+     * @return name of the local variable
+     */
+    private String getOperand(Term term) {
+        if (term instanceof Variable)
+            return locals.get(((Variable) term).getName());
+        String name = "k" + constants.size();
+        if (term instanceof IntegerConstant) {
+            prologue("final int " + name + " = (Integer) constants[" + constants.size() + "];");
+            constants.add(((IntegerConstant) term).getValue());
+        } else {
+            prologue("final String " + name + " = (String) constants[" + constants.size() + "];");
+            constants.add(((StringConstant) term).getValue());
+        }
+        return name;
+    }
+
+    private static String getJavaOperator(ComparisonOperator op) {
+        return op == ComparisonOperator.EQ ? "==" : op.toString();
+    }
+
+    private void bind(String name, String local, boolean string) {
+        if (locals.containsKey(name))
+            return;
+        locals.put(name, local);
+        stringVariables.put(name, string);
+    }
+
+    private void line(String statement) {
+        for (int i = 0; i < depth; i++)
+            body.append("    ");
+        body.append(statement).append('\n');
+    }
+
+    private void prologue(String statement) {
+        prologue.append("        ").append(statement).append('\n');
+    }
+
+    /**
+     * Returns the variable names of the columns of a table
+     * @param table table name
+     * @return variable names in column order
+     */
+    private static List<String> getVariableNames(String table) {
+        List<String> names = new ArrayList<>();
+        for (String column : DatabaseCatalogue.getSchemaList(table))
+            names.add(column.split("\\.")[1]);
+        return names;
+    }
+
+    /**
+     * Returns which columns of a table hold strings
+     * @param table table name
+     * @return true for the string columns
+     */
+    private static boolean[] getStringColumns(String table) {
+        List<String> types = DatabaseCatalogue.getInitialTypes(DatabaseCatalogue.getAlias(table));
+        boolean[] strings = new boolean[types.size()];
+        for (int i = 0; i < types.size(); i++)
+            strings[i] = types.get(i).equals("string");
+        return strings;
+    }
+
+    /**
+     * Compiles the source of a pipeline in memory and loads it in a class loader of its own
+     * @param source source code of the pipeline
+     * @return an instance of the pipeline, or null if it could not be compiled, the errors are then printed on the
+     * standard error
+     */
+    private static CompiledPipeline compile(String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            return null;
+        Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager standardManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            JavaFileManager manager = new ForwardingJavaFileManager<StandardJavaFileManager>(standardManager) {
+                @Override
+                public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                           FileObject sibling) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    classes.put(className, bytes);
+                    return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') + kind.extension), kind) {
+                        @Override
+                        public OutputStream openOutputStream() {
+                            return bytes;
+                        }
+                    };
+                }
+            };
+            JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + CLASS_NAME.replace('.', '/') + ".java"),
+                    JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            };
+            List<String> options = Arrays.asList("-classpath", getClassPath(), "-proc:none", "-g:none");
+            if (!compiler.getTask(null, manager, diagnostics, options, null, Collections.singletonList(file)).call()) {
+                System.err.println("Error when compiling query pipeline");
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+                    System.err.println(diagnostic);
+                return null;
+            }
+        } catch (IOException e) {
+            System.err.println("Error when compiling query pipeline");
+            e.printStackTrace();
+            return null;
+        }
+        ClassLoader loader = new ClassLoader(PipelineCompiler.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                ByteArrayOutputStream bytes = classes.get(name);
+                if (bytes == null)
+                    throw new ClassNotFoundException(name);
+                byte[] b = bytes.toByteArray();
+                return defineClass(name, b, 0, b.length);
+            }
+        };
+        try {
+            return (CompiledPipeline) loader.loadClass(CLASS_NAME).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Error when loading query pipeline");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the class path the generated code is compiled against, which must include the Minibase classes
+     * @return class path
+     */
+    private static String getClassPath() {
+        String classPath = System.getProperty("java.class.path");
+        try {
+            URI location = CompiledPipeline.class.getProtectionDomain().getCodeSource().getLocation().toURI();
+            classPath += File.pathSeparator + new File(location).getPath();
+        } catch (URISyntaxException | SecurityException | NullPointerException ignored) {
+        }
+        return classPath;
+    }
+}
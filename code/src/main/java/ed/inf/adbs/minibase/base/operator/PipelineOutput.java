@@ -0,0 +1,104 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
+
+/**
+ *
+ * Receives the rows of a compiled pipeline. The generated code fills the value arrays and calls emit, the row is then
+ * written to the result sink, after duplicate elimination if the query needs it. Duplicates are eliminated as in the
+ * DistinctOperator: rows are written as soon as they are first seen, and once the seen rows exceed the memory budget
+ * new rows are hash partitioned into spill files that are deduplicated when the pipeline finishes
+ *
+ */
+public final class PipelineOutput {
+    // number of partitions the remaining rows are split into once the memory budget is exceeded
+    private static final int FANOUT = 16;
+    // rough size in bytes of a hash set entry, on top of the tuple itself
+    private static final int ENTRY_SIZE = 48;
+
+    private final ResultSink sink;
+    private final TupleLayout layout;
+    // values of the current row
+    private final int[] ints;
+    private final String[] strings;
+    // true if duplicates are eliminated
+    private final boolean distinct;
+    private final long memoryBudget;
+    private Set<Tuple> seen = new HashSet<>();
+    private long seenSize;
+    // partitions of the rows not seen once the budget was exceeded, null while everything fits in memory
+    private SpillFile[] partitionFiles;
+
+    /**
+     * PipelineOutput constructor
+     * @param resultSink sink the rows are written to
+     * @param rowLayout layout of the rows
+     * @param eliminateDuplicates true if duplicate rows are written once
+     * @param budget memory budget in bytes for the seen rows, 0 to always keep them in memory
+     */
+    PipelineOutput(ResultSink resultSink, TupleLayout rowLayout, boolean eliminateDuplicates, long budget) {
+        sink = resultSink;
+        layout = rowLayout;
+        ints = new int[rowLayout.getIntCount()];
+        strings = new String[rowLayout.getStringCount()];
+        distinct = eliminateDuplicates;
+        memoryBudget = budget;
+    }
+
+    public int[] getInts() {
+        return ints;
+    }
+
+    public String[] getStrings() {
+        return strings;
+    }
+
+    /**
+     * Outputs the row held in the value arrays
+     * @throws IOException if the row cannot be written
+     */
+    public void emit() throws IOException {
+        if (!distinct) {
+            sink.write(layout, ints, strings);
+            return;
+        }
+        Tuple tuple = new Tuple(layout, ints.clone(), strings.clone());
+        if (partitionFiles == null) {
+            if (seen.add(tuple)) {
+                seenSize += tuple.getEstimatedSize() + ENTRY_SIZE;
+                if (memoryBudget > 0 && seenSize > memoryBudget)
+                    partitionFiles = new SpillFile[FANOUT];
+                sink.write(layout, ints, strings);
+            }
+        } else if (!seen.contains(tuple)) {
+            // the top bits of the hash, the DistinctOperator reading a partition splits it on the lower ones
+            int p = (tuple.hashCode() * 0x9E3779B9) >>> 28;
+            if (partitionFiles[p] == null)
+                partitionFiles[p] = new SpillFile();
+            partitionFiles[p].write(tuple);
+        }
+    }
+
+    /**
+     * Writes the unique rows of the spilled partitions, called once the pipeline has produced every row
+     * @throws IOException if the rows cannot be written
+     */
+    void finish() throws IOException {
+        if (partitionFiles == null)
+            return;
+        // the rows in memory cannot be in any partition
+        seen = null;
+        for (int p = 0; p < FANOUT; p++) {
+            if (partitionFiles[p] == null)
+                continue;
+            new DistinctOperator(new SpillScanOperator(partitionFiles[p]), memoryBudget).dump(sink);
+            partitionFiles[p].delete();
+            partitionFiles[p] = null;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import ed.inf.adbs.minibase.base.*;
+
+/**
+ *
+ * Conjunction of comparison conditions compiled once at plan time. Every variable is resolved to a column slot of the
+ * left or the right input, conditions on a constant are specialised for an integer or a string constant, and the
+ * conjuncts are checked in order until one fails. Conditions between values of different types never hold. A predicate
+ * over a single input only uses the left side
+ *
+ */
+class Predicate {
+    // compiled conditions, checked in order
+    private final Comparison[] comparisons;
+
+    private Predicate(List<Comparison> compiled) {
+        comparisons = compiled.toArray(new Comparison[0]);
+    }
+
+    /**
+     * Compiles conditions over a single input
+     * @param atoms conditions to compile
+     * @param positions position of each variable in the input
+     * @return compiled predicate
+     */
+    static Predicate compile(List<ComparisonAtom> atoms, Map<String, Integer> positions) {
+        return compile(atoms, new ArrayList<>(), positions, null);
+    }
+
+    /**
+     * Compiles conditions over a left and a right input, a variable is looked up in the left input first
+     * @param atoms conditions to compile
+     * @param commonVariables variables that must be equal in both inputs
+     * @param leftPositions position of each variable in the left input
+     * @param rightPositions position of each variable in the right input, null for a single input
+     * @return compiled predicate
+     */
+    static Predicate compile(List<ComparisonAtom> atoms, List<String> commonVariables, Map<String, Integer> leftPositions,
+                             Map<String, Integer> rightPositions) {
+        List<Comparison> compiled = new ArrayList<>();
+        for (String var : commonVariables)
+            compiled.add(new ColumnComparison(ComparisonOperator.EQ, true, leftPositions.get(var), false, rightPositions.get(var)));
+        for (ComparisonAtom atom : atoms) {
+            Term first = atom.getTerm1();
+            Term second = atom.getTerm2();
+            ComparisonOperator op = atom.getOp();
+            if (first instanceof Constant && second instanceof Constant) {
+                compiled.add(new FixedComparison(compareConstants(op, first, second)));
+                continue;
+            }
+            // keep the variable on the left of conditions on a constant
+            if (first instanceof Constant) {
+                Term swap = first;
+                first = second;
+                second = swap;
+                op = op.reverse();
+            }
+            String name = ((Variable) first).getName();
+            boolean left = leftPositions.containsKey(name);
+            int position = left ? leftPositions.get(name) : rightPositions.get(name);
+            if (second instanceof IntegerConstant) {
+                compiled.add(new IntConstantComparison(op, left, position, ((IntegerConstant) second).getValue()));
+            } else if (second instanceof StringConstant) {
+                compiled.add(new StringConstantComparison(op, left, position, ((StringConstant) second).getValue()));
+            } else {
+                String name2 = ((Variable) second).getName();
+                boolean left2 = leftPositions.containsKey(name2);
+                int position2 = left2 ? leftPositions.get(name2) : rightPositions.get(name2);
+                compiled.add(new ColumnComparison(op, left, position, left2, position2));
+            }
+        }
+        return new Predicate(compiled);
+    }
+
+    /**
+     * Returns true if the predicate has no conditions
+     * @return true if every tuple satisfies the predicate
+     */
+    boolean isEmpty() {
+        return comparisons.length == 0;
+    }
+
+    /**
+     * Checks the predicate on a tuple of a single input
+     * @param tuple tuple to check
+     * @return true if every condition holds
+     */
+    boolean test(Tuple tuple) {
+        return test(tuple, tuple);
+    }
+
+    /**
+     * Checks the predicate on a pair of tuples
+     * @param left tuple from the left input
+     * @param right tuple from the right input
+     * @return true if every condition holds
+     */
+    boolean test(Tuple left, Tuple right) {
+        for (Comparison comparison : comparisons) {
+            if (!comparison.test(left, right))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks a predicate whose conditions are all between constants, such conditions do not read any tuple
+     * @return true if every condition holds
+     */
+    boolean testConstants() {
+        return test(null, null);
+    }
+
+    /**
+     * Narrows a list of selected rows of a batch of a single input to the rows satisfying the predicate, one condition
+     * at a time so each condition runs over a column vector. A condition on a column of the other type than its
+     * constant or than the column it is compared with keeps no rows
+     * @param batch batch holding the rows
+     * @param selected selected row indices, overwritten with the rows kept
+     * @param count number of selected rows
+     * @return number of rows kept
+     */
+    int filter(TupleBatch batch, int[] selected, int count) {
+        for (int i = 0; i < comparisons.length && count > 0; i++)
+            count = comparisons[i].filter(batch, selected, count);
+        return count;
+    }
+
+    /**
+     * Compares two constants of the query
+     * @param op comparison operator
+     * @param first first constant
+     * @param second second constant
+     * @return true if (first op second) holds
+     */
+    private static boolean compareConstants(ComparisonOperator op, Term first, Term second) {
+        if (first instanceof IntegerConstant && second instanceof IntegerConstant)
+            return op.holds(Integer.compare(((IntegerConstant) first).getValue(), ((IntegerConstant) second).getValue()));
+        if (first instanceof StringConstant && second instanceof StringConstant)
+            return compareStrings(op, ((StringConstant) first).getValue(), ((StringConstant) second).getValue());
+        return false;
+    }
+
+    /**
+     * Compares two strings, equality conditions do not need their order
+     * @param op comparison operator
+     * @param first first string
+     * @param second second string
+     * @return true if (first op second) holds
+     */
+    private static boolean compareStrings(ComparisonOperator op, String first, String second) {
+        if (op == ComparisonOperator.EQ)
+            return first.equals(second);
+        if (op == ComparisonOperator.NEQ)
+            return !first.equals(second);
+        return op.holds(first.compareTo(second));
+    }
+
+    /**
+     * A single compiled condition
+     */
+    private abstract static class Comparison {
+        abstract boolean test(Tuple left, Tuple right);
+
+        abstract int filter(TupleBatch batch, int[] selected, int count);
+    }
+
+    /**
+     * Condition between a column and an integer constant
+     */
+    private static final class IntConstantComparison extends Comparison {
+        private final ComparisonOperator op;
+        private final boolean left;
+        private final int position;
+        private final int value;
+
+        IntConstantComparison(ComparisonOperator op, boolean left, int position, int value) {
+            this.op = op;
+            this.left = left;
+            this.position = position;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(Tuple leftTuple, Tuple rightTuple) {
+            Tuple tuple = left ? leftTuple : rightTuple;
+            return !tuple.isString(position) && op.holds(Integer.compare(tuple.getInt(position), value));
+        }
+
+        @Override
+        int filter(TupleBatch batch, int[] selected, int count) {
+            if (batch.isString(position))
+                return 0;
+            int[] column = batch.getIntColumn(position);
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (op.holds(Integer.compare(column[selected[i]], value)))
+                    selected[kept++] = selected[i];
+            }
+            return kept;
+        }
+    }
+
+    /**
+     * Condition between a column and a string constant
+     */
+    private static final class StringConstantComparison extends Comparison {
+        private final ComparisonOperator op;
+        private final boolean left;
+        private final int position;
+        private final String value;
+
+        StringConstantComparison(ComparisonOperator op, boolean left, int position, String value) {
+            this.op = op;
+            this.left = left;
+            this.position = position;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(Tuple leftTuple, Tuple rightTuple) {
+            Tuple tuple = left ? leftTuple : rightTuple;
+            return tuple.isString(position) && compareStrings(op, tuple.getString(position), value);
+        }
+
+        @Override
+        int filter(TupleBatch batch, int[] selected, int count) {
+            if (!batch.isString(position))
+                return 0;
+            String[] column = batch.getStringColumn(position);
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (compareStrings(op, column[selected[i]], value))
+                    selected[kept++] = selected[i];
+            }
+            return kept;
+        }
+    }
+
+    /**
+     * Condition between two columns, of the same input or of both
+     */
+    private static final class ColumnComparison extends Comparison {
+        private final ComparisonOperator op;
+        private final boolean left1;
+        private final int position1;
+        private final boolean left2;
+        private final int position2;
+
+        ColumnComparison(ComparisonOperator op, boolean left1, int position1, boolean left2, int position2) {
+            this.op = op;
+            this.left1 = left1;
+            this.position1 = position1;
+            this.left2 = left2;
+            this.position2 = position2;
+        }
+
+        @Override
+        boolean test(Tuple leftTuple, Tuple rightTuple) {
+            Tuple first = left1 ? leftTuple : rightTuple;
+            Tuple second = left2 ? leftTuple : rightTuple;
+            boolean string = first.isString(position1);
+            if (string != second.isString(position2))
+                return false;
+            if (string)
+                return compareStrings(op, first.getString(position1), second.getString(position2));
+            return op.holds(Integer.compare(first.getInt(position1), second.getInt(position2)));
+        }
+
+        @Override
+        int filter(TupleBatch batch, int[] selected, int count) {
+            boolean string = batch.isString(position1);
+            if (string != batch.isString(position2))
+                return 0;
+            int kept = 0;
+            if (string) {
+                String[] column1 = batch.getStringColumn(position1);
+                String[] column2 = batch.getStringColumn(position2);
+                for (int i = 0; i < count; i++) {
+                    if (compareStrings(op, column1[selected[i]], column2[selected[i]]))
+                        selected[kept++] = selected[i];
+                }
+            } else {
+                int[] column1 = batch.getIntColumn(position1);
+                int[] column2 = batch.getIntColumn(position2);
+                for (int i = 0; i < count; i++) {
+                    if (op.holds(Integer.compare(column1[selected[i]], column2[selected[i]])))
+                        selected[kept++] = selected[i];
+                }
+            }
+            return kept;
+        }
+    }
+
+    /**
+     * Condition between two constants, evaluated when it is compiled
+     */
+    private static final class FixedComparison extends Comparison {
+        private final boolean result;
+
+        FixedComparison(boolean result) {
+            this.result = result;
+        }
+
+        @Override
+        boolean test(Tuple left, Tuple right) {
+            return result;
+        }
+
+        @Override
+        int filter(TupleBatch batch, int[] selected, int count) {
+            return result ? count : 0;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.util.List;
 
 import ed.inf.adbs.minibase.base.Term;
 import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
 import ed.inf.adbs.minibase.base.Variable;
 
 
@@ -19,6 +20,11 @@ public class ProjectOperator extends Operator {
     private final Operator operator;
     //table on which projection is done
     private final String tableName;
+    //positions of the projected columns in the child's tuples and batches
+    private int[] projectedPositions;
+    //layout of the projected tuples and batches and the layout of the child's tuples it was created from
+    private TupleLayout projectedLayout;
+    private TupleLayout childLayout;
 
     /**
      * ProjectOperator constructor initialises variables
@@ -39,23 +45,51 @@ public class ProjectOperator extends Operator {
     @Override
     public Tuple getNextTuple() {
         Tuple nextTuple = operator.getNextTuple();
-        List<String> tupleSchema = new ArrayList<>();
-        List<Integer> tupleAttributes = new ArrayList<>();
+        if (nextTuple == null)
+            return null;
+        resolve(nextTuple.getLayout());
+        return nextTuple.project(projectedLayout, projectedPositions);
+    }
 
-        //For each term store the position in the table and the new tuples schema
-        for (Term attribute: attributes) {
-            String table = tableName + "." + ((Variable)attribute).getName();
-            tupleAttributes.add(nextTuple.getAttrPos(table));
+    /**
+     * Finds the positions of the terms in the child's rows and the projected layout, once for each layout of the child
+     * @param layout layout of the child's rows
+     */
+    private void resolve(TupleLayout layout) {
+        if (layout == childLayout)
+            return;
+        List<String> tupleSchema = new ArrayList<>();
+        int[] tupleAttributes = new int[attributes.size()];
+        for (int i = 0; i < attributes.size(); i++) {
+            String table = tableName + "." + ((Variable) attributes.get(i)).getName();
+            tupleAttributes[i] = layout.getPosition(table);
             tupleSchema.add(table);
         }
-        Term[] newTerms;
-        newTerms = new Term[attributes.size()];
-        int i = 0;
-        for (Integer attribute: tupleAttributes){
-            newTerms[i] = nextTuple.getPosition(attribute);
-            i++;
+        childLayout = layout;
+        projectedPositions = tupleAttributes;
+        projectedLayout = layout.project(tupleAttributes, tupleSchema);
+    }
+
+    /**
+     * Gets the next batch from the child operator and returns a batch made of the projected columns, the column
+     * vectors and the selection vector are shared with the child's batch rather than copied
+     * @return batch with only the terms in attributes, or null at the end of the input
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        TupleBatch batch = operator.getNextBatch();
+        if (batch == null)
+            return null;
+        resolve(batch.getLayout());
+        int[][] ints = new int[projectedLayout.getIntCount()][];
+        String[][] strings = new String[projectedLayout.getStringCount()][];
+        for (int i = 0; i < projectedPositions.length; i++) {
+            if (projectedLayout.isString(i))
+                strings[projectedLayout.getSlot(i)] = batch.getStringColumn(projectedPositions[i]);
+            else
+                ints[projectedLayout.getSlot(i)] = batch.getIntColumn(projectedPositions[i]);
         }
-        return new Tuple(newTerms, tupleSchema);
+        return new TupleBatch(projectedLayout, ints, strings, batch.getSize(), batch.getSelection(), batch.getSelectedCount());
     }
 
     /**
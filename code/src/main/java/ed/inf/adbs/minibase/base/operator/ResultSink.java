@@ -0,0 +1,281 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import ed.inf.adbs.minibase.base.QueryContext;
+import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
+
+/**
+ *
+ * Destination of the result of a query. Rows are formatted straight into a reusable byte buffer that is written to the
+ * output file's channel only when it is full and once more when the sink is closed, so the file is opened once per
+ * query instead of once per row. A sink may also write to a channel it does not own, such as the connection of a
+ * client of the server, which is left open when the sink is closed. Subclasses define the output format
+ *
+ */
+public abstract class ResultSink implements Closeable {
+    // size of the output buffer
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final WritableByteChannel channel;
+    // true if the channel is closed with the sink
+    private final boolean ownsChannel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // number of rows written
+    private long rowCount;
+
+    /**
+     * ResultSink constructor, creates or truncates the output file
+     * @param path output file path
+     * @throws IOException if the file cannot be opened
+     */
+    protected ResultSink(String path) throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ownsChannel = true;
+    }
+
+    /**
+     * ResultSink constructor for a channel that stays open once the sink is closed
+     * @param output channel the rows are written to
+     */
+    protected ResultSink(WritableByteChannel output) {
+        channel = output;
+        ownsChannel = false;
+    }
+
+    /**
+     * Opens a sink writing in the given format
+     * @param path output file path
+     * @param format "csv" or "binary"
+     * @return result sink
+     * @throws IOException if the file cannot be opened
+     */
+    public static ResultSink open(String path, String format) throws IOException {
+        if (format.equals("binary"))
+            return new BinaryResultSink(path);
+        return new CsvResultSink(path);
+    }
+
+    /**
+     * Opens a sink writing the result of a query to its output channel, or to its output file if it has none
+     * @param context context of the query
+     * @param format "csv" or "binary"
+     * @return result sink
+     * @throws IOException if the file cannot be opened
+     */
+    public static ResultSink open(QueryContext context, String format) throws IOException {
+        if (context.getOutput() == null)
+            return open(context.getOutputPath(), format);
+        if (format.equals("binary"))
+            return new BinaryResultSink(context.getOutput());
+        return new CsvResultSink(context.getOutput());
+    }
+
+    /**
+     * Writes a tuple
+     * @param tuple tuple to write
+     * @throws IOException if the output cannot be written
+     */
+    public void write(Tuple tuple) throws IOException {
+        writeTuple(tuple);
+        rowCount++;
+    }
+
+    /**
+     * Writes a tuple followed by a long, the rows of a SUM query whose sums may not fit in an integer
+     * @param tuple group values
+     * @param sum sum of the group
+     * @throws IOException if the output cannot be written
+     */
+    public void write(Tuple tuple, long sum) throws IOException {
+        writeSum(tuple, sum);
+        rowCount++;
+    }
+
+    /**
+     * Writes a row given as the value arrays of a tuple, without creating the tuple
+     * @param layout layout of the row
+     * @param ints values of the integer columns
+     * @param strings values of the string columns
+     * @throws IOException if the output cannot be written
+     */
+    public void write(TupleLayout layout, int[] ints, String[] strings) throws IOException {
+        writeValues(layout, ints, strings);
+        rowCount++;
+    }
+
+    /**
+     * Writes the selected rows of a batch, without creating tuples
+     * @param batch batch to write
+     * @throws IOException if the output cannot be written
+     */
+    public void write(TupleBatch batch) throws IOException {
+        int[][] intColumns = batch.getIntColumns();
+        String[][] stringColumns = batch.getStringColumns();
+        int[] ints = new int[intColumns.length];
+        String[] strings = new String[stringColumns.length];
+        for (int i = 0; i < batch.getSelectedCount(); i++) {
+            int r = batch.getSelectedRow(i);
+            for (int s = 0; s < ints.length; s++)
+                ints[s] = intColumns[s][r];
+            for (int s = 0; s < strings.length; s++)
+                strings[s] = stringColumns[s][r];
+            writeValues(batch.getLayout(), ints, strings);
+        }
+        rowCount += batch.getSelectedCount();
+    }
+
+    protected abstract void writeTuple(Tuple tuple) throws IOException;
+
+    protected abstract void writeSum(Tuple tuple, long sum) throws IOException;
+
+    protected abstract void writeValues(TupleLayout layout, int[] ints, String[] strings) throws IOException;
+
+    /**
+     * Called before the buffer is written for the last time, lets a format finish the file
+     * @throws IOException if the output cannot be written
+     */
+    protected void finish() throws IOException {
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Writes what is left in the buffer and closes the file, a channel the sink does not own is left open
+     * @throws IOException if the output cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+            writeBuffer();
+        } finally {
+            if (ownsChannel)
+                channel.close();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Makes room for a number of bytes in the buffer
+     * @param bytes number of bytes about to be written
+     * @throws IOException if the buffer cannot be written
+     */
+    private void reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            writeBuffer();
+    }
+
+    protected void putByte(byte b) throws IOException {
+        reserve(1);
+        buffer.put(b);
+    }
+
+    protected void putInt(int value) throws IOException {
+        reserve(4);
+        buffer.putInt(value);
+    }
+
+    protected void putLong(long value) throws IOException {
+        reserve(8);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Writes bytes, through the channel directly if they do not fit in the buffer
+     * @param bytes bytes to write
+     * @throws IOException if the output cannot be written
+     */
+    protected void putBytes(byte[] bytes) throws IOException {
+        if (bytes.length > BUFFER_SIZE) {
+            writeBuffer();
+            ByteBuffer b = ByteBuffer.wrap(bytes);
+            while (b.hasRemaining())
+                channel.write(b);
+            return;
+        }
+        reserve(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Writes the decimal digits of an integer
+     * @param value integer to write
+     * @throws IOException if the output cannot be written
+     */
+    protected void putDecimal(int value) throws IOException {
+        reserve(11);
+        if (value == Integer.MIN_VALUE) {
+            buffer.put("-2147483648".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        // write the digits backwards into the buffer, then move past them
+        int length = 1;
+        for (int v = value; v >= 10; v /= 10)
+            length++;
+        int end = buffer.position() + length;
+        for (int p = end - 1; p >= buffer.position(); p--) {
+            buffer.put(p, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * Writes the decimal digits of a long, through the integer version if it fits in an integer
+     * @param value long to write
+     * @throws IOException if the output cannot be written
+     */
+    protected void putDecimal(long value) throws IOException {
+        if (value == (int) value)
+            putDecimal((int) value);
+        else
+            putString(Long.toString(value));
+    }
+
+    /**
+     * Writes a string as UTF-8, ASCII strings are copied without going through an encoder
+     * @param value string to write
+     * @throws IOException if the output cannot be written
+     */
+    protected void putString(String value) throws IOException {
+        int length = value.length();
+        if (length <= BUFFER_SIZE) {
+            reserve(length);
+            int start = buffer.position();
+            int i = 0;
+            while (i < length) {
+                char c = value.charAt(i);
+                if (c >= 0x80)
+                    break;
+                buffer.put((byte) c);
+                i++;
+            }
+            if (i == length)
+                return;
+            buffer.position(start);
+        }
+        putBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,176 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import ed.inf.adbs.minibase.base.*;
+
+/**
+ *
+ * Selection conditions of a table evaluated by its scan on the fields of a line before any term is created. Each
+ * condition is checked as soon as the scan has read the last field it needs, so a rejected line is not read any
+ * further. Integer fields are compared on their parsed value and string fields are compared for equality on their
+ * bytes, only the other string comparisons create the field's string. Conditions between values of different types
+ * and false conditions between constants reject every line
+ *
+ */
+class ScanFilter {
+    private static final int INT_CONSTANT = 0;
+    private static final int STRING_CONSTANT = 1;
+    private static final int INT_COLUMNS = 2;
+    private static final int STRING_COLUMNS = 3;
+
+    /**
+     * Access to the fields of the line being scanned
+     */
+    interface Fields {
+        int getInt(int column);
+
+        String getString(int column);
+
+        /**
+         * Compares a string field with a string
+         * @param column column of the field
+         * @param value string to compare with
+         * @param bytes UTF-8 bytes of the string
+         * @return true if the field's value is equal to the string
+         */
+        boolean stringEquals(int column, String value, byte[] bytes);
+
+        boolean stringsEqual(int column1, int column2);
+    }
+
+    // kind, operator, columns and constant of each condition
+    private final int[] kinds;
+    private final ComparisonOperator[] operators;
+    private final int[] columns1;
+    private final int[] columns2;
+    private final int[] intValues;
+    private final String[] stringValues;
+    private final byte[][] stringBytes;
+    // for each column, the conditions checked once it has been read
+    private final int[][] checkedAfter;
+    // true if the fields of a column are read by the conditions
+    private final boolean[] filterColumns;
+    // false if no line can satisfy the conditions
+    private boolean satisfiable = true;
+
+    /**
+     * ScanFilter constructor, resolves the conditions against the columns of a table
+     * @param table table name
+     * @param atoms selection conditions of the table
+     */
+    ScanFilter(String table, List<ComparisonAtom> atoms) {
+        List<String> types = DatabaseCatalogue.getInitialTypes(DatabaseCatalogue.getAlias(table));
+        boolean[] stringColumns = new boolean[types.size()];
+        for (int i = 0; i < types.size(); i++)
+            stringColumns[i] = types.get(i).equals("string");
+        filterColumns = new boolean[types.size()];
+        int n = atoms.size();
+        kinds = new int[n];
+        operators = new ComparisonOperator[n];
+        columns1 = new int[n];
+        columns2 = new int[n];
+        intValues = new int[n];
+        stringValues = new String[n];
+        stringBytes = new byte[n][];
+        List<List<Integer>> after = new ArrayList<>();
+        for (int i = 0; i < types.size(); i++)
+            after.add(new ArrayList<>());
+        for (int a = 0; a < n; a++) {
+            Term first = atoms.get(a).getTerm1();
+            Term second = atoms.get(a).getTerm2();
+            ComparisonOperator op = atoms.get(a).getOp();
+            if (first instanceof Constant && second instanceof Constant) {
+                Predicate predicate = Predicate.compile(atoms.subList(a, a + 1), new HashMap<>());
+                satisfiable &= predicate.testConstants();
+                continue;
+            }
+            // keep the column on the left of conditions on a constant
+            if (first instanceof Constant) {
+                Term swap = first;
+                first = second;
+                second = swap;
+                op = op.reverse();
+            }
+            operators[a] = op;
+            columns1[a] = getColumn(table, first);
+            filterColumns[columns1[a]] = true;
+            int last = columns1[a];
+            if (second instanceof IntegerConstant) {
+                kinds[a] = INT_CONSTANT;
+                intValues[a] = ((IntegerConstant) second).getValue();
+                satisfiable &= !stringColumns[columns1[a]];
+            } else if (second instanceof StringConstant) {
+                kinds[a] = STRING_CONSTANT;
+                stringValues[a] = ((StringConstant) second).getValue();
+                stringBytes[a] = stringValues[a].getBytes(StandardCharsets.UTF_8);
+                satisfiable &= stringColumns[columns1[a]];
+            } else {
+                columns2[a] = getColumn(table, second);
+                filterColumns[columns2[a]] = true;
+                last = Math.max(last, columns2[a]);
+                kinds[a] = stringColumns[columns1[a]] ? STRING_COLUMNS : INT_COLUMNS;
+                satisfiable &= stringColumns[columns1[a]] == stringColumns[columns2[a]];
+            }
+            after.get(last).add(a);
+        }
+        checkedAfter = new int[types.size()][];
+        for (int i = 0; i < types.size(); i++)
+            checkedAfter[i] = after.get(i).stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int getColumn(String table, Term variable) {
+        return DatabaseCatalogue.getAttrPos(table + "." + ((Variable) variable).getName());
+    }
+
+    /**
+     * Returns false if no line can satisfy the conditions, the scan then does not need to read the file
+     * @return true if some line may satisfy the conditions
+     */
+    boolean isSatisfiable() {
+        return satisfiable;
+    }
+
+    /**
+     * Returns the columns whose fields the conditions read
+     * @return true for the columns read by a condition
+     */
+    boolean[] getFilterColumns() {
+        return filterColumns;
+    }
+
+    /**
+     * Checks the conditions that can be checked once a column has been read
+     * @param column column just read
+     * @param fields fields of the line
+     * @return false if the line does not satisfy one of the conditions
+     */
+    boolean test(int column, Fields fields) {
+        for (int a : checkedAfter[column]) {
+            if (!holds(a, fields))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean holds(int a, Fields fields) {
+        ComparisonOperator op = operators[a];
+        switch (kinds[a]) {
+            case INT_CONSTANT:
+                return op.holds(Integer.compare(fields.getInt(columns1[a]), intValues[a]));
+            case STRING_CONSTANT:
+                if (op == ComparisonOperator.EQ || op == ComparisonOperator.NEQ)
+                    return fields.stringEquals(columns1[a], stringValues[a], stringBytes[a]) == (op == ComparisonOperator.EQ);
+                return op.holds(fields.getString(columns1[a]).compareTo(stringValues[a]));
+            case INT_COLUMNS:
+                return op.holds(Integer.compare(fields.getInt(columns1[a]), fields.getInt(columns2[a])));
+            default:
+                if (op == ComparisonOperator.EQ || op == ComparisonOperator.NEQ)
+                    return fields.stringsEqual(columns1[a], columns2[a]) == (op == ComparisonOperator.EQ);
+                return op.holds(fields.getString(columns1[a]).compareTo(fields.getString(columns2[a])));
+        }
+    }
+}
@@ -1,14 +1,12 @@
 package ed.inf.adbs.minibase.base.operator;
 import ed.inf.adbs.minibase.base.DatabaseCatalogue;
-import ed.inf.adbs.minibase.base.IntegerConstant;
-import ed.inf.adbs.minibase.base.StringConstant;
-import ed.inf.adbs.minibase.base.Term;
+import ed.inf.adbs.minibase.base.ExecutionSettings;
 import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.List;
 
 
 
@@ -28,12 +26,31 @@ public class ScanOperator extends Operator {
     private String filePath;
     //buffer reader to read data from the tables
     private BufferedReader bufferedReader;
+    //layout of the tuples and batches, created on the first read
+    private TupleLayout layout;
+    //selection conditions checked on the fields of each line, null if there are none
+    private final ScanFilter filter;
+    //fields of the current line
+    private String[] elements;
+    //gives the conditions access to the fields of the current line
+    private final ScanFilter.Fields fields = new LineFields();
 
     /**
      * ScanOperator constructor  initialises the variables for the scan operator
      * @param name table name
      */
     public ScanOperator(String name) {
+        this(name, null);
+    }
+
+    /**
+     * ScanOperator constructor for a scan that also checks the selection conditions of the table, the values of a line
+     * are only created if it satisfies them
+     * @param name table name
+     * @param conditions selection conditions of the table, null if there are none
+     */
+    ScanOperator(String name, ScanFilter conditions) {
+        filter = conditions;
         try {
             this.fileName = name;
             this.originalFile = DatabaseCatalogue.getAlias(name);
@@ -46,39 +63,115 @@ public class ScanOperator extends Operator {
     }
 
     /**
-     * Returns a tuple containing the next line in the given table, to do this we read the line and trim and split it
-     * to give us the terms
+     * Returns a tuple containing the next line in the given table satisfying the conditions, to do this we read the
+     * line and trim and split it to give us the terms. The values are stored straight into the tuple's int and string
+     * arrays
      * @return tuple with the line's values
      */
     @Override
     public Tuple getNextTuple() {
+        if (!readLine())
+            return null;
+        int[] ints = new int[getLayout().getIntCount()];
+        String[] strings = new String[layout.getStringCount()];
+        readValues(ints, strings);
+        // Create a new tuple with the values we have collected and the table's layout
+        return new Tuple(layout, ints, strings);
+    }
+
+    /**
+     * Returns the layout of the table's tuples, getting the relevant variable types and schema for the table once
+     * @return layout of the tuples
+     */
+    private TupleLayout getLayout() {
+        if (layout == null)
+            layout = TupleLayout.of(DatabaseCatalogue.getSchemaList(fileName), DatabaseCatalogue.getInitialTypes(originalFile));
+        return layout;
+    }
+
+    /**
+     * Parses the fields of the current line into value arrays, for each term the type it should be gives the array it
+     * is stored in
+     * @param ints values of the integer columns
+     * @param strings values of the string columns
+     */
+    private void readValues(int[] ints, String[] strings) {
+        for (int i = 0; i < layout.size(); i++) {
+            if (layout.isString(i))
+                strings[layout.getSlot(i)] = fields.getString(i);
+            else
+                ints[layout.getSlot(i)] = fields.getInt(i);
+        }
+    }
+
+    /**
+     * Returns a batch with the next lines of the table satisfying the conditions, the values of each line are parsed
+     * into value arrays reused for the whole batch and copied into the column vectors
+     * @return batch with the lines' values, or null at the end of the file
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        if (!readLine())
+            return null;
+        TupleBatch batch = new TupleBatch(getLayout(), ExecutionSettings.getBatchSize());
+        int[] ints = new int[layout.getIntCount()];
+        String[] strings = new String[layout.getStringCount()];
+        do {
+            readValues(ints, strings);
+            batch.addRow(ints, strings);
+        } while (!batch.isFull() && readLine());
+        return batch;
+    }
+
+    /**
+     * Reads and splits the next non blank line satisfying the conditions
+     * @return false at the end of the file
+     */
+    private boolean readLine() {
+        if (bufferedReader == null || (filter != null && !filter.isSatisfiable()))
+            return false;
         try {
-            String buffer = bufferedReader.readLine();
-            if (buffer !=null){
-                // get the relevant variable types and schema for the table
-                List<String> types = DatabaseCatalogue.getInitialTypes(originalFile);
-                List<String> tableSchema = DatabaseCatalogue.getSchemaList(fileName);
-                // Trim and split the line we have read in order to just get the terms as strings
+            String buffer;
+            while ((buffer = bufferedReader.readLine()) != null) {
                 buffer = buffer.trim();
-                String[] elements = buffer.split(",\\s+");
-                // For each term, check the type it should be and then store the terms as its type in terms
-                Term[] terms = new Term[elements.length];
-                int i = 0;
-                for (String t : types){
-                    if (t.matches("string")){
-                        terms[i] = new StringConstant(elements[i].replaceAll("'", ""));
-                    } else if (t.matches("int")){
-                        terms[i] = new IntegerConstant(Integer.valueOf(elements[i]));
-                    }
-                    i++;
-                }
-                // Create a new tuple with the terms we have collected and the schema
-                return new Tuple(terms, tableSchema);
-            } else {
-                return null;
+                if (buffer.isEmpty())
+                    continue;
+                // Split the line in order to just get the terms as strings
+                elements = buffer.split(",\\s+");
+                boolean accepted = true;
+                for (int i = 0; i < elements.length && accepted && filter != null; i++)
+                    accepted = filter.test(i, fields);
+                if (accepted)
+                    return true;
             }
         } catch (IOException e) {
-            return null;
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Fields of the current line, parsed each time they are read
+     */
+    private class LineFields implements ScanFilter.Fields {
+        @Override
+        public int getInt(int column) {
+            return Integer.parseInt(elements[column]);
+        }
+
+        @Override
+        public String getString(int column) {
+            return elements[column].replaceAll("'", "");
+        }
+
+        @Override
+        public boolean stringEquals(int column, String value, byte[] bytes) {
+            return getString(column).equals(value);
+        }
+
+        @Override
+        public boolean stringsEqual(int column1, int column2) {
+            return getString(column1).equals(getString(column2));
         }
     }
 
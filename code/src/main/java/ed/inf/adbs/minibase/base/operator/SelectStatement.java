@@ -1,21 +1,28 @@
 package ed.inf.adbs.minibase.base.operator;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import ed.inf.adbs.minibase.base.DatabaseCatalogue;
 import ed.inf.adbs.minibase.base.Atom;
 import ed.inf.adbs.minibase.base.ComparisonAtom;
 import ed.inf.adbs.minibase.base.ComparisonOperator;
 import ed.inf.adbs.minibase.base.Constant;
+import ed.inf.adbs.minibase.base.ExecutionSettings;
 import ed.inf.adbs.minibase.base.IntegerConstant;
 import ed.inf.adbs.minibase.base.Query;
 import ed.inf.adbs.minibase.base.RelationalAtom;
 import ed.inf.adbs.minibase.base.StringConstant;
+import ed.inf.adbs.minibase.base.SumAggregate;
+import ed.inf.adbs.minibase.base.TableStatistics;
 import ed.inf.adbs.minibase.base.Term;
-import ed.inf.adbs.minibase.base.Tuple;
 import ed.inf.adbs.minibase.base.Variable;
 
 /**
@@ -26,19 +33,21 @@ import ed.inf.adbs.minibase.base.Variable;
 public class SelectStatement {
 
     //variables to project
-    private static List<Term> projectTerms;
+    private List<Term> projectTerms;
+    //SUM aggregate of the head, null if the head has none
+    private SumAggregate aggregate;
     //all distinct variables
-    private static List<Term> allVariables;
+    private List<Term> allVariables;
     //tables involved
-    private static List<String> schema= new ArrayList<>();
+    private List<String> schema= new ArrayList<>();
     //only select conditions per table
-    private static Map<String, List<ComparisonAtom>> selectConditions = new HashMap<>();
+    private Map<String, List<ComparisonAtom>> selectConditions = new HashMap<>();
     //variables per table
-    private static Map<String, List<Term>> selectItems = new HashMap<>();
+    private Map<String, List<Term>> selectItems = new HashMap<>();
     //only join conditions per table
-    private static Map<String, List<ComparisonAtom>> joinConditions = new HashMap<>();
+    private Map<String, List<ComparisonAtom>> joinConditions = new HashMap<>();
     //attribute position map
-    private static Map<String, Integer> attributePositions = new HashMap<>();
+    private Map<String, Integer> attributePositions = new HashMap<>();
 
     /**
      * SelectStatement constructor, initialises variables, initialises DatabaseCatalogue variables
@@ -48,6 +57,7 @@ public class SelectStatement {
         RelationalAtom head = query.getHeadAsRelationalAtom();
         List<Atom> body = query.getBody();
         projectTerms = head.getTerms();
+        aggregate = query.getHead().getSumAggregate();
         schema = new ArrayList<>();
         joinConditions = new HashMap<>();
         selectConditions = new HashMap<>();
@@ -87,7 +97,10 @@ public class SelectStatement {
         Term second = comparisonAtom.getTerm2();
         for(String table : selectItems.keySet()) {
             List<Term> tableItems = selectItems.get(table);
-            if((tableItems.contains(first) & !tableItems.contains(second)) || (!tableItems.contains(first) & tableItems.contains(second))) {
+            // only variables tie a condition to a table, a constant of the condition may also appear in the atom
+            boolean hasFirst = first instanceof Variable && tableItems.contains(first);
+            boolean hasSecond = second instanceof Variable && tableItems.contains(second);
+            if(hasFirst ^ hasSecond) {
                 if((first instanceof Constant) ^ (second instanceof Constant)) {
                     //add condition to selection list if only one variable is from table and the other is constant
                     addCond(selectConditions, table, comparisonAtom);
@@ -97,6 +110,9 @@ public class SelectStatement {
                 }
                 continue;
             }
+            // skip tables that the condition does not involve
+            if(!hasFirst && !((first instanceof Constant) && (second instanceof Constant)))
+                continue;
             addCond(selectConditions, table, comparisonAtom);
             }
         }
@@ -128,7 +144,7 @@ public class SelectStatement {
      * @param termList list of terms
      * @return list of strings representing schema for table
      */
-    private static List<String> createTableSchema(String tableName, List<Term> termList) {
+    private List<String> createTableSchema(String tableName, List<Term> termList) {
         List<String> newSchema = new ArrayList<String>();
         selectItems.put(tableName, termList); //map table name to terms
         schema.add(tableName); //add table to list of tables involved in the query
@@ -211,34 +227,422 @@ public class SelectStatement {
     }
 
     /**
-     * Generates the operator tree and executes the query
+     * Creates the scan operator for a table, reading the binary columnar file of its relation if there is an up to
+     * date one and the CSV file otherwise. Large CSV files are memory mapped and only the referenced columns are
+     * parsed, with shared scans CSV files are read through the shared scan of their relation
+     * @param table table name
+     * @param referenced names of the variables the plan needs the values of
+     * @return scan operator
      */
-    public void generateAndExecuteQueryPlan() {
-        // Create the root scan operator for the first table
-        Operator root = new ScanOperator(schema.get(0));
+    private static Operator createScan(String table, Set<String> referenced) {
+        if (ColumnarScanOperator.isAvailable(table))
+            return new ColumnarScanOperator(table);
+        if (isShared(table))
+            return new SharedScanOperator(table);
+        return createCsvScan(table, referenced, null);
+    }
+
+    /**
+     * Creates the scan operator for a table with its selection conditions. The conditions are pushed down into CSV
+     * scans, which check them on the fields of each line before creating its values, so the variables only the
+     * conditions use do not need to be created. Columnar and shared scans are followed by a select operator
+     * @param table table name
+     * @param referenced names of the variables the plan needs the values of once the conditions are checked
+     * @param conditions selection conditions of the table
+     * @return scan operator returning the tuples that satisfy the conditions
+     */
+    private static Operator createFilteredScan(String table, Set<String> referenced, List<ComparisonAtom> conditions) {
+        if (conditions.isEmpty())
+            return createScan(table, referenced);
+        if (ColumnarScanOperator.isAvailable(table))
+            return new SelectOperator(new ColumnarScanOperator(table), table, conditions);
+        if (isShared(table))
+            return new SelectOperator(new SharedScanOperator(table), table, conditions);
+        return createCsvScan(table, referenced, new ScanFilter(table, conditions));
+    }
+
+    /**
+     * Returns true if a table is read through the shared scan of its relation
+     * @param table table name
+     * @return true if the table is scanned with a SharedScanOperator
+     */
+    private static boolean isShared(String table) {
+        return ExecutionSettings.isSharedScans() && MappedScanOperator.canMap(table);
+    }
+
+    /**
+     * Returns true if the scans of a table can be split into partitions, i.e. if its CSV file is memory mapped
+     * @param table table name
+     * @return true if createPartitionScan can be used
+     */
+    private static boolean canPartition(String table) {
+        return !ColumnarScanOperator.isAvailable(table) && isMapped(table);
+    }
 
-        // Get the select conditions, if there are any then create a select operator with the scan operator as root
-        List<ComparisonAtom> whereSelect = selectConditions.getOrDefault(schema.get(0), new ArrayList<>());
-        if (whereSelect.size()>0) {
-            root = new SelectOperator((ScanOperator) root, whereSelect);
+    /**
+     * Creates the scan of one partition of a table with its selection conditions pushed down, the table must be one
+     * canPartition accepts
+     * @param table table name
+     * @param referenced names of the variables the plan needs the values of once the conditions are checked
+     * @param conditions selection conditions of the table
+     * @param partition index of the partition
+     * @param partitions number of partitions
+     * @return scan operator returning the tuples of the partition that satisfy the conditions
+     */
+    private static Operator createPartitionScan(String table, Set<String> referenced, List<ComparisonAtom> conditions,
+                                                int partition, int partitions) {
+        ScanFilter filter = conditions.isEmpty() ? null : new ScanFilter(table, conditions);
+        return new MappedScanOperator(table, getReferencedColumns(table, referenced), filter, partition, partitions);
+    }
+
+    /**
+     * Returns true if the CSV file of a table is large enough to be memory mapped, and small enough to be mapped at
+     * once
+     * @param table table name
+     * @return true if the table is scanned with a MappedScanOperator
+     */
+    private static boolean isMapped(String table) {
+        long threshold = ExecutionSettings.getMmapThreshold();
+        long size = new File(DatabaseCatalogue.getCsvPath(DatabaseCatalogue.getAlias(table))).length();
+        return threshold >= 0 && size >= threshold && MappedScanOperator.canMap(table);
+    }
+
+    /**
+     * Returns the columns of a table holding referenced variables
+     * @param table table name
+     * @param referenced names of the variables the plan needs the values of
+     * @return true for the referenced columns
+     */
+    private static boolean[] getReferencedColumns(String table, Set<String> referenced) {
+        List<String> tableSchema = DatabaseCatalogue.getSchemaList(table);
+        boolean[] referencedColumns = new boolean[tableSchema.size()];
+        for (int i = 0; i < tableSchema.size(); i++)
+            referencedColumns[i] = referenced.contains(tableSchema.get(i).split("\\.")[1]);
+        return referencedColumns;
+    }
+
+    /**
+     * Creates the scan operator reading the CSV file of a table, memory mapped if it is large
+     * @param table table name
+     * @param referenced names of the variables the plan needs the values of
+     * @param filter selection conditions checked by the scan, null if there are none
+     * @return scan operator
+     */
+    private static Operator createCsvScan(String table, Set<String> referenced, ScanFilter filter) {
+        if (isMapped(table))
+            return new MappedScanOperator(table, getReferencedColumns(table, referenced), filter);
+        return new ScanOperator(table, filter);
+    }
+
+    /**
+     * Returns the variables whose values the plan needs: the head variables, including those of the aggregate, the
+     * variables of every condition,
+     * including the conditions on constant columns, and the variables shared by several tables
+     * @return referenced variable names
+     */
+    private Set<String> getReferencedVariables() {
+        return getReferencedVariables(true);
+    }
+
+    /**
+     * Returns the variables whose values the plan needs, optionally leaving out those only the selection conditions
+     * use, which are not needed once the conditions have been checked in the scans
+     * @param withSelections true to include the variables of the selection conditions
+     * @return referenced variable names
+     */
+    private Set<String> getReferencedVariables(boolean withSelections) {
+        Set<String> referenced = new HashSet<>();
+        for (Term term : projectTerms)
+            referenced.add(((Variable) term).getName());
+        if (aggregate != null) {
+            for (Term term : aggregate.getProductTerms()) {
+                if (term instanceof Variable)
+                    referenced.add(((Variable) term).getName());
+            }
         }
+        List<List<ComparisonAtom>> conditions = new ArrayList<>(joinConditions.values());
+        if (withSelections)
+            conditions.addAll(selectConditions.values());
+        for (List<ComparisonAtom> atoms : conditions) {
+            for (ComparisonAtom atom : atoms) {
+                if (atom.getTerm1() instanceof Variable)
+                    referenced.add(((Variable) atom.getTerm1()).getName());
+                if (atom.getTerm2() instanceof Variable)
+                    referenced.add(((Variable) atom.getTerm2()).getName());
+            }
+        }
+        Set<String> seen = new HashSet<>();
+        for (String table : schema) {
+            for (String column : DatabaseCatalogue.getSchemaList(table)) {
+                String name = column.split("\\.")[1];
+                if (!seen.add(name))
+                    referenced.add(name);
+            }
+        }
+        return referenced;
+    }
+
+    /**
+     * Returns the variable names of the columns of a table that must survive a pre-aggregation: the head variables,
+     * the variables of the join conditions and the variables shared with another table
+     * @param table table name
+     * @return names of the columns the table is pre-aggregated on
+     */
+    private Set<String> getPreAggregationKey(String table) {
+        Set<String> needed = new HashSet<>();
+        for (Term term : projectTerms)
+            needed.add(((Variable) term).getName());
+        for (List<ComparisonAtom> atoms : joinConditions.values()) {
+            for (ComparisonAtom atom : atoms) {
+                if (atom.getTerm1() instanceof Variable)
+                    needed.add(((Variable) atom.getTerm1()).getName());
+                if (atom.getTerm2() instanceof Variable)
+                    needed.add(((Variable) atom.getTerm2()).getName());
+            }
+        }
+        for (String other : schema) {
+            if (other.equals(table))
+                continue;
+            for (String column : DatabaseCatalogue.getSchemaList(other))
+                needed.add(column.split("\\.")[1]);
+        }
+        Set<String> key = new LinkedHashSet<>();
+        for (String column : DatabaseCatalogue.getSchemaList(table)) {
+            String name = column.split("\\.")[1];
+            if (needed.contains(name))
+                key.add(name);
+        }
+        return key;
+    }
+
+    /**
+     * Chooses the tables that are pre-aggregated for eager aggregation. A table is pre-aggregated if its estimated
+     * number of groups, the product of the distinct values of its key columns, is at most half of its rows, so the
+     * joins read far fewer rows. Queries on a single table are aggregated once
+     * @param order join order
+     * @return names of the tables to pre-aggregate
+     */
+    private Set<String> getPreAggregatedTables(List<String> order) {
+        Set<String> tables = new LinkedHashSet<>();
+        if (order.size() < 2)
+            return tables;
+        for (String table : order) {
+            String relation = DatabaseCatalogue.getAlias(table);
+            long rows = DatabaseCatalogue.getRowCount(relation);
+            Set<String> key = getPreAggregationKey(table);
+            List<String> tableSchema = DatabaseCatalogue.getSchemaList(table);
+            long groups = 1;
+            for (int i = 0; i < tableSchema.size() && groups < rows; i++) {
+                String name = tableSchema.get(i).split("\\.")[1];
+                if (key.remove(name))
+                    groups *= DatabaseCatalogue.getDistinctValues(relation, i);
+            }
+            if (groups <= rows / 2)
+                tables.add(table);
+        }
+        return tables;
+    }
+
+    /**
+     * Returns the table whose partial sum includes a product variable, the first table in join order holding it
+     * @param variable product variable
+     * @param order join order
+     * @return table name
+     */
+    private static String getProductTable(Variable variable, List<String> order) {
+        for (String table : order) {
+            for (String column : DatabaseCatalogue.getSchemaList(table)) {
+                if (column.split("\\.")[1].equals(variable.getName()))
+                    return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the variables the plan still needs once the tables before a position of the join order have been joined:
+     * the head variables, the product variables and partial sums of the aggregate, and the variables of the join
+     * conditions and of the columns of the tables still to be joined
+     * @param order join order
+     * @param from position in the join order of the first table still to be joined
+     * @param preAggregated tables pre-aggregated before being joined
+     * @return names of the live variables
+     */
+    Set<String> getLiveVariables(List<String> order, int from, Set<String> preAggregated) {
+        Set<String> live = new HashSet<>();
+        for (Term term : projectTerms)
+            live.add(((Variable) term).getName());
+        if (aggregate != null) {
+            for (Term term : aggregate.getProductTerms()) {
+                if (term instanceof Variable)
+                    live.add(((Variable) term).getName());
+            }
+            for (String table : preAggregated) {
+                live.add(HashAggregateOperator.getPartialColumn(table, true));
+                live.add(HashAggregateOperator.getPartialColumn(table, false));
+            }
+        }
+        for (int j = from; j < order.size(); j++) {
+            for (ComparisonAtom atom : joinConditions.getOrDefault(order.get(j), new ArrayList<>())) {
+                if (atom.getTerm1() instanceof Variable)
+                    live.add(((Variable) atom.getTerm1()).getName());
+                if (atom.getTerm2() instanceof Variable)
+                    live.add(((Variable) atom.getTerm2()).getName());
+            }
+            for (String column : DatabaseCatalogue.getSchemaList(order.get(j)))
+                live.add(column.split("\\.")[1]);
+        }
+        return live;
+    }
+
+    /**
+     * Returns the variable names of the columns an operator reading a table returns, the columns of the table or, if
+     * it is pre-aggregated, its key columns followed by the two words of its partial sum
+     * @param table table name
+     * @param preAggregated tables pre-aggregated before being joined
+     * @return column variable names
+     */
+    private List<String> getInputColumns(String table, Set<String> preAggregated) {
+        List<String> columns = new ArrayList<>();
+        if (preAggregated.contains(table)) {
+            columns.addAll(getPreAggregationKey(table));
+            columns.add(HashAggregateOperator.getPartialColumn(table, true));
+            columns.add(HashAggregateOperator.getPartialColumn(table, false));
+        } else {
+            for (String column : DatabaseCatalogue.getSchemaList(table))
+                columns.add(column.split("\\.")[1]);
+        }
+        return columns;
+    }
+
+    /**
+     * Drops the dead columns of an operator's rows, those of variables that are not live and the repeated columns of
+     * common variables, with a projection above the operator. At least one column is kept so the rows can still be
+     * joined
+     * @param input operator whose rows are pruned
+     * @param table table the schema of the rows is named after
+     * @param columns variable names of the operator's columns, updated to the kept columns
+     * @param live names of the variables needed above the operator
+     * @return the operator, or a projection of it if some column is dead
+     */
+    static Operator pruneColumns(Operator input, String table, List<String> columns, Set<String> live) {
+        List<String> kept = new ArrayList<>();
+        for (String column : columns) {
+            if (live.contains(column) && !kept.contains(column))
+                kept.add(column);
+        }
+        if (kept.isEmpty())
+            kept.add(columns.get(0));
+        if (kept.equals(columns))
+            return input;
+        columns.clear();
+        columns.addAll(kept);
+        List<Term> terms = new ArrayList<>();
+        for (String column : kept)
+            terms.add(new Variable(column));
+        return new ProjectOperator(terms, input, table);
+    }
+
+    /**
+     * Returns true if the rows of a table's scan come in ascending order of the key of a join, i.e. if the join has a
+     * single common variable and no equality condition, the table's scan keeps the order of its file and the statistics
+     * of the table's relation record that the file is sorted on the variable's column
+     * @param table table name
+     * @param preAggregated tables pre-aggregated before being joined
+     * @param conditions join conditions of the join
+     * @param commonVars common variables of the join
+     * @return true if the table can be merged on the join key without being sorted
+     */
+    private boolean isSortedOnKey(String table, Set<String> preAggregated, List<ComparisonAtom> conditions,
+                                  List<String> commonVars) {
+        if (commonVars.size() != 1 || preAggregated.contains(table) || !keepsFileOrder(table))
+            return false;
+        for (ComparisonAtom atom : conditions) {
+            if (atom.getOp() == ComparisonOperator.EQ)
+                return false;
+        }
+        TableStatistics statistics = DatabaseCatalogue.getStatistics(DatabaseCatalogue.getAlias(table));
+        Integer column = attributePositions.get(table + "." + commonVars.get(0));
+        if (statistics == null || column == null || statistics.getColumn(column) == null)
+            return false;
+        return statistics.getColumn(column).isSorted();
+    }
+
+    /**
+     * Returns true if the scan of a table returns the rows in the order of its file. A shared scan starts wherever the
+     * scan of the relation is, and a parallel scan of a memory mapped file returns the batches of its chunks in the
+     * order the threads parse them
+     * @param table table name
+     * @return true if the scan keeps the order of the file
+     */
+    private static boolean keepsFileOrder(String table) {
+        if (isShared(table))
+            return false;
+        return ExecutionSettings.getScanThreads() <= 1 || !canPartition(table);
+    }
+
+    /**
+     * Pre-aggregates a join input on its key columns, with the product of the product variables it holds as its
+     * partial sum, or the row count if it holds none
+     * @param input scan or selection of the table
+     * @param table table name
+     * @param order join order
+     * @return pre-aggregation operator
+     */
+    private Operator preAggregate(Operator input, String table, List<String> order) {
+        List<Variable> key = new ArrayList<>();
+        for (String name : getPreAggregationKey(table))
+            key.add(new Variable(name));
+        List<Term> product = new ArrayList<>();
+        for (Term term : aggregate.getProductTerms()) {
+            if (term instanceof Variable && table.equals(getProductTable((Variable) term, order)))
+                product.add(term);
+        }
+        return new HashAggregateOperator(input, key, aggregate, product, Collections.emptyList(), table, table,
+                ExecutionSettings.getAggregateMemoryBudget(), ExecutionSettings.getAggregateThreads());
+    }
+
+    /**
+     * Creates the scans and joins of the tables in join order, up to the join of the last table
+     * @param optimizer optimizer that chose the join order and the build sides
+     * @param order join order
+     * @param materialized names of the variables the scans create the values of
+     * @param preAggregated tables pre-aggregated before being joined
+     * @param partition partition of the first table read by the scans and joins
+     * @param partitions number of partitions of the first table, 1 to read all of it
+     * @param outputColumns receives the variable names of the columns of the joined tuples
+     * @param joins receives the tables joined after the first one, for a compiled pipeline
+     * @return root of the join tree
+     */
+    private Operator createJoinTree(JoinOrderOptimizer optimizer, List<String> order, Set<String> materialized,
+                                    Set<String> preAggregated, int partition, int partitions,
+                                    List<String> outputColumns, List<PipelineCompiler.Join> joins) {
+        // Get the select conditions and create the root scan operator for the first table, which checks them
+        List<ComparisonAtom> whereSelect = selectConditions.getOrDefault(order.get(0), new ArrayList<>());
+        Operator root = partitions > 1
+                ? createPartitionScan(order.get(0), materialized, whereSelect, partition, partitions)
+                : createFilteredScan(order.get(0), materialized, whereSelect);
+        if (preAggregated.contains(order.get(0)))
+            root = preAggregate(root, order.get(0), order);
+        //the columns no later operator needs are dropped before each join
+        outputColumns.addAll(getInputColumns(order.get(0), preAggregated));
+        if (order.size() > 1)
+            root = pruneColumns(root, order.get(0), outputColumns, getLiveVariables(order, 1, preAggregated));
 
         //get join conditions for the first table
-        List<ComparisonAtom> allJoinConds = joinConditions.getOrDefault(schema.get(0), new ArrayList<>());
+        List<ComparisonAtom> allJoinConds = joinConditions.getOrDefault(order.get(0), new ArrayList<>());
         //get first tables schema
-        List<String> table1Attr = new ArrayList<>(DatabaseCatalogue.getSchemaList(schema.get(0)));
-        //For the rest of the tables, create scan operators then if there are select conditions for that table create
-        //... select operators with the scan opperator as the root
-        for (int i = 1; i < schema.size(); ++i) {
-            String currentTable = schema.get(i);
-            Operator root2 = new ScanOperator(currentTable);
-            List<ComparisonAtom> whereSelect2 = selectConditions.getOrDefault(schema.get(i), new ArrayList<>());
-            if (whereSelect2.size() > 0) {
-                root2 = new SelectOperator((ScanOperator) root2, whereSelect2);
-            }
+        List<String> table1Attr = new ArrayList<>(DatabaseCatalogue.getSchemaList(order.get(0)));
+        //For the rest of the tables, create scan operators checking the select conditions of that table
+        for (int i = 1; i < order.size(); ++i) {
+            String currentTable = order.get(i);
+            List<ComparisonAtom> whereSelect2 = selectConditions.getOrDefault(currentTable, new ArrayList<>());
+            Operator root2 = createFilteredScan(currentTable, materialized, whereSelect2);
+            if (preAggregated.contains(currentTable))
+                root2 = preAggregate(root2, currentTable, order);
 
             // Get current tables join conditions, then get the join conditions for the first table and this table
-            List<ComparisonAtom> tableJoinConds = joinConditions.getOrDefault(schema.get(i), new ArrayList<>());
+            List<ComparisonAtom> tableJoinConds = joinConditions.getOrDefault(currentTable, new ArrayList<>());
             List<ComparisonAtom> necessaryJoinConds = getTablesJoinConditions(allJoinConds, tableJoinConds);
             // Get schema for current table
             List<String> table2Attr = new ArrayList<>(DatabaseCatalogue.getSchemaList(currentTable));
@@ -251,7 +655,7 @@ public class SelectStatement {
             }
             for (String string : table1Attr) {
                 String[] splitLine = string.split("\\.");
-                if (attrPos1.containsKey(splitLine[1])) {
+                if (attrPos1.containsKey(splitLine[1]) && !commonVars.contains(splitLine[1])) {
                     commonVars.add(splitLine[1]);
                     table2Attr.remove(splitLine[1]);
                 }
@@ -261,32 +665,123 @@ public class SelectStatement {
             //... to this table
             allJoinConds = getRestOfJoinConds(necessaryJoinConds, allJoinConds);
             allJoinConds.addAll(getRestOfJoinConds(necessaryJoinConds, tableJoinConds));
-            root = new JoinOperator(root, root2, necessaryJoinConds, commonVars); //create a join operator for the first/last operator and the new one
+            //create a join operator for the first/last operator and the new one. Two tables whose files are both
+            //... sorted on the join key are merged with a sort-merge join that does not sort them, otherwise a hash
+            //... join is used if there is an equality join predicate, a hash join that spills to disk if a memory
+            //... budget is set and a parallel hash join if several join threads are set. Joins on inequalities use a
+            //... sort-merge join, anything else a block nested loop join. Hash tables are built on the input the
+            //... optimizer expects to be smaller
+            joins.add(new PipelineCompiler.Join(currentTable, root2, necessaryJoinConds, commonVars));
+            //the table's columns are pruned to those needed by this join or above it, the compiled pipeline reads
+            //... the whole table
+            Set<String> rightLive = getLiveVariables(order, i + 1, preAggregated);
+            for (ComparisonAtom atom : tableJoinConds) {
+                if (atom.getTerm1() instanceof Variable)
+                    rightLive.add(((Variable) atom.getTerm1()).getName());
+                if (atom.getTerm2() instanceof Variable)
+                    rightLive.add(((Variable) atom.getTerm2()).getName());
+            }
+            rightLive.addAll(commonVars);
+            List<String> rightColumns = getInputColumns(currentTable, preAggregated);
+            root2 = pruneColumns(root2, currentTable, rightColumns, rightLive);
+            long joinMemory = ExecutionSettings.getJoinMemoryBudget();
+            boolean buildLeft = optimizer.isBuildLeft(i);
+            if (i == 1 && isSortedOnKey(order.get(0), preAggregated, necessaryJoinConds, commonVars)
+                    && isSortedOnKey(currentTable, preAggregated, necessaryJoinConds, commonVars))
+                root = new SortMergeJoinOperator(root, root2, necessaryJoinConds, commonVars, ExecutionSettings.getSortMemoryBudget(), true);
+            else if (HashJoinOperator.hasEquiJoinPredicate(necessaryJoinConds, commonVars) && joinMemory > 0)
+                root = new GraceHashJoinOperator(root, root2, necessaryJoinConds, commonVars, joinMemory, buildLeft);
+            else if (HashJoinOperator.hasEquiJoinPredicate(necessaryJoinConds, commonVars) && ExecutionSettings.getJoinThreads() > 1)
+                root = new ParallelHashJoinOperator(root, root2, necessaryJoinConds, commonVars, buildLeft, ExecutionSettings.getJoinThreads());
+            else if (HashJoinOperator.hasEquiJoinPredicate(necessaryJoinConds, commonVars))
+                root = new HashJoinOperator(root, root2, necessaryJoinConds, commonVars, buildLeft);
+            else if (SortMergeJoinOperator.isApplicable(necessaryJoinConds, commonVars))
+                root = new SortMergeJoinOperator(root, root2, necessaryJoinConds, commonVars, ExecutionSettings.getSortMemoryBudget());
+            else if (ExecutionSettings.getBlockSize() > 1)
+                root = new BlockNestedLoopJoinOperator(root, root2, necessaryJoinConds, commonVars, ExecutionSettings.getBlockSize());
+            else
+                root = new JoinOperator(root, root2, necessaryJoinConds, commonVars);
             table1Attr.addAll(table2Attr);
+            outputColumns.addAll(rightColumns);
+            if (i < order.size() - 1)
+                root = pruneColumns(root, order.get(0), outputColumns, getLiveVariables(order, i + 1, preAggregated));
         }
+        return root;
+    }
 
-        // Check whether projection will be required
-        boolean projectionNeeded = false;
-        if(projectTerms.size()!= allVariables.size()) {
-            projectionNeeded = true;
+    /**
+     * Generates the operator tree and executes the query. The tables are joined in the order chosen by the
+     * JoinOrderOptimizer
+     */
+    public void generateAndExecuteQueryPlan() {
+        JoinOrderOptimizer optimizer = new JoinOrderOptimizer(schema, selectConditions, joinConditions);
+        List<String> order = optimizer.getJoinOrder();
+        Set<String> referenced = getReferencedVariables();
+        // Selection conditions are checked in the scans, the values they alone use are not created
+        Set<String> materialized = getReferencedVariables(false);
+        // For eager aggregation find the tables worth pre-aggregating before they are joined
+        Set<String> preAggregated = aggregate != null && ExecutionSettings.isEagerAggregation() ? getPreAggregatedTables(order) : new HashSet<>();
+        // Get the select conditions of the first table, its scan checks them
+        List<ComparisonAtom> whereSelect = selectConditions.getOrDefault(order.get(0), new ArrayList<>());
+        //variable names of the columns of the joined tuples
+        List<String> outputColumns = new ArrayList<>();
+        //tables joined after the first one, for a compiled pipeline
+        List<PipelineCompiler.Join> joins = new ArrayList<>();
+        // With several exchange threads the scans and joins are run by an exchange operator, each instance of the
+        //... join tree reading one partition of the first table
+        int partitions = ExecutionSettings.getExchangeThreads();
+        Operator root;
+        if (partitions > 1 && canPartition(order.get(0))) {
+            List<Operator> instances = new ArrayList<>();
+            for (int p = 0; p < partitions; p++) {
+                instances.add(createJoinTree(optimizer, order, materialized, preAggregated, p, partitions,
+                        p == 0 ? outputColumns : new ArrayList<>(), p == 0 ? joins : new ArrayList<>()));
+            }
+            root = new ExchangeOperator(instances);
         } else {
-            for(int i = 0; i< projectTerms.size(); i++)
-                if (!projectTerms.get(i).equals(allVariables.get(i))) {
-                    projectionNeeded = true;
-                    break;
-                }
+            root = createJoinTree(optimizer, order, materialized, preAggregated, 0, 1, outputColumns, joins);
         }
+
+        // The rows of an aggregate query are grouped on the head variables, so neither projection nor duplicate
+        //... elimination applies
+        if (aggregate != null) {
+            List<Variable> groupVariables = new ArrayList<>();
+            for (Term term : projectTerms)
+                groupVariables.add((Variable) term);
+            // the product variables of the pre-aggregated tables are already in their partial sums
+            List<Term> product = new ArrayList<>();
+            for (Term term : aggregate.getProductTerms()) {
+                if (!(term instanceof Variable) || !preAggregated.contains(getProductTable((Variable) term, order)))
+                    product.add(term);
+            }
+            root = new HashAggregateOperator(root, groupVariables, aggregate, product, new ArrayList<>(preAggregated), null,
+                    order.get(0), ExecutionSettings.getAggregateMemoryBudget(), ExecutionSettings.getAggregateThreads());
+            root.dump();
+            return;
+        }
+
+        // Check whether projection will be required, the joined tuples hold the live columns of every table in join
+        //... order, including the repeated common variables of the last join
+        List<String> headColumns = new ArrayList<>();
+        for (Term term : projectTerms)
+            headColumns.add(((Variable) term).getName());
+        boolean projectionNeeded = !headColumns.equals(outputColumns);
+        // Duplicates can only appear if the head drops some variable of the body
+        boolean distinctNeeded = !projectTerms.containsAll(allVariables);
+        // In compiled mode the whole plan runs as generated code if the compiler handles it, the operators built
+        //... above are then never read
+        if (ExecutionSettings.isCompiledExecution() && PipelineCompiler.execute(order.get(0), whereSelect, joins,
+                projectionNeeded ? headColumns : outputColumns, distinctNeeded, referenced))
+            return;
         // If projection needed, form procetion operator and output only the unique results
         if(projectionNeeded) {
-            root = new ProjectOperator(projectTerms, root, schema.get(0));
-            List<Tuple> t = root.getQueryResult();
-            root = new DistinctOperator(t);
-            root.dump(((DistinctOperator) root).getDistinctTuples());
+            root = new ProjectOperator(projectTerms, root, order.get(0));
         }
-        else {
-            //Output all results
-            root.dump();
+        if(distinctNeeded) {
+            root = new DistinctOperator(root, ExecutionSettings.getDistinctMemoryBudget());
         }
+        //Output all results
+        root.dump();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,239 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ed.inf.adbs.minibase.base.ExecutionSettings;
+import ed.inf.adbs.minibase.base.TupleLayout;
+
+/**
+ *
+ * Scan of a relation file shared by the queries reading it at the same time. The mapped file is split into chunks
+ * ending at line ends, and the readers attached to the scan all read every chunk, each starting at the chunk the scan
+ * is currently at and wrapping around to the start of the file for the chunks it missed. A chunk is parsed by the
+ * first reader that needs it while the others wait, then kept until the other attached readers that still have to
+ * read it have done so, so readers moving together parse each line once. Kept chunks are limited in number, once the
+ * limit is reached a reader that is far ahead of the others does not keep the chunks it parses and the others parse
+ * them again. A scan lasts as long as it has readers, the next reader of the relation maps the file again
+ *
+ */
+final class SharedScan {
+    // bytes of file per chunk
+    private static final int CHUNK_BYTES = 1 << 20;
+    // largest number of parsed chunks kept for the readers behind
+    private static final int MAX_KEPT_CHUNKS = 16;
+    // scans with readers, by file path
+    private static final Map<String, SharedScan> scans = new HashMap<>();
+
+    /**
+     * A chunk of the file, its batches are set while some attached reader still has to read them
+     */
+    private static final class Chunk {
+        final CsvCursor lines;
+        List<TupleBatch> batches;
+        // readers that have to read the kept batches
+        Set<Reader> waiting;
+
+        Chunk(CsvCursor cursor) {
+            lines = cursor;
+        }
+    }
+
+    /**
+     * A reader attached to the scan, which reads every chunk once starting from a given one
+     */
+    static final class Reader {
+        final SharedScan scan;
+        final int firstChunk;
+        // number of chunks whose batches the reader has been given
+        int chunksRead;
+
+        Reader(SharedScan shared, int first) {
+            scan = shared;
+            firstChunk = first;
+        }
+
+        /**
+         * Returns the batches of the next chunk, parsing the chunk if no other reader has kept it
+         * @return rows of the chunk, or null once every chunk has been read, the reader is then detached
+         */
+        List<TupleBatch> nextChunk() {
+            return scan.read(this);
+        }
+
+        /**
+         * Detaches the reader before it has read every chunk
+         */
+        void detach() {
+            scan.detach(this);
+        }
+    }
+
+    private final String path;
+    private final TupleLayout layout;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final Set<Reader> readers = new HashSet<>();
+    // chunk last read by a reader, where the next reader starts
+    private int currentChunk;
+    private int keptChunks;
+
+    private SharedScan(String file, boolean[] strings) throws IOException {
+        path = file;
+        // the rows are given to each reader under the schema of its table, the shared batches have no schema
+        List<String> schema = new ArrayList<>();
+        for (int i = 0; i < strings.length; i++)
+            schema.add(null);
+        layout = new TupleLayout(schema, strings);
+        CsvCursor cursor = new CsvCursor(file);
+        for (CsvCursor chunk : cursor.split((int) Math.max(1, new File(file).length() / CHUNK_BYTES)))
+            chunks.add(new Chunk(chunk));
+    }
+
+    /**
+     * Attaches a reader to the scan of a relation file, starting the scan if it has no readers
+     * @param file path of the CSV file, at most Integer.MAX_VALUE bytes long
+     * @param strings true for the columns holding strings
+     * @return reader of every chunk of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    static Reader attach(String file, boolean[] strings) throws IOException {
+        SharedScan scan;
+        synchronized (scans) {
+            scan = scans.get(file);
+            if (scan == null) {
+                scan = new SharedScan(file, strings);
+                scans.put(file, scan);
+            }
+            // the reader is added while the scans are locked so the scan is not removed meanwhile
+            synchronized (scan) {
+                Reader reader = new Reader(scan, scan.currentChunk);
+                scan.readers.add(reader);
+                return reader;
+            }
+        }
+    }
+
+    /**
+     * Returns the batches of the next chunk of a reader, parsing it if it is not kept. Only one reader parses a chunk,
+     * the others wait for it
+     * @param reader reader of the scan
+     * @return rows of the chunk, or null once the reader has read every chunk
+     */
+    private List<TupleBatch> read(Reader reader) {
+        int index = -1;
+        synchronized (this) {
+            if (reader.chunksRead < chunks.size()) {
+                index = (reader.firstChunk + reader.chunksRead) % chunks.size();
+                currentChunk = index;
+            }
+        }
+        if (index < 0) {
+            detach(reader);
+            return null;
+        }
+        Chunk chunk = chunks.get(index);
+        synchronized (chunk) {
+            synchronized (this) {
+                if (chunk.batches != null) {
+                    List<TupleBatch> batches = chunk.batches;
+                    reader.chunksRead++;
+                    release(chunk, reader);
+                    return batches;
+                }
+            }
+            List<TupleBatch> batches = parse(chunk.lines);
+            synchronized (this) {
+                reader.chunksRead++;
+                // the readers waiting for the chunk while it was parsed have not read it yet either
+                Set<Reader> waiting = new HashSet<>();
+                for (Reader other : readers) {
+                    if (!hasRead(other, index))
+                        waiting.add(other);
+                }
+                if (!waiting.isEmpty() && keptChunks < MAX_KEPT_CHUNKS) {
+                    chunk.batches = batches;
+                    chunk.waiting = waiting;
+                    keptChunks++;
+                }
+            }
+            return batches;
+        }
+    }
+
+    /**
+     * Returns true if a reader has read a chunk
+     * @param reader reader of the scan
+     * @param index chunk index
+     * @return true if the reader does not need the chunk anymore
+     */
+    private boolean hasRead(Reader reader, int index) {
+        return (index - reader.firstChunk + chunks.size()) % chunks.size() < reader.chunksRead;
+    }
+
+    /**
+     * Records that a reader does not need a kept chunk, the chunk is dropped once no reader needs it
+     * @param chunk kept chunk
+     * @param reader reader of the scan
+     */
+    private void release(Chunk chunk, Reader reader) {
+        chunk.waiting.remove(reader);
+        if (chunk.waiting.isEmpty()) {
+            chunk.batches = null;
+            chunk.waiting = null;
+            keptChunks--;
+        }
+    }
+
+    /**
+     * Detaches a reader, the chunks kept for it alone are dropped and the scan ends with its last reader
+     * @param reader reader of the scan
+     */
+    private void detach(Reader reader) {
+        synchronized (scans) {
+            synchronized (this) {
+                if (!readers.remove(reader))
+                    return;
+                for (Chunk chunk : chunks) {
+                    if (chunk.waiting != null && chunk.waiting.contains(reader))
+                        release(chunk, reader);
+                }
+                if (readers.isEmpty())
+                    scans.remove(path);
+            }
+        }
+    }
+
+    /**
+     * Parses every line of a chunk into batches holding all of its columns
+     * @param lines cursor over the chunk
+     * @return rows of the chunk
+     */
+    private List<TupleBatch> parse(CsvCursor lines) {
+        List<TupleBatch> batches = new ArrayList<>();
+        int[] ints = new int[layout.getIntCount()];
+        String[] strings = new String[layout.getStringCount()];
+        TupleBatch batch = null;
+        lines.rewind();
+        while (lines.nextLine()) {
+            for (int i = 0; i < layout.size(); i++) {
+                if (layout.isString(i))
+                    strings[layout.getSlot(i)] = lines.readString();
+                else
+                    ints[layout.getSlot(i)] = lines.readInt();
+            }
+            lines.endLine();
+            if (batch == null || batch.isFull()) {
+                batch = new TupleBatch(layout, ExecutionSettings.getBatchSize());
+                batches.add(batch);
+            }
+            batch.addRow(ints, strings);
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,120 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.IOException;
+import java.util.List;
+
+import ed.inf.adbs.minibase.base.DatabaseCatalogue;
+import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
+
+/**
+ *
+ * Operator that scans a table through the shared scan of its relation file, so that queries scanning the same
+ * relation at the same time parse its lines once. The scan is attached to on the first read, the rows come in the
+ * order of the shared scan, starting wherever it is, and every column is read. The batches of the shared scan are
+ * given to the parent as new batches over the same column vectors, under the schema of the table
+ *
+ */
+public class SharedScanOperator extends Operator {
+
+    //table name to be scanned
+    private final String fileName;
+    //path of the relation file
+    private final String filePath;
+    //schema and column types of the tuples
+    private final TupleLayout layout;
+    //true for the columns holding strings
+    private final boolean[] stringColumns;
+    //reader attached to the shared scan, null until the first read and once the scan has been read
+    private SharedScan.Reader reader;
+    //true once every chunk has been read
+    private boolean finished;
+    //batches of the current chunk and the index of the next one
+    private List<TupleBatch> chunk;
+    private int nextBatch;
+    //returns the rows of the batches to getNextTuple
+    private final BatchTupleReader tupleReader = new BatchTupleReader(this);
+
+    /**
+     * SharedScanOperator constructor
+     * @param name table name
+     */
+    public SharedScanOperator(String name) {
+        fileName = name;
+        String relation = DatabaseCatalogue.getAlias(name);
+        filePath = DatabaseCatalogue.getCsvPath(relation);
+        List<String> types = DatabaseCatalogue.getInitialTypes(relation);
+        stringColumns = new boolean[types.size()];
+        for (int i = 0; i < types.size(); i++)
+            stringColumns[i] = types.get(i).equals("string");
+        layout = new TupleLayout(DatabaseCatalogue.getSchemaList(name), stringColumns);
+    }
+
+    /**
+     * Returns a tuple containing the next row of the shared scan
+     * @return tuple with the row's values, or null once every row has been read
+     */
+    @Override
+    public Tuple getNextTuple() {
+        return tupleReader.next();
+    }
+
+    /**
+     * Returns the next batch of the shared scan, attaching to it on the first call
+     * @return batch with the rows' values, or null once every row has been read
+     */
+    @Override
+    public TupleBatch getNextBatch() {
+        while (chunk == null || nextBatch == chunk.size()) {
+            if (finished || !attach())
+                return null;
+            chunk = reader.nextChunk();
+            nextBatch = 0;
+            if (chunk == null) {
+                reader = null;
+                finished = true;
+                return null;
+            }
+        }
+        TupleBatch shared = chunk.get(nextBatch++);
+        return new TupleBatch(layout, shared.getIntColumns(), shared.getStringColumns(), shared.getSize(), null, shared.getSize());
+    }
+
+    /**
+     * Attaches to the shared scan of the relation if the operator has not yet
+     * @return false if the file cannot be mapped
+     */
+    private boolean attach() {
+        if (reader == null) {
+            try {
+                reader = SharedScan.attach(filePath, stringColumns);
+            } catch (IOException e) {
+                System.out.println("Error when attaching to the shared scan of " + filePath);
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Detaches from the shared scan, the next read attaches again and reads every row from wherever the scan is
+     */
+    @Override
+    public void reset() {
+        if (reader != null)
+            reader.detach();
+        reader = null;
+        finished = false;
+        chunk = null;
+        tupleReader.reset();
+    }
+
+    /**
+     * Return table name
+     * @return table name
+     */
+    public String getName() {
+        return fileName;
+    }
+}
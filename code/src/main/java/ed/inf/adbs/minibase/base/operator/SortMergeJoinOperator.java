@@ -0,0 +1,330 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.*;
+
+import ed.inf.adbs.minibase.base.*;
+
+
+/**
+ *
+ * Sort-merge join operator. Both inputs are sorted on the join key with an external sort and then merged. If the join
+ * has common variables or equality conditions the inputs are sorted on those and merged group by group. Otherwise the
+ * join is a band join on an inequality condition such as x &lt; u: the inputs are sorted on the two compared terms,
+ * and for each tuple of one input the tuples of the other input that satisfy the condition form a prefix of its
+ * sorted order, so only that prefix is scanned. Inputs the planner knows to be sorted on an equality key are merged
+ * without sorting them. The sorted runs are deleted once the join is done or reset
+ *
+ */
+public class SortMergeJoinOperator extends Operator {
+    // Left and right child operators
+    private final Operator leftOperator;
+    private final Operator rightOperator;
+    // List of join conditions
+    private final List<ComparisonAtom> comparisonAtoms;
+    // List of strings representing the common variables in the tuples
+    private final List<String> commonVariables;
+    // memory budget in bytes of each external sort
+    private final long memoryBudget;
+    // true if both children return their tuples in ascending order of the equality join key
+    private final boolean sortedInputs;
+
+    // join keys and residual conditions resolved against the tuple schemas
+    private JoinConditions joinConditions;
+    // sorted inputs, the children themselves if they are already sorted
+    private Operator leftSorted;
+    private Operator rightSorted;
+    // current tuples of the merge, and the group of right tuples with the key of the current left tuple
+    private Tuple leftTuple;
+    private Tuple rightTuple;
+    private List<Tuple> rightGroup;
+    private int groupIndex;
+    // layout of the joined tuples
+    private TupleLayout outputLayout;
+    // band join state: positions of the compared terms, whether the condition is strict, which input drives the
+    // join and its current tuple
+    private boolean bandJoin;
+    private int leftBandPosition;
+    private int rightBandPosition;
+    private boolean strictBand;
+    private boolean driveRight;
+    private Tuple driveTuple;
+    private boolean initialised;
+    private boolean finished;
+
+    /**
+     * SortMergeJoinOperator constructor, the inputs are sorted lazily on the first call to getNextTuple
+     * @param left operator for the left table
+     * @param right operator for the right table
+     * @param atoms join conditions list
+     * @param variables Common variable names list
+     * @param budget memory budget in bytes of each external sort
+     */
+    public SortMergeJoinOperator(Operator left, Operator right, List<ComparisonAtom> atoms, List<String> variables, long budget) {
+        this(left, right, atoms, variables, budget, false);
+    }
+
+    /**
+     * SortMergeJoinOperator constructor for inputs that may already be sorted
+     * @param left operator for the left table
+     * @param right operator for the right table
+     * @param atoms join conditions list
+     * @param variables Common variable names list
+     * @param budget memory budget in bytes of each external sort
+     * @param sorted true if both inputs are in ascending order of the only equality join key, they are then merged as
+     *               they come
+     */
+    public SortMergeJoinOperator(Operator left, Operator right, List<ComparisonAtom> atoms, List<String> variables,
+                                 long budget, boolean sorted) {
+        leftOperator = left;
+        rightOperator = right;
+        comparisonAtoms = atoms;
+        commonVariables = variables;
+        memoryBudget = budget;
+        sortedInputs = sorted;
+    }
+
+    /**
+     * Returns true if the join can be evaluated with a sort-merge join, i.e. if there is an equality join predicate
+     * or an inequality condition other than !=
+     * @param atoms join conditions list
+     * @param variables common variable names list
+     * @return true if the inputs can be merged on some join condition
+     */
+    public static boolean isApplicable(List<ComparisonAtom> atoms, List<String> variables) {
+        if (HashJoinOperator.hasEquiJoinPredicate(atoms, variables))
+            return true;
+        for (ComparisonAtom atom : atoms) {
+            if (isBandOperator(atom.getOp()))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isBandOperator(ComparisonOperator op) {
+        return op == ComparisonOperator.LT || op == ComparisonOperator.LEQ || op == ComparisonOperator.GT || op == ComparisonOperator.GEQ;
+    }
+
+    /**
+     * Returns the next tuple of the join, the left tuple's terms always come first
+     * @return next tuple resulting of the join condition
+     */
+    @Override
+    public Tuple getNextTuple() {
+        if (!initialised) {
+            initialised = true;
+            initialise();
+        }
+        if (finished)
+            return null;
+        Tuple tuple = bandJoin ? nextBandTuple() : nextMergeTuple();
+        if (tuple == null) {
+            finished = true;
+            closeSorts();
+        }
+        return tuple;
+    }
+
+    /**
+     * Reads the first tuple of each input to resolve the join conditions, then sets up the sorts on the merge key or
+     * on the terms of the band condition
+     */
+    private void initialise() {
+        Tuple leftFirst = leftOperator.getNextTuple();
+        Tuple rightFirst = rightOperator.getNextTuple();
+        // if either input is empty the join is empty
+        if (leftFirst == null || rightFirst == null) {
+            finished = true;
+            return;
+        }
+        joinConditions = new JoinConditions(comparisonAtoms, commonVariables, leftFirst.getSchema(), rightFirst.getSchema());
+        if (sortedInputs && joinConditions.hasKeys()) {
+            leftSorted = leftOperator;
+            rightSorted = rightOperator;
+            leftTuple = leftFirst;
+            rightTuple = rightFirst;
+            return;
+        }
+        int[] leftKeys;
+        int[] rightKeys;
+        if (joinConditions.hasKeys()) {
+            leftKeys = joinConditions.getLeftKeyPositions();
+            rightKeys = joinConditions.getRightKeyPositions();
+        } else {
+            bandJoin = true;
+            initialiseBand(leftFirst.getSchema(), rightFirst.getSchema());
+            leftKeys = new int[]{leftBandPosition};
+            rightKeys = new int[]{rightBandPosition};
+        }
+        leftSorted = new SortOperator(leftOperator, SortOperator.keyComparator(leftKeys), memoryBudget, leftFirst);
+        rightSorted = new SortOperator(rightOperator, SortOperator.keyComparator(rightKeys), memoryBudget, rightFirst);
+        if (!bandJoin) {
+            leftTuple = leftSorted.getNextTuple();
+            rightTuple = rightSorted.getNextTuple();
+        }
+    }
+
+    /**
+     * Picks the first inequality condition as the band condition and rewrites it as (left term op right term)
+     * @param leftSchema schema of the left tuples
+     * @param rightSchema schema of the right tuples
+     */
+    private void initialiseBand(List<String> leftSchema, List<String> rightSchema) {
+        Map<String, Integer> termPositions1 = JoinOperator.getTermPositions(leftSchema);
+        Map<String, Integer> termPositions2 = JoinOperator.getTermPositions(rightSchema);
+        for (ComparisonAtom atom : joinConditions.getResidualAtoms()) {
+            if (!isBandOperator(atom.getOp()))
+                continue;
+            String term1Name = ((Variable) atom.getTerm1()).getName();
+            String term2Name = ((Variable) atom.getTerm2()).getName();
+            ComparisonOperator op = atom.getOp();
+            if (termPositions1.containsKey(term1Name)) {
+                leftBandPosition = termPositions1.get(term1Name);
+                rightBandPosition = termPositions2.get(term2Name);
+            } else {
+                // the condition is (right op left), flip it so that it reads (left op right)
+                leftBandPosition = termPositions1.get(term2Name);
+                rightBandPosition = termPositions2.get(term1Name);
+                op = op.reverse();
+            }
+            strictBand = op == ComparisonOperator.LT || op == ComparisonOperator.GT;
+            // for left < right the matching left tuples are a prefix of the sorted left input, so the right input
+            // drives the join, and the other way round for left > right
+            driveRight = op == ComparisonOperator.LT || op == ComparisonOperator.LEQ;
+            return;
+        }
+    }
+
+    /**
+     * Returns the next tuple of the merge on the equality keys. Right tuples with the same key are collected into a
+     * group and every left tuple with that key is combined with the whole group
+     * @return next joined tuple or null at the end of the merge
+     */
+    private Tuple nextMergeTuple() {
+        while (true) {
+            if (rightGroup != null) {
+                // return the matches of the current left tuple with the group
+                while (groupIndex < rightGroup.size()) {
+                    Tuple r = rightGroup.get(groupIndex++);
+                    if (joinConditions.evaluateResidual(leftTuple, r))
+                        return combine(leftTuple, r);
+                }
+                // the next left tuple may have the same key and match the group again
+                leftTuple = leftSorted.getNextTuple();
+                groupIndex = 0;
+                if (leftTuple != null && compareKeys(leftTuple, rightGroup.get(0)) == 0)
+                    continue;
+                rightGroup = null;
+            }
+            if (leftTuple == null || rightTuple == null)
+                return null;
+            int c = compareKeys(leftTuple, rightTuple);
+            if (c < 0) {
+                leftTuple = leftSorted.getNextTuple();
+            } else if (c > 0) {
+                rightTuple = rightSorted.getNextTuple();
+            } else {
+                // collect the right tuples with this key
+                rightGroup = new ArrayList<>();
+                rightGroup.add(rightTuple);
+                rightTuple = rightSorted.getNextTuple();
+                while (rightTuple != null && compareKeys(leftTuple, rightTuple) == 0) {
+                    rightGroup.add(rightTuple);
+                    rightTuple = rightSorted.getNextTuple();
+                }
+                groupIndex = 0;
+            }
+        }
+    }
+
+    /**
+     * Compares the merge key of a left tuple with that of a right tuple
+     * @param left left tuple
+     * @param right right tuple
+     * @return negative, zero or positive if the left key is less than, equal to or greater than the right key
+     */
+    private int compareKeys(Tuple left, Tuple right) {
+        int[] leftKeys = joinConditions.getLeftKeyPositions();
+        int[] rightKeys = joinConditions.getRightKeyPositions();
+        for (int i = 0; i < leftKeys.length; i++) {
+            int c = Tuple.compareColumns(left, leftKeys[i], right, rightKeys[i]);
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    }
+
+    /**
+     * Combines a left and a right tuple, the layout of the joined tuples is created on the first call
+     * @param left left tuple
+     * @param right right tuple
+     * @return joined tuple
+     */
+    private Tuple combine(Tuple left, Tuple right) {
+        if (outputLayout == null)
+            outputLayout = JoinOperator.combineLayouts(left.getLayout(), right.getLayout());
+        return JoinOperator.combineTuples(left, right, outputLayout);
+    }
+
+    /**
+     * Returns the next tuple of the band join. For each tuple of the driving input the other sorted input is scanned
+     * from the start for as long as the band condition holds
+     * @return next joined tuple or null at the end of the join
+     */
+    private Tuple nextBandTuple() {
+        Operator driveSorted = driveRight ? rightSorted : leftSorted;
+        Operator scanSorted = driveRight ? leftSorted : rightSorted;
+        int drivePosition = driveRight ? rightBandPosition : leftBandPosition;
+        int scanPosition = driveRight ? leftBandPosition : rightBandPosition;
+        while (true) {
+            if (driveTuple != null) {
+                Tuple scanTuple = scanSorted.getNextTuple();
+                if (scanTuple != null) {
+                    int c = Tuple.compareColumns(scanTuple, scanPosition, driveTuple, drivePosition);
+                    if (strictBand ? c < 0 : c <= 0) {
+                        Tuple l = driveRight ? scanTuple : driveTuple;
+                        Tuple r = driveRight ? driveTuple : scanTuple;
+                        if (joinConditions.evaluateResidual(l, r))
+                            return combine(l, r);
+                        continue;
+                    }
+                }
+                // the prefix of the scanned input matching this tuple has been read
+                driveTuple = null;
+            }
+            driveTuple = driveSorted.getNextTuple();
+            if (driveTuple == null)
+                return null;
+            scanSorted.reset();
+        }
+    }
+
+    /**
+     * Deletes the sorted runs of the inputs the join sorted
+     */
+    private void closeSorts() {
+        if (leftSorted instanceof SortOperator)
+            ((SortOperator) leftSorted).close();
+        if (rightSorted instanceof SortOperator)
+            ((SortOperator) rightSorted).close();
+    }
+
+    /**
+     * Resets both children so the inputs are read and sorted again on the next call to getNextTuple
+     */
+    @Override
+    public void reset() {
+        closeSorts();
+        leftOperator.reset();
+        rightOperator.reset();
+        leftSorted = null;
+        rightSorted = null;
+        leftTuple = null;
+        rightTuple = null;
+        rightGroup = null;
+        driveTuple = null;
+        bandJoin = false;
+        initialised = false;
+        finished = false;
+    }
+
+}
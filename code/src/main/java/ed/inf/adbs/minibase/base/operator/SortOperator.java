@@ -0,0 +1,210 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.IOException;
+import java.util.*;
+
+import ed.inf.adbs.minibase.base.Tuple;
+
+
+/**
+ *
+ * Sort operator, sorts the tuples of its child with a bounded-memory external sort. Tuples are collected until the
+ * memory budget is reached, each such run is sorted and written to a spill file, and the runs are then merged. If the
+ * whole input fits in memory it is sorted in memory and nothing is written. Resetting the operator rewinds the sorted
+ * output without sorting again, closing it deletes the sorted output
+ *
+ */
+public class SortOperator extends Operator {
+    // maximum number of runs merged at once
+    private static final int MERGE_FANIN = 64;
+
+    // child operator
+    private final Operator operator;
+    // order of the output
+    private final Comparator<Tuple> comparator;
+    // memory budget in bytes for a run
+    private final long memoryBudget;
+    // tuple already read from the child by the caller, sorted with the rest of the input
+    private Tuple firstTuple;
+    // sorted tuples if the input fit in memory
+    private List<Tuple> sortedTuples;
+    private int index;
+    // sorted file and a reader over it if the input did not fit in memory
+    private SpillFile sortedFile;
+    private SpillFile.Reader reader;
+    private boolean sorted;
+
+    /**
+     * SortOperator constructor
+     * @param op child operator
+     * @param order order of the output
+     * @param budget memory budget in bytes for a sorted run
+     */
+    public SortOperator(Operator op, Comparator<Tuple> order, long budget) {
+        this(op, order, budget, null);
+    }
+
+    /**
+     * SortOperator constructor for a child whose first tuple has already been read
+     * @param op child operator
+     * @param order order of the output
+     * @param budget memory budget in bytes for a sorted run
+     * @param first first tuple of the child, or null if nothing has been read from it
+     */
+    public SortOperator(Operator op, Comparator<Tuple> order, long budget, Tuple first) {
+        operator = op;
+        comparator = order;
+        memoryBudget = budget;
+        firstTuple = first;
+    }
+
+    /**
+     * Returns a comparator ordering tuples on the terms at the given positions
+     * @param positions positions of the sort key terms
+     * @return comparator on the sort key
+     */
+    public static Comparator<Tuple> keyComparator(int[] positions) {
+        return (t1, t2) -> {
+            for (int p : positions) {
+                int c = Tuple.compareColumns(t1, p, t2, p);
+                if (c != 0)
+                    return c;
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * Returns the next tuple in sorted order, sorting the input on the first call
+     * @return next sorted tuple
+     * @throws RuntimeException if a run cannot be written or read, the query then fails instead of missing rows
+     */
+    @Override
+    public Tuple getNextTuple() {
+        try {
+            if (!sorted) {
+                sort();
+                sorted = true;
+            }
+            if (sortedTuples != null)
+                return index < sortedTuples.size() ? sortedTuples.get(index++) : null;
+            if (reader == null)
+                reader = sortedFile.openReader();
+            return reader.next();
+        } catch (IOException e) {
+            throw new RuntimeException("Error in sort operator when writing or reading a run", e);
+        }
+    }
+
+    /**
+     * Reads the child into sorted runs, then merges the runs until one is left
+     * @throws IOException if a run cannot be written or read
+     */
+    private void sort() throws IOException {
+        List<Tuple> buffer = new ArrayList<>();
+        List<SpillFile> runs = new ArrayList<>();
+        long size = 0;
+        Tuple tuple = firstTuple != null ? firstTuple : operator.getNextTuple();
+        firstTuple = null;
+        while (tuple != null) {
+            buffer.add(tuple);
+            size += tuple.getEstimatedSize();
+            if (size > memoryBudget) {
+                runs.add(writeRun(buffer));
+                buffer = new ArrayList<>();
+                size = 0;
+            }
+            tuple = operator.getNextTuple();
+        }
+        // everything fit in memory
+        if (runs.isEmpty()) {
+            buffer.sort(comparator);
+            sortedTuples = buffer;
+            return;
+        }
+        if (!buffer.isEmpty())
+            runs.add(writeRun(buffer));
+        while (runs.size() > 1) {
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MERGE_FANIN)
+                merged.add(mergeRuns(runs.subList(i, Math.min(i + MERGE_FANIN, runs.size()))));
+            runs = merged;
+        }
+        sortedFile = runs.get(0);
+    }
+
+    /**
+     * Sorts the buffered tuples and writes them to a new run
+     * @param buffer tuples of the run
+     * @return sorted run
+     * @throws IOException if the run cannot be written
+     */
+    private SpillFile writeRun(List<Tuple> buffer) throws IOException {
+        buffer.sort(comparator);
+        SpillFile run = new SpillFile();
+        for (Tuple t : buffer)
+            run.write(t);
+        run.finishWriting();
+        return run;
+    }
+
+    /**
+     * Merges sorted runs into a single sorted run and deletes them
+     * @param runs runs to merge
+     * @return merged run
+     * @throws IOException if a run cannot be read or written
+     */
+    private SpillFile mergeRuns(List<SpillFile> runs) throws IOException {
+        SpillFile merged = new SpillFile();
+        List<SpillFile.Reader> readers = new ArrayList<>();
+        // queue of the current tuple of each run, paired with the index of its reader
+        PriorityQueue<Map.Entry<Tuple, Integer>> queue = new PriorityQueue<>((e1, e2) -> {
+            int c = comparator.compare(e1.getKey(), e2.getKey());
+            return c != 0 ? c : Integer.compare(e1.getValue(), e2.getValue());
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            SpillFile.Reader r = runs.get(i).openReader();
+            readers.add(r);
+            Tuple t = r.next();
+            if (t != null)
+                queue.add(new AbstractMap.SimpleEntry<>(t, i));
+        }
+        while (!queue.isEmpty()) {
+            Map.Entry<Tuple, Integer> entry = queue.poll();
+            merged.write(entry.getKey());
+            Tuple t = readers.get(entry.getValue()).next();
+            if (t != null)
+                queue.add(new AbstractMap.SimpleEntry<>(t, entry.getValue()));
+        }
+        for (int i = 0; i < runs.size(); i++) {
+            readers.get(i).close();
+            runs.get(i).delete();
+        }
+        merged.finishWriting();
+        return merged;
+    }
+
+    /**
+     * Rewinds the sorted output, the input is not sorted again
+     */
+    @Override
+    public void reset() {
+        index = 0;
+        if (reader != null)
+            reader.close();
+        reader = null;
+    }
+
+    /**
+     * Deletes the sorted run, or drops the sorted tuples if the input fit in memory. A later read sorts the child
+     * again from wherever it is
+     */
+    public void close() {
+        reset();
+        if (sortedFile != null)
+            sortedFile.delete();
+        sortedFile = null;
+        sortedTuples = null;
+        sorted = false;
+    }
+}
@@ -0,0 +1,138 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.*;
+
+import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
+
+/**
+ *
+ * Temporary file that operators write tuples to when their input does not fit in their memory budget. Tuples are
+ * written in a compact binary form, the integer values followed by the string values, and all tuples of a file share
+ * the layout of the first tuple written. The operator that creates a file deletes it once it is done with it
+ *
+ */
+public class SpillFile {
+    private final File file;
+    private DataOutputStream outputStream;
+    // layout of the tuples in the file
+    private TupleLayout layout;
+    private long bytesWritten;
+    private long tupleCount;
+
+    /**
+     * SpillFile constructor, creates the temporary file and opens it for writing
+     * @throws IOException if the file cannot be created
+     */
+    public SpillFile() throws IOException {
+        file = File.createTempFile("minibase", ".spill");
+        outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Appends a tuple to the file
+     * @param tuple tuple to write
+     * @throws IOException if the tuple cannot be written
+     */
+    public void write(Tuple tuple) throws IOException {
+        if (layout == null)
+            layout = tuple.getLayout();
+        for (int i = 0; i < layout.size(); i++) {
+            if (!layout.isString(i))
+                outputStream.writeInt(tuple.getInt(i));
+        }
+        // strings are preceded by a flag as the columns a scan does not read are null
+        for (int i = 0; i < layout.size(); i++) {
+            if (layout.isString(i)) {
+                String value = tuple.getString(i);
+                outputStream.writeBoolean(value != null);
+                if (value != null)
+                    outputStream.writeUTF(value);
+            }
+        }
+        tupleCount++;
+    }
+
+    /**
+     * Flushes and closes the file for writing, must be called before the file is read
+     * @throws IOException if the file cannot be closed
+     */
+    public void finishWriting() throws IOException {
+        if (outputStream != null) {
+            outputStream.close();
+            bytesWritten = outputStream.size();
+            outputStream = null;
+        }
+    }
+
+    /**
+     * Opens a new reader positioned at the first tuple of the file
+     * @return reader over the tuples of the file
+     * @throws IOException if the file cannot be opened
+     */
+    public Reader openReader() throws IOException {
+        finishWriting();
+        return new Reader();
+    }
+
+    /**
+     * Returns the number of bytes written to the file, only known once writing has finished
+     * @return bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Closes and deletes the file
+     */
+    public void delete() {
+        try {
+            finishWriting();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!file.delete())
+            file.deleteOnExit();
+    }
+
+    /**
+     *
+     * Sequential reader over the tuples of a spill file
+     *
+     */
+    public class Reader {
+        private final DataInputStream inputStream;
+        private long tuplesRead;
+
+        private Reader() throws IOException {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        /**
+         * Reads the next tuple of the file
+         * @return next tuple or null once every tuple has been read
+         * @throws IOException if the file cannot be read
+         */
+        public Tuple next() throws IOException {
+            if (tuplesRead == tupleCount)
+                return null;
+            int[] ints = new int[layout.getIntCount()];
+            for (int i = 0; i < ints.length; i++)
+                ints[i] = inputStream.readInt();
+            String[] strings = new String[layout.getStringCount()];
+            for (int i = 0; i < strings.length; i++)
+                strings[i] = inputStream.readBoolean() ? inputStream.readUTF() : null;
+            tuplesRead++;
+            return new Tuple(layout, ints, strings);
+        }
+
+        public void close() {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
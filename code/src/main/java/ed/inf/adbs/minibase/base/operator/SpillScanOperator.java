@@ -0,0 +1,55 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.io.IOException;
+
+import ed.inf.adbs.minibase.base.Tuple;
+
+/**
+ *
+ * Operator that scans the tuples of a spill file, lets spilled partitions be fed back into other operators
+ *
+ */
+public class SpillScanOperator extends Operator {
+    //file to be scanned
+    private final SpillFile spillFile;
+    //reader over the file, opened on the first call to getNextTuple
+    private SpillFile.Reader reader;
+
+    /**
+     * SpillScanOperator constructor
+     * @param file spill file to be scanned, must have finished writing
+     */
+    public SpillScanOperator(SpillFile file) {
+        spillFile = file;
+    }
+
+    /**
+     * Returns the next tuple of the spill file
+     * @return next tuple or null at the end of the file
+     * @throws RuntimeException if the file cannot be read, the query then fails instead of missing the rest of the file
+     */
+    @Override
+    public Tuple getNextTuple() {
+        try {
+            if (reader == null)
+                reader = spillFile.openReader();
+            Tuple tuple = reader.next();
+            if (tuple == null) {
+                reader.close();
+            }
+            return tuple;
+        } catch (IOException e) {
+            throw new RuntimeException("Error when reading spill file", e);
+        }
+    }
+
+    /**
+     * Closes the reader so the file is read from the start again
+     */
+    @Override
+    public void reset() {
+        if (reader != null)
+            reader.close();
+        reader = null;
+    }
+}
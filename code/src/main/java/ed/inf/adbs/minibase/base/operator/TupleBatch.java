@@ -0,0 +1,226 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
+
+/**
+ *
+ * A batch of rows passed between operators by getNextBatch, stored as one vector per column. As in a tuple the
+ * layout of the batch gives the type of every column, integer columns are int vectors and string columns are string
+ * vectors, so filling and reading a batch creates no terms. A selection vector lists the rows of the batch that are
+ * still part of the result, so a selection only has to update it instead of copying rows, and a projection can share
+ * the column vectors of its input. Consumers may keep the batches they are given, so an operator must not refill the
+ * vectors of a batch it has returned
+ *
+ */
+public class TupleBatch {
+    // schema and column types of the rows, shared by the whole batch
+    private final TupleLayout layout;
+    // vectors of the integer and of the string columns, indexed by the slot of the column then by row
+    private final int[][] intColumns;
+    private final String[][] stringColumns;
+    private final int capacity;
+    // number of rows filled
+    private int size;
+    // indexes of the selected rows in increasing order, null if every row is selected
+    private int[] selection;
+    private int selectedCount;
+
+    /**
+     * TupleBatch constructor for an empty batch that rows are added to
+     * @param l layout of the rows
+     * @param rows maximum number of rows
+     */
+    public TupleBatch(TupleLayout l, int rows) {
+        layout = l;
+        capacity = rows;
+        intColumns = new int[l.getIntCount()][rows];
+        stringColumns = new String[l.getStringCount()][rows];
+    }
+
+    /**
+     * TupleBatch constructor for a batch over existing column vectors, used to share vectors between batches
+     * @param l layout of the rows
+     * @param ints vectors of the integer columns, in slot order
+     * @param strings vectors of the string columns, in slot order
+     * @param rows number of rows filled
+     * @param selected indexes of the selected rows, null if all are selected
+     * @param count number of selected rows
+     */
+    public TupleBatch(TupleLayout l, int[][] ints, String[][] strings, int rows, int[] selected, int count) {
+        layout = l;
+        intColumns = ints;
+        stringColumns = strings;
+        capacity = rows;
+        size = rows;
+        selection = selected;
+        selectedCount = count;
+    }
+
+    /**
+     * Creates a batch with no columns and no rows, used to mark the end of a queue of batches
+     * @return new empty batch
+     */
+    static TupleBatch marker() {
+        return new TupleBatch(new TupleLayout(new ArrayList<>(), new boolean[0]), 0);
+    }
+
+    public List<String> getSchema() {
+        return layout.getSchema();
+    }
+
+    public TupleLayout getLayout() {
+        return layout;
+    }
+
+    public int getColumnCount() {
+        return layout.size();
+    }
+
+    public boolean isString(int column) {
+        return layout.isString(column);
+    }
+
+    /**
+     * Returns the vector of an integer column, indexed by row
+     * @param column column index
+     * @return column vector
+     */
+    public int[] getIntColumn(int column) {
+        return intColumns[layout.getSlot(column)];
+    }
+
+    /**
+     * Returns the vector of a string column, indexed by row
+     * @param column column index
+     * @return column vector
+     */
+    public String[] getStringColumn(int column) {
+        return stringColumns[layout.getSlot(column)];
+    }
+
+    /**
+     * Returns the vectors of the integer columns in slot order, for a batch sharing them
+     * @return integer column vectors
+     */
+    public int[][] getIntColumns() {
+        return intColumns;
+    }
+
+    /**
+     * Returns the vectors of the string columns in slot order, for a batch sharing them
+     * @return string column vectors
+     */
+    public String[][] getStringColumns() {
+        return stringColumns;
+    }
+
+    /**
+     * Returns the number of rows filled, selected or not
+     * @return number of rows
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Returns the number of selected rows
+     * @return number of selected rows
+     */
+    public int getSelectedCount() {
+        return selection == null ? size : selectedCount;
+    }
+
+    /**
+     * Returns the row index of the i-th selected row
+     * @param i index among the selected rows
+     * @return row index
+     */
+    public int getSelectedRow(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /**
+     * Sets the selected rows
+     * @param selected indexes of the selected rows in increasing order
+     * @param count number of selected rows
+     */
+    public void setSelection(int[] selected, int count) {
+        selection = selected;
+        selectedCount = count;
+    }
+
+    /**
+     * Appends a row given as the value arrays of a tuple of the batch's layout, the batch must not be full and no
+     * selection must have been set
+     * @param ints values of the integer columns
+     * @param strings values of the string columns
+     */
+    public void addRow(int[] ints, String[] strings) {
+        for (int s = 0; s < ints.length; s++)
+            intColumns[s][size] = ints[s];
+        for (int s = 0; s < strings.length; s++)
+            stringColumns[s][size] = strings[s];
+        size++;
+    }
+
+    /**
+     * Appends a tuple whose columns have the types of the batch's columns
+     * @param tuple values of the row
+     */
+    public void addRow(Tuple tuple) {
+        copyColumns(tuple, 0);
+        size++;
+    }
+
+    /**
+     * Appends the concatenation of two tuples, used by joins
+     * @param first values of the first row
+     * @param second values of the second row
+     */
+    public void addRow(Tuple first, Tuple second) {
+        copyColumns(first, 0);
+        copyColumns(second, first.getLength());
+        size++;
+    }
+
+    /**
+     * Copies the values of a tuple into the next row, starting at a column
+     * @param tuple values to copy
+     * @param offset column of the batch the first value goes to
+     */
+    private void copyColumns(Tuple tuple, int offset) {
+        for (int c = 0; c < tuple.getLength(); c++) {
+            if (layout.isString(offset + c))
+                stringColumns[layout.getSlot(offset + c)][size] = tuple.getString(c);
+            else
+                intColumns[layout.getSlot(offset + c)][size] = tuple.getInt(c);
+        }
+    }
+
+    /**
+     * Returns a row as a tuple, the tuples of a batch share its layout
+     * @param row row index
+     * @return tuple with the row's values
+     */
+    public Tuple getTuple(int row) {
+        int[] ints = new int[intColumns.length];
+        for (int s = 0; s < ints.length; s++)
+            ints[s] = intColumns[s][row];
+        String[] strings = new String[stringColumns.length];
+        for (int s = 0; s < strings.length; s++)
+            strings[s] = stringColumns[s][row];
+        return new Tuple(layout, ints, strings);
+    }
+}
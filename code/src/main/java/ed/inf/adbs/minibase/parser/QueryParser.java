@@ -4,9 +4,12 @@ import ed.inf.adbs.minibase.parser.generated.MinibaseBaseVisitor;
 import ed.inf.adbs.minibase.parser.generated.MinibaseLexer;
 import ed.inf.adbs.minibase.parser.generated.MinibaseParser;
 import ed.inf.adbs.minibase.base.*;
+import org.antlr.v4.runtime.BaseErrorListener;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
 import org.antlr.v4.runtime.TokenStream;
 
 import java.io.IOException;
@@ -26,13 +29,31 @@ public class QueryParser {
     public static Query parse(String input) {
         CharStream charStream = CharStreams.fromString(input);
         MinibaseLexer lexer = new MinibaseLexer(charStream);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(SyntaxErrorListener.INSTANCE);
         TokenStream tokens = new CommonTokenStream(lexer);
         MinibaseParser parser = new MinibaseParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(SyntaxErrorListener.INSTANCE);
 
         QueryVisitor queryVisitor = new QueryVisitor();
         return parser.query().accept(queryVisitor);
     }
 
+    /**
+     * Fails the parse on the first syntax error instead of recovering from it, since the visitors expect a complete
+     * parse tree
+     */
+    private static class SyntaxErrorListener extends BaseErrorListener {
+        static final SyntaxErrorListener INSTANCE = new SyntaxErrorListener();
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int position,
+                                String msg, RecognitionException e) {
+            throw new IllegalArgumentException("line " + line + ":" + position + " " + msg);
+        }
+    }
+
     private static class QueryVisitor extends MinibaseBaseVisitor<Query> {
         @Override
         public Query visitQuery(MinibaseParser.QueryContext ctx) {
@@ -0,0 +1,96 @@
+package ed.inf.adbs.minibase;
+
+import ed.inf.adbs.minibase.base.ExecutionSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Compares the parallel hash join with the serial one on a generated database. The joins of a two-way and a three-way
+ * query are run with one join thread and then with several, each timing being the best of a few runs after a warm-up
+ * run. Not a unit test, run it after mvn test-compile with
+ * java -cp target/classes:target/test-classes ed.inf.adbs.minibase.JoinBenchmark [rows] [threads] [runs]
+ */
+public class JoinBenchmark {
+
+    private static final String[] QUERIES = {
+            "Q(x, y, w) :- R(x, y, z), S(x, w, t)",
+            "Q(y, w, r) :- R(x, y, z), S(x, w, t), T(x, r), r < 50"
+    };
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 400000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        File db = Files.createTempDirectory("minibase-benchmark").toFile();
+        try {
+            generateDatabase(db, rows);
+            System.out.println("rows " + rows + ", " + threads + " join threads, best of " + runs + " runs");
+            for (int q = 0; q < QUERIES.length; q++) {
+                File query = new File(db, "query" + q + ".txt");
+                Files.write(query.toPath(), QUERIES[q].getBytes());
+                File output = new File(db, "output" + q + ".csv");
+                long serial = time(db, query, output, 1, runs);
+                long parallel = time(db, query, output, threads, runs);
+                System.out.printf("%s%n  1 thread %d ms, %d threads %d ms, speedup %.2f%n", QUERIES[q], serial, threads,
+                        parallel, (double) serial / parallel);
+            }
+        } finally {
+            ExecutionSettings.setJoinThreads(1);
+            deleteRecursively(db);
+        }
+    }
+
+    /**
+     * Runs a query once to warm up then several times
+     * @return best time in milliseconds
+     */
+    private static long time(File db, File query, File output, int threads, int runs) {
+        String[] args = {"--join-threads=" + threads, db.getPath(), query.getPath(), output.getPath()};
+        Minibase.main(args);
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < runs; r++) {
+            long start = System.nanoTime();
+            Minibase.main(args);
+            best = Math.min(best, (System.nanoTime() - start) / 1000000);
+        }
+        return best;
+    }
+
+    /**
+     * Writes the schema and the relations R(int, int, string), S(int, string, int) and T(int, int), the first
+     * column of every relation being a join key with about half as many distinct values as R has rows
+     */
+    private static void generateDatabase(File db, int rows) throws IOException {
+        File files = new File(db, "files");
+        files.mkdirs();
+        Files.write(new File(db, "schema.txt").toPath(), "R int int string\nS int string int\nT int int\n".getBytes());
+        Random random = new Random(42);
+        String[] words = {"adbs", "anlp", "ids", "mlpr", "rl", "smith"};
+        int keys = Math.max(1, rows / 2);
+        try (PrintWriter r = new PrintWriter(new File(files, "R.csv"))) {
+            for (int i = 0; i < rows; i++)
+                r.println(random.nextInt(keys) + ", " + random.nextInt(100) + ", '" + words[random.nextInt(words.length)] + "'");
+        }
+        try (PrintWriter s = new PrintWriter(new File(files, "S.csv"))) {
+            for (int i = 0; i < rows / 2; i++)
+                s.println(random.nextInt(keys) + ", '" + words[random.nextInt(words.length)] + "', " + random.nextInt(100));
+        }
+        try (PrintWriter t = new PrintWriter(new File(files, "T.csv"))) {
+            for (int i = 0; i < rows / 4; i++)
+                t.println(random.nextInt(keys) + ", " + random.nextInt(100));
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                deleteRecursively(child);
+        }
+        file.delete();
+    }
+}
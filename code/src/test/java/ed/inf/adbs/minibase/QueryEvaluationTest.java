@@ -0,0 +1,685 @@
+package ed.inf.adbs.minibase;
+
+import ed.inf.adbs.minibase.base.Atom;
+import ed.inf.adbs.minibase.base.ComparisonAtom;
+import ed.inf.adbs.minibase.base.DatabaseCatalogue;
+import ed.inf.adbs.minibase.base.ExecutionSettings;
+import ed.inf.adbs.minibase.base.TableStatistics;
+import ed.inf.adbs.minibase.base.Query;
+import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
+import ed.inf.adbs.minibase.base.operator.BinaryResultSink;
+import ed.inf.adbs.minibase.base.operator.ExchangeOperator;
+import ed.inf.adbs.minibase.base.operator.GraceHashJoinOperator;
+import ed.inf.adbs.minibase.base.operator.HashAggregateOperator;
+import ed.inf.adbs.minibase.base.operator.HashJoinOperator;
+import ed.inf.adbs.minibase.base.operator.Operator;
+import ed.inf.adbs.minibase.base.operator.ParallelHashJoinOperator;
+import ed.inf.adbs.minibase.base.operator.ScanOperator;
+import ed.inf.adbs.minibase.base.operator.SelectStatement;
+import ed.inf.adbs.minibase.base.operator.SortMergeJoinOperator;
+import ed.inf.adbs.minibase.base.operator.SpillFile;
+import ed.inf.adbs.minibase.base.operator.SpillScanOperator;
+import ed.inf.adbs.minibase.base.operator.TupleBatch;
+import ed.inf.adbs.minibase.parser.QueryParser;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the evaluation queries through Minibase and compares the output with the expected output. Rows are compared
+ * as sorted lists since the order of the result is not part of the query semantics
+ */
+public class QueryEvaluationTest {
+
+    private static final String DB_DIR = "data/evaluation/db";
+    private static final String INPUT_DIR = "data/evaluation/input";
+    private static final String EXPECTED_DIR = "data/evaluation/expected_output";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Restores the default settings changed by the options of a test
+     */
+    @After
+    public void restoreSettings() {
+        ExecutionSettings.reset();
+    }
+
+    /**
+     * Evaluates the given query and checks its output
+     * @param query name of the query file without extension
+     * @param options extra options passed to Minibase before the positional arguments
+     */
+    private void checkQuery(String query, String... options) throws IOException {
+        checkQueryOn(DB_DIR, query, options);
+    }
+
+    /**
+     * Evaluates the given query on a database and checks its output
+     * @param dbDir database directory
+     * @param query name of the query file without extension
+     * @param options extra options passed to Minibase before the positional arguments
+     */
+    private void checkQueryOn(String dbDir, String query, String... options) throws IOException {
+        File output = new File(folder.getRoot(), query + ".csv");
+        String[] args = new String[options.length + 3];
+        System.arraycopy(options, 0, args, 0, options.length);
+        args[options.length] = dbDir;
+        args[options.length + 1] = INPUT_DIR + "/" + query + ".txt";
+        args[options.length + 2] = output.getPath();
+        Minibase.main(args);
+        assertEquals(readSorted(EXPECTED_DIR + "/" + query + ".csv"), readSorted(output.getPath()));
+    }
+
+    /**
+     * Evaluates a query given as text on the evaluation database
+     * @param query query
+     * @param options extra options passed to Minibase before the positional arguments
+     * @return sorted output rows
+     */
+    private List<String> evaluate(String query, String... options) throws IOException {
+        return evaluateOn(DB_DIR, query, options);
+    }
+
+    /**
+     * Evaluates a query given as text on a database
+     * @param dbDir database directory
+     * @param query query
+     * @param options extra options passed to Minibase before the positional arguments
+     * @return sorted output rows
+     */
+    private List<String> evaluateOn(String dbDir, String query, String... options) throws IOException {
+        File input = folder.newFile();
+        Files.write(input.toPath(), query.getBytes(StandardCharsets.UTF_8));
+        File output = new File(folder.getRoot(), input.getName() + ".csv");
+        String[] args = new String[options.length + 3];
+        System.arraycopy(options, 0, args, 0, options.length);
+        args[options.length] = dbDir;
+        args[options.length + 1] = input.getPath();
+        args[options.length + 2] = output.getPath();
+        Minibase.main(args);
+        return readSorted(output.getPath());
+    }
+
+    /**
+     * Copies the evaluation database to the temporary folder so that files can be added to it
+     * @return database directory
+     */
+    private File copyDatabase() throws IOException {
+        File db = folder.newFolder("db");
+        File files = new File(db, "files");
+        files.mkdirs();
+        Files.copy(Paths.get(DB_DIR, "schema.txt"), new File(db, "schema.txt").toPath());
+        for (String relation : new String[]{"R", "S", "T"})
+            Files.copy(Paths.get(DB_DIR, "files", relation + ".csv"), new File(files, relation + ".csv").toPath());
+        return db;
+    }
+
+    private static List<String> readSorted(String path) throws IOException {
+        List<String> lines = new ArrayList<>(Files.readAllLines(Paths.get(path)));
+        lines.removeIf(String::isEmpty);
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void scanQuery() throws IOException {
+        checkQuery("query1");
+    }
+
+    @Test
+    public void selectQuery() throws IOException {
+        checkQuery("query2");
+    }
+
+    @Test
+    public void projectQuery() throws IOException {
+        checkQuery("query3");
+    }
+
+    @Test
+    public void constantInBodyQuery() throws IOException {
+        checkQuery("query4");
+    }
+
+    @Test
+    public void equiJoinQuery() throws IOException {
+        checkQuery("query5");
+    }
+
+    @Test
+    public void threeWayJoinQuery() throws IOException {
+        checkQuery("query6");
+    }
+
+    @Test
+    public void sumQuery() throws IOException {
+        checkQuery("query7");
+    }
+
+    @Test
+    public void sumOfConstantQuery() throws IOException {
+        checkQuery("query8");
+    }
+
+    @Test
+    public void groupBySumQuery() throws IOException {
+        checkQuery("query9");
+    }
+
+    @Test
+    public void spilledAggregateQuery() throws IOException {
+        checkQuery("query9", "--aggregate-memory=1");
+    }
+
+    @Test
+    public void lazyAggregateQuery() throws IOException {
+        for (int i = 7; i <= 9; i++)
+            checkQuery("query" + i, "--eager-aggregation=off");
+    }
+
+    @Test
+    public void emptyPreAggregatedInputQuery() throws IOException {
+        // S is pre-aggregated on no variable, its empty input must not give a count of 0 for every group of T
+        String query = "Q(a, SUM(1)) :- T(a, b), S(d, 'zz', f)";
+        assertEquals(Collections.emptyList(), evaluate(query));
+        assertEquals(Collections.emptyList(), evaluate(query, "--aggregate-threads=2"));
+    }
+
+    @Test
+    public void longSumQuery() throws IOException {
+        // 9^10 does not fit in an integer, the sums are output as longs
+        String query = "Q(SUM(y * y * y * y * y * y * y * y * y * y)) :- R(x, y, z)";
+        assertEquals(Collections.singletonList("10742829477"), evaluate(query));
+        assertEquals(Collections.singletonList("10742829477"), evaluate(query, "--aggregate-threads=2"));
+        assertEquals(Arrays.asList("1, 3486784401", "2, 282475249", "4, 1024", "5, 0", "8, 6973568803"),
+                evaluate("Q(x, SUM(y * y * y * y * y * y * y * y * y * y)) :- R(x, y, z)", "--aggregate-memory=1"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void overflowingSumQuery() throws IOException {
+        // 9^20 does not fit in a long
+        evaluate("Q(SUM(y * y * y * y * y * y * y * y * y * y * y * y * y * y * y * y * y * y * y * y)) :- R(x, y, z)");
+    }
+
+    @Test
+    public void parallelAggregateQuery() throws IOException {
+        for (int i = 7; i <= 9; i++)
+            checkQuery("query" + i, "--aggregate-threads=3", "--batch-size=1");
+    }
+
+    @Test
+    public void parallelSpilledAggregateQuery() throws IOException {
+        File db = copyDatabase();
+        StringBuilder r = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            r.append(i).append(", ").append(i % 7).append(", 'r'\n");
+        Files.write(new File(db, "files/R.csv").toPath(), r.toString().getBytes(StandardCharsets.UTF_8));
+        DatabaseCatalogue.getInstance().setValues(db.getPath(), new File(folder.getRoot(), "sum.csv").getPath());
+        Query query = QueryParser.parse("Q(x, SUM(y)) :- R(x, y, z)");
+        new SelectStatement(query);
+        ExecutionSettings.setBatchSize(1);
+        // the partial tables go over the budget, the rest of the groups are spilled by the serial path
+        HashAggregateOperator aggregate = new HashAggregateOperator(new ScanOperator("R0"),
+                query.getHead().getVariables(), query.getHead().getSumAggregate(), "R0", 1, 2);
+        int spillFiles = countSpillFiles();
+        aggregate.getNextTuple();
+        assertTrue(countSpillFiles() > spillFiles);
+        aggregate.reset();
+        assertEquals(20000, aggregate.getQueryResult().size());
+        assertEquals(spillFiles, countSpillFiles());
+        for (int i = 7; i <= 9; i++)
+            checkQuery("query" + i, "--aggregate-threads=2", "--aggregate-memory=1", "--batch-size=1");
+    }
+
+    @Test(timeout = 10000, expected = StackOverflowError.class)
+    public void failingAggregateWorker() {
+        // the input never ends, the reading thread must still stop once the workers have died
+        DatabaseCatalogue.getInstance().setValues(DB_DIR, new File(folder.getRoot(), "sum.csv").getPath());
+        Query query = QueryParser.parse("Q(x, SUM(y)) :- R(x, y, z)");
+        new SelectStatement(query);
+        TupleLayout layout = new ScanOperator("R0").getNextBatch().getLayout();
+        Operator failing = new Operator() {
+            @Override
+            public TupleBatch getNextBatch() {
+                return new TupleBatch(layout, 1) {
+                    @Override
+                    public int getSelectedCount() {
+                        throw new StackOverflowError();
+                    }
+                };
+            }
+
+            @Override
+            public Tuple getNextTuple() {
+                return null;
+            }
+
+            @Override
+            public void reset() {
+            }
+        };
+        new HashAggregateOperator(failing, query.getHead().getVariables(), query.getHead().getSumAggregate(), "R0", 0, 2)
+                .getNextTuple();
+    }
+
+    @Test
+    public void spillingHashJoinQuery() throws IOException {
+        checkQuery("query5", "--join-memory=100");
+        checkQuery("query6", "--join-memory=100");
+    }
+
+    @Test
+    public void spilledPartitionsReported() {
+        // the aliases R0 and S1 are registered by the statement of the query
+        DatabaseCatalogue.getInstance().setValues(DB_DIR, new File(folder.getRoot(), "join.csv").getPath());
+        new SelectStatement(QueryParser.parse("Q(x) :- R(x, y, z), S(x, w, t)"));
+        GraceHashJoinOperator join = new GraceHashJoinOperator(new ScanOperator("R0"), new ScanOperator("S1"),
+                Collections.emptyList(), Collections.singletonList("x"), 100);
+        assertEquals(7, join.getQueryResult().size());
+        assertTrue(join.getSpilledPartitions() > 0);
+        assertTrue(join.getBytesWritten() > 0);
+        // a join reset while its spilled partitions are being joined deletes the files of the recursive joins too
+        int spillFiles = countSpillFiles();
+        join.reset();
+        for (int i = 0; i < 3; i++)
+            join.getNextTuple();
+        join.reset();
+        assertEquals(spillFiles, countSpillFiles());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void unreadableSpillFile() throws IOException {
+        // a partition that cannot be read fails the query instead of ending its input early
+        SpillFile file = new SpillFile();
+        file.delete();
+        new SpillScanOperator(file).getNextTuple();
+    }
+
+    @Test
+    public void spillReportPrinted() throws IOException {
+        PrintStream err = System.err;
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        try {
+            System.setErr(new PrintStream(report));
+            checkQuery("query5", "--join-memory=100", "--verbose=on");
+        } finally {
+            System.setErr(err);
+        }
+        assertTrue(report.toString().startsWith("Grace hash join spilled "));
+    }
+
+    @Test
+    public void spilledSortMergeJoin() {
+        DatabaseCatalogue.getInstance().setValues(DB_DIR, new File(folder.getRoot(), "join.csv").getPath());
+        new SelectStatement(QueryParser.parse("Q(x) :- R(x, y, z), S(x, w, t)"));
+        SortMergeJoinOperator join = new SortMergeJoinOperator(new ScanOperator("R0"), new ScanOperator("S1"),
+                Collections.emptyList(), Collections.singletonList("x"), 100);
+        int spillFiles = countSpillFiles();
+        assertEquals(7, join.getQueryResult().size());
+        join.reset();
+        assertEquals(7, join.getQueryResult().size());
+        // the sorted runs are deleted once the join is done
+        assertEquals(spillFiles, countSpillFiles());
+    }
+
+    private static int countSpillFiles() {
+        String[] files = new File(System.getProperty("java.io.tmpdir")).list((dir, name) -> name.endsWith(".spill"));
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void parallelHashJoinQuery() throws IOException {
+        for (int i = 5; i <= 9; i++)
+            checkQuery("query" + i, "--join-threads=3");
+        checkQuery("query6", "--join-threads=2", "--batch-size=1");
+    }
+
+    @Test
+    public void parallelHashJoinMatchesSerialJoin() throws IOException {
+        // 20000 build rows fill several partitions and 10000 probe rows in batches of 100 make many morsels
+        File db = copyDatabase();
+        StringBuilder r = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            r.append(i % 5000).append(", ").append(i).append(", 'r'\n");
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+            s.append(i % 5000).append(", 's', ").append(i * 2).append('\n');
+        Files.write(new File(db, "files/R.csv").toPath(), r.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(db, "files/S.csv").toPath(), s.toString().getBytes(StandardCharsets.UTF_8));
+        DatabaseCatalogue.getInstance().setValues(db.getPath(), new File(folder.getRoot(), "join.csv").getPath());
+        Query query = QueryParser.parse("Q(x) :- R(x, y, z), S(x, w, t), y < t");
+        new SelectStatement(query);
+        List<ComparisonAtom> conditions = new ArrayList<>();
+        for (Atom atom : query.getBody()) {
+            if (atom instanceof ComparisonAtom)
+                conditions.add((ComparisonAtom) atom);
+        }
+        ExecutionSettings.setBatchSize(100);
+        List<String> x = Collections.singletonList("x");
+        List<String> expected = toSortedStrings(new HashJoinOperator(new ScanOperator("R0"), new ScanOperator("S1"),
+                conditions, x).getQueryResult());
+        assertTrue(expected.size() > 10000);
+        for (boolean buildLeft : new boolean[]{true, false}) {
+            assertEquals(expected, toSortedStrings(new ParallelHashJoinOperator(new ScanOperator("R0"),
+                    new ScanOperator("S1"), conditions, x, buildLeft, 4).getQueryResult()));
+        }
+    }
+
+    private static List<String> toSortedStrings(List<Tuple> tuples) {
+        List<String> rows = new ArrayList<>();
+        for (Tuple tuple : tuples)
+            rows.add(tuple.toString());
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Test
+    public void memoryMappedScanQuery() throws IOException {
+        for (int i = 1; i <= 6; i++)
+            checkQuery("query" + i, "--mmap-threshold=0");
+    }
+
+    @Test
+    public void parallelScanQuery() throws IOException {
+        for (int i = 1; i <= 9; i++)
+            checkQuery("query" + i, "--mmap-threshold=0", "--scan-threads=4");
+        checkQuery("query8", "--mmap-threshold=0", "--scan-threads=2", "--block-size=1");
+    }
+
+    @Test
+    public void exchangeQuery() throws IOException {
+        for (int i = 1; i <= 9; i++)
+            checkQuery("query" + i, "--mmap-threshold=0", "--exchange-threads=3");
+        checkQuery("query6", "--mmap-threshold=0", "--exchange-threads=2", "--batch-size=1");
+    }
+
+    @Test(timeout = 10000, expected = StackOverflowError.class)
+    public void failingExchangeInstance() {
+        // an instance throwing an Error must still end, the exchange then rethrows it
+        Operator failing = new Operator() {
+            @Override
+            public Tuple getNextTuple() {
+                throw new StackOverflowError();
+            }
+
+            @Override
+            public void reset() {
+            }
+        };
+        new ExchangeOperator(Collections.singletonList(failing)).getNextBatch();
+    }
+
+    @Test
+    public void smallBatchQuery() throws IOException {
+        for (int i = 1; i <= 6; i++)
+            checkQuery("query" + i, "--batch-size=2", "--block-size=3");
+    }
+
+    @Test
+    public void spilledDistinctQuery() throws IOException {
+        for (int i = 1; i <= 6; i++)
+            checkQuery("query" + i, "--distinct-memory=1k");
+    }
+
+    @Test
+    public void analyzedDatabaseQuery() throws IOException {
+        File db = copyDatabase();
+        Minibase.main(new String[]{"--analyze", db.getPath()});
+        assertTrue(new File(db, "stats.txt").exists());
+        TableStatistics statistics = DatabaseCatalogue.getStatistics("R");
+        assertEquals(7, statistics.getRowCount());
+        assertEquals(5, statistics.getColumn(0).getDistinctValues());
+        checkQueryOn(db.getPath(), "query2");
+        checkQueryOn(db.getPath(), "query6");
+    }
+
+    @Test
+    public void sortedInputsQuery() throws IOException {
+        File db = copyDatabase();
+        Minibase.main(new String[]{"--analyze", db.getPath()});
+        // R and S are sorted on their first column, so their joins on x merge the files without sorting them
+        for (int i = 6; i <= 9; i++)
+            checkQueryOn(db.getPath(), "query" + i);
+        // the statistics read back from the file keep the sorted columns
+        assertTrue(DatabaseCatalogue.getStatistics("S").getColumn(0).isSorted());
+        assertFalse(DatabaseCatalogue.getStatistics("S").getColumn(1).isSorted());
+    }
+
+    @Test
+    public void sortedInputsParallelScanQuery() throws IOException {
+        File db = copyDatabase();
+        StringBuilder r = new StringBuilder();
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            r.append(i / 2).append(", ").append(i).append(", 'r'\n");
+            s.append(i / 3).append(", 's', ").append(i).append('\n');
+        }
+        Files.write(new File(db, "files/R.csv").toPath(), r.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(db, "files/S.csv").toPath(), s.toString().getBytes(StandardCharsets.UTF_8));
+        Minibase.main(new String[]{"--analyze", db.getPath()});
+        assertTrue(DatabaseCatalogue.getStatistics("R").getColumn(0).isSorted());
+        assertTrue(DatabaseCatalogue.getStatistics("S").getColumn(0).isSorted());
+        // the scan threads return the chunks of the files in any order, so the join cannot trust the sorted files
+        String[] options = {"--mmap-threshold=0", "--scan-threads=4"};
+        assertEquals(Collections.singletonList("40000"),
+                evaluateOn(db.getPath(), "Q(SUM(1)) :- R(x, y, z), S(x, w, t)", options));
+        assertEquals(40000, evaluateOn(db.getPath(), "Q(x, y, t) :- R(x, y, z), S(x, w, t)", options).size());
+    }
+
+    @Test
+    public void columnarDatabaseQuery() throws IOException {
+        File db = copyDatabase();
+        Minibase.main(new String[]{"--convert", db.getPath()});
+        assertTrue(new File(db, "files/R.col").exists());
+        for (int i = 1; i <= 6; i++)
+            checkQueryOn(db.getPath(), "query" + i);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void truncatedColumnarFile() throws IOException {
+        File db = copyDatabase();
+        Minibase.main(new String[]{"--convert", db.getPath()});
+        // a columnar file that cannot be read fails the query instead of giving an empty table
+        Files.write(new File(db, "files/R.col").toPath(), new byte[]{1, 2, 3});
+        evaluateOn(db.getPath(), "Q(x) :- R(x, y, z)");
+    }
+
+    @Test
+    public void compiledQuery() throws IOException {
+        for (int i = 1; i <= 9; i++)
+            checkQuery("query" + i, "--compile=on");
+        checkQuery("query3", "--compile=on", "--distinct-memory=1k");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void failingCompiledQuery() throws IOException {
+        // the output cannot be opened, the compiled pipeline must fail the query rather than report it as answered
+        File output = folder.newFolder("query2.csv");
+        Minibase.main(new String[]{"--compile=on", DB_DIR, INPUT_DIR + "/query2.txt", output.getPath()});
+    }
+
+    @Test
+    public void serverQuery() throws IOException {
+        // every query twice, evaluated at the same time by the threads of the server
+        StringBuilder requests = new StringBuilder();
+        for (int run = 0; run < 2; run++) {
+            for (int i = 1; i <= 9; i++)
+                requests.append(INPUT_DIR).append("/query").append(i).append(".txt ")
+                        .append(new File(folder.getRoot(), run + "/query" + i + ".csv").getPath()).append('\n');
+        }
+        ByteArrayOutputStream status = new ByteArrayOutputStream();
+        QueryServer server = new QueryServer(DB_DIR, 4);
+        try {
+            server.serve(new BufferedReader(new StringReader(requests.toString())), new PrintStream(status));
+        } finally {
+            server.shutdown();
+        }
+        assertEquals(18, status.toString().split("\n").length);
+        for (int run = 0; run < 2; run++) {
+            for (int i = 1; i <= 9; i++)
+                assertEquals(readSorted(EXPECTED_DIR + "/query" + i + ".csv"),
+                        readSorted(new File(folder.getRoot(), run + "/query" + i + ".csv").getPath()));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void socketServerQuery() throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            port = free.getLocalPort();
+        }
+        QueryServer server = new QueryServer(DB_DIR, 1);
+        Thread listener = new Thread(() -> {
+            try {
+                server.listen(port);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        listener.setDaemon(true);
+        listener.start();
+        // an idle connection must not hold the only query thread
+        try (Socket idle = connect(port); Socket client = connect(port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            PrintStream out = new PrintStream(client.getOutputStream(), true, "UTF-8");
+            out.println("Q(x :- R(x, y");
+            assertTrue(in.readLine().startsWith("error could not parse query: "));
+            assertEquals("", in.readLine());
+            out.println(new String(Files.readAllBytes(Paths.get(INPUT_DIR, "query1.txt")), StandardCharsets.UTF_8).trim());
+            List<String> rows = new ArrayList<>();
+            for (String line = in.readLine(); !line.isEmpty(); line = in.readLine())
+                rows.add(line);
+            Collections.sort(rows);
+            assertEquals(readSorted(EXPECTED_DIR + "/query1.csv"), rows);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Connects to a server, retrying while it is not yet listening
+     * @param port port of the server
+     * @return connection
+     */
+    private static Socket connect(int port) throws InterruptedException {
+        while (true) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (IOException e) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test
+    public void batchQuery() throws IOException {
+        File output = folder.newFolder("batch");
+        Minibase.main(new String[]{"--batch", "--query-threads=3", DB_DIR, INPUT_DIR, output.getPath()});
+        for (int i = 1; i <= 9; i++)
+            assertEquals(readSorted(EXPECTED_DIR + "/query" + i + ".csv"),
+                    readSorted(new File(output, "query" + i + ".csv").getPath()));
+    }
+
+    @Test
+    public void batchFailuresReported() throws IOException {
+        File input = folder.newFolder("failing");
+        File output = folder.newFolder("failing-output");
+        String overflow = "Q(SUM(y * y * y * y * y * y * y * y * y * y * y * y * y * y * y * y * y * y * y * y)) :- R(x, y, z)";
+        Files.copy(Paths.get(INPUT_DIR, "query1.txt"), new File(input, "a.txt").toPath());
+        Files.write(new File(input, "b.txt").toPath(), overflow.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(input, "c.txt").toPath(), overflow.getBytes(StandardCharsets.UTF_8));
+        // every failing query is reported, and the second copy of each query would overwrite the output of the first
+        PrintStream out = System.out;
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(report));
+            Minibase.main(new String[]{"--batch", "--query-threads=2", DB_DIR, input.getPath(), input.getPath(), output.getPath()});
+        } finally {
+            System.setOut(out);
+        }
+        List<String> lines = Arrays.asList(report.toString().split(System.lineSeparator()));
+        assertEquals(5, lines.stream().filter(line -> line.contains(" error ")).count());
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("6 queries (5 failed)")));
+        assertEquals(readSorted(EXPECTED_DIR + "/query1.csv"), readSorted(new File(output, "a.csv").getPath()));
+    }
+
+    @Test
+    public void sharedScanQuery() throws IOException {
+        File output = folder.newFolder("shared");
+        checkQuery("query8", "--shared-scans=on", "--block-size=1");
+        Minibase.main(new String[]{"--batch", "--query-threads=4", DB_DIR, INPUT_DIR, output.getPath()});
+        for (int i = 1; i <= 9; i++)
+            assertEquals(readSorted(EXPECTED_DIR + "/query" + i + ".csv"),
+                    readSorted(new File(output, "query" + i + ".csv").getPath()));
+    }
+
+    @Test
+    public void binaryOutputQuery() throws IOException {
+        // query9 has a SUM column, written as a long
+        for (String query : new String[]{"query2", "query9"}) {
+            File output = new File(folder.getRoot(), query + ".bin");
+            Minibase.main(new String[]{"--output-format=binary", DB_DIR, INPUT_DIR + "/" + query + ".txt", output.getPath()});
+            assertEquals(readSorted(EXPECTED_DIR + "/" + query + ".csv"), readBinary(output));
+        }
+    }
+
+    /**
+     * Decodes the rows of a binary output file into the CSV format of the expected output
+     * @param output binary output file
+     * @return sorted rows
+     */
+    private static List<String> readBinary(File output) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(output))) {
+            assertEquals(BinaryResultSink.MAGIC, in.readInt());
+            byte[] types = new byte[in.readInt()];
+            in.readFully(types);
+            while (in.available() > 0) {
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < types.length; i++) {
+                    if (i > 0)
+                        line.append(", ");
+                    if (types[i] == BinaryResultSink.STRING_TYPE) {
+                        byte[] bytes = new byte[in.readInt()];
+                        in.readFully(bytes);
+                        line.append('\'').append(new String(bytes, StandardCharsets.UTF_8)).append('\'');
+                    } else if (types[i] == BinaryResultSink.LONG_TYPE)
+                        line.append(in.readLong());
+                    else
+                        line.append(in.readInt());
+                }
+                lines.add(line.toString());
+            }
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+}
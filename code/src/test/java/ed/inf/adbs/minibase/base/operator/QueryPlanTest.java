@@ -0,0 +1,175 @@
+package ed.inf.adbs.minibase.base.operator;
+
+import ed.inf.adbs.minibase.base.Atom;
+import ed.inf.adbs.minibase.base.ComparisonAtom;
+import ed.inf.adbs.minibase.base.DatabaseCatalogue;
+import ed.inf.adbs.minibase.base.ExecutionSettings;
+import ed.inf.adbs.minibase.base.IntegerConstant;
+import ed.inf.adbs.minibase.base.StringConstant;
+import ed.inf.adbs.minibase.base.Term;
+import ed.inf.adbs.minibase.base.Tuple;
+import ed.inf.adbs.minibase.base.TupleLayout;
+import ed.inf.adbs.minibase.parser.QueryParser;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the decisions of the planner on databases built so that each decision has a single right answer, where the
+ * evaluation queries would give the same rows whatever the plan
+ */
+public class QueryPlanTest {
+
+    private static final String DB_DIR = "data/evaluation/db";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Restores the default settings changed by a test
+     */
+    @After
+    public void restoreSettings() {
+        ExecutionSettings.reset();
+    }
+
+    /**
+     * Creates a database with the schema of the evaluation database and selects it for the next statements
+     * @param r rows of R, one per line
+     * @param s rows of S, one per line
+     * @param t rows of T, one per line
+     */
+    private void createDatabase(String r, String s, String t) throws IOException {
+        File db = folder.newFolder("db");
+        File files = new File(db, "files");
+        files.mkdirs();
+        Files.copy(Paths.get(DB_DIR, "schema.txt"), new File(db, "schema.txt").toPath());
+        Files.write(new File(files, "R.csv").toPath(), r.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(files, "S.csv").toPath(), s.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(files, "T.csv").toPath(), t.getBytes(StandardCharsets.UTF_8));
+        DatabaseCatalogue.getInstance().setValues(db.getPath(), new File(folder.getRoot(), "output.csv").getPath());
+    }
+
+    @Test
+    public void joinOrderFollowsCardinalities() throws IOException {
+        // R and T share 100 values of x so their join has 40000 rows, S holds 5 of them and keeps 100 rows of R
+        StringBuilder r = new StringBuilder();
+        StringBuilder t = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            r.append(i % 100).append(", ").append(i).append(", 'r'\n");
+            t.append(i % 100).append(", ").append(i).append('\n');
+        }
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 5; i++)
+            s.append(i).append(", 's', ").append(i).append('\n');
+        createDatabase(r.toString(), s.toString(), t.toString());
+        new SelectStatement(QueryParser.parse("Q(x) :- R(x, y, z), T(x, u), S(x, w, v)"));
+        JoinOrderOptimizer optimizer = new JoinOrderOptimizer(Arrays.asList("R0", "T1", "S2"),
+                Collections.emptyMap(), Collections.emptyMap());
+        // the textual order would join R with T first
+        assertEquals("T1", optimizer.getJoinOrder().get(2));
+        // the 100 rows of R and S are the build side of the join with the 2000 rows of T
+        assertTrue(optimizer.isBuildLeft(2));
+    }
+
+    @Test
+    public void compiledPredicatesOnMixedTypes() {
+        String[] conditions = {"x >= 2, 5 > x", "z < 'b'", "y = 'adbs'", "z != 9", "x = z", "x < y", "'a' = 'a'", "1 = 'a'"};
+        List<List<Integer>> expected = Arrays.asList(Arrays.asList(2, 4), Arrays.asList(1, 2), Collections.emptyList(),
+                Collections.emptyList(), Collections.emptyList(), Arrays.asList(1, 2, 8), Arrays.asList(1, 2, 4, 8),
+                Collections.emptyList());
+        TupleLayout layout = TupleLayout.of(Arrays.asList("R0.x", "R0.y", "R0.z"), Arrays.asList("int", "int", "string"));
+        List<Tuple> rows = Arrays.asList(row(layout, 1, 9, "adbs"), row(layout, 2, 7, "anlp"), row(layout, 4, 2, "ids"),
+                row(layout, 8, 9, "zz"));
+        Map<String, Integer> positions = new HashMap<>();
+        positions.put("x", 0);
+        positions.put("y", 1);
+        positions.put("z", 2);
+        for (int c = 0; c < conditions.length; c++) {
+            List<ComparisonAtom> atoms = new ArrayList<>();
+            for (Atom atom : QueryParser.parse("Q(x) :- R(x, y, z), " + conditions[c]).getBody()) {
+                if (atom instanceof ComparisonAtom)
+                    atoms.add((ComparisonAtom) atom);
+            }
+            Predicate predicate = Predicate.compile(atoms, positions);
+            // the tuple at a time and the vectorised paths keep the same rows, a type mismatch keeps none
+            List<Integer> tested = new ArrayList<>();
+            TupleBatch batch = new TupleBatch(layout, rows.size());
+            for (Tuple row : rows) {
+                batch.addRow(row);
+                if (predicate.test(row))
+                    tested.add(row.getInt(0));
+            }
+            int[] selected = {0, 1, 2, 3};
+            int count = predicate.filter(batch, selected, selected.length);
+            List<Integer> filtered = new ArrayList<>();
+            for (int i = 0; i < count; i++)
+                filtered.add(rows.get(selected[i]).getInt(0));
+            assertEquals(conditions[c], expected.get(c), tested);
+            assertEquals(conditions[c], expected.get(c), filtered);
+        }
+    }
+
+    @Test
+    public void selectionsCheckedInTheScan() throws IOException {
+        // the y field of the line 3 cannot be parsed, the scan must reject the line on x before reading it
+        createDatabase("8, 9, 'rl'\n3, oops, 'ids'\n8, 1, 'mlpr'\n", "8, 'pistols', 5\n", "8, 1\n");
+        assertEquals(Arrays.asList("9, 'rl'", "1, 'mlpr'"), evaluate("Q(y, z) :- R(8, y, z)"));
+        assertEquals(Arrays.asList("8, 9", "8, 1"), evaluate("Q(x, y) :- R(x, y, z), x >= 8"));
+        assertEquals(Arrays.asList("9, 'pistols'", "1, 'pistols'"), evaluate("Q(y, w) :- R(8, y, z), S(x, w, t), x = 8"));
+    }
+
+    @Test
+    public void deadColumnsPruned() throws IOException {
+        createDatabase("1, 9, 'adbs'\n", "1, 'smith', 8\n", "8, 3\n");
+        SelectStatement statement = new SelectStatement(QueryParser.parse("Q(x, u) :- R(x, y, z), S(x, w, t), T(t, u)"));
+        List<String> order = Arrays.asList("R0", "S1", "T2");
+        // y and z are used by R alone, w is dead once S is joined and t once T is joined
+        Set<String> afterR = statement.getLiveVariables(order, 1, Collections.emptySet());
+        assertTrue(afterR.contains("x"));
+        assertFalse(afterR.contains("y") || afterR.contains("z"));
+        Set<String> afterS = statement.getLiveVariables(order, 2, Collections.emptySet());
+        assertTrue(afterS.contains("t"));
+        assertFalse(afterS.contains("w"));
+        assertEquals(new HashSet<>(Arrays.asList("x", "u")), statement.getLiveVariables(order, 3, Collections.emptySet()));
+        List<String> columns = new ArrayList<>(Arrays.asList("x", "y", "z"));
+        Operator pruned = SelectStatement.pruneColumns(new ScanOperator("R0"), "R0", columns, afterR);
+        assertEquals(Collections.singletonList("x"), columns);
+        assertEquals(Collections.singletonList("R0.x"), pruned.getNextTuple().getLayout().getSchema());
+    }
+
+    /**
+     * Evaluates a query on the database selected by createDatabase
+     * @param query query
+     * @return output rows in the order they were written
+     */
+    private List<String> evaluate(String query) throws IOException {
+        new SelectStatement(QueryParser.parse(query)).generateAndExecuteQueryPlan();
+        List<String> rows = Files.readAllLines(new File(folder.getRoot(), "output.csv").toPath());
+        rows.removeIf(String::isEmpty);
+        return rows;
+    }
+
+    private static Tuple row(TupleLayout layout, int x, int y, String z) {
+        return new Tuple(layout, new Term[]{new IntegerConstant(x), new IntegerConstant(y), new StringConstant(z)});
+    }
+}